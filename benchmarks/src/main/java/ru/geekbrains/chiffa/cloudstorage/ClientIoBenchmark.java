@@ -0,0 +1,217 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Disk side of client transfers: an upload reads a file into a loopback socket drained by another thread,
+ * a download writes data frames held in memory into a file. Compares the byte array loop the client
+ * used to have with per-frame channel I/O and with what the client does now.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ClientIoBenchmark {
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 4 * 1024;
+
+    public enum Method {
+        /**
+         * Streams copying through a 4 KB byte array.
+         */
+        STREAM,
+        /**
+         * File channel reads and writes of one frame at a time through direct buffers.
+         */
+        CHANNEL,
+        /**
+         * Uploads with transferTo of {@link FileChunkRegion}s, downloads through a {@link FileSink}.
+         */
+        NIO
+    }
+
+    @Param
+    private Method method;
+
+    private Path dir;
+    private Path source;
+    private Path destination;
+    //content of one data frame, written again and again by downloads
+    private ByteBuf frame;
+    private ServerSocketChannel server;
+    private SocketChannel socket;
+    private Thread drain;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = StorageFixture.recreate("client-io");
+        source = dir.resolve("source.bin");
+        destination = dir.resolve("destination.bin");
+        StorageFixture.writeFile(source, FILE_SIZE);
+        frame = PooledByteBufAllocator.DEFAULT.directBuffer(OutboundTransfers.CHUNK_SIZE);
+        frame.writeBytes(StorageFixture.randomBytes(OutboundTransfers.CHUNK_SIZE));
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socket = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        drain = new Thread(() -> drain(peer), "drain");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        socket.close();
+        drain.join();
+        server.close();
+        frame.release();
+        StorageFixture.deleteRecursively(dir);
+    }
+
+    private static void drain(SocketChannel peer) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+        try (SocketChannel channel = peer) {
+            while (channel.read(buffer) >= 0) {
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // the benchmark is over
+        }
+    }
+
+    @Benchmark
+    public long upload() throws IOException {
+        switch (method) {
+            case STREAM:
+                return uploadStream();
+            case CHANNEL:
+                return uploadChannel();
+            default:
+                return uploadNio();
+        }
+    }
+
+    private long uploadStream() throws IOException {
+        OutputStream out = Channels.newOutputStream(socket);
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        long sent = 0;
+        try (InputStream in = new FileInputStream(source.toFile())) {
+            for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+                sent += read;
+            }
+        }
+        return sent;
+    }
+
+    private long uploadChannel() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(OutboundTransfers.CHUNK_SIZE);
+        long sent = 0;
+        try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+            while (file.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    sent += socket.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return sent;
+    }
+
+    private long uploadNio() throws IOException {
+        long sent = 0;
+        try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+            for (long position = 0; position < FILE_SIZE; position += OutboundTransfers.CHUNK_SIZE) {
+                FileChunkRegion region = new FileChunkRegion(file, position,
+                        Math.min(OutboundTransfers.CHUNK_SIZE, FILE_SIZE - position));
+                while (region.transfered() < region.count()) {
+                    sent += region.transferTo(socket, region.transfered());
+                }
+                region.release();
+            }
+        }
+        return sent;
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        Files.deleteIfExists(destination);
+        switch (method) {
+            case STREAM:
+                downloadStream();
+                break;
+            case CHANNEL:
+                downloadChannel();
+                break;
+            default:
+                downloadNio();
+        }
+        return Files.size(destination);
+    }
+
+    private void downloadStream() throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        try (OutputStream out = new FileOutputStream(destination.toFile())) {
+            for (int received = 0; received < FILE_SIZE; received += frame.capacity()) {
+                ByteBuf content = frame.duplicate();
+                while (content.isReadable()) {
+                    int length = Math.min(buffer.length, content.readableBytes());
+                    content.readBytes(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                }
+            }
+        }
+    }
+
+    private void downloadChannel() throws IOException {
+        try (FileChannel file = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            for (long position = 0; position < FILE_SIZE; position += frame.capacity()) {
+                ByteBuffer content = frame.nioBuffer();
+                while (content.hasRemaining()) {
+                    file.write(content, position + content.position());
+                }
+            }
+        }
+    }
+
+    private void downloadNio() throws IOException {
+        try (FileSink file = FileSink.open(destination, 0, true)) {
+            for (int received = 0; received < FILE_SIZE; received += frame.capacity()) {
+                file.write(frame.duplicate());
+            }
+        }
+    }
+}
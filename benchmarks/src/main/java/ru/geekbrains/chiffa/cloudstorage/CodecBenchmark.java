@@ -0,0 +1,89 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of every frame type by {@link FrameCodec}. A data frame is encoded the way
+ * {@link FrameEncoder} does it, as a header in front of its content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CodecBenchmark {
+    @Param({
+            "LIST_FILES_REQUEST", "UPLOAD_REQUEST", "DOWNLOAD_REQUEST", "RENAME_REQUEST", "DELETE_REQUEST",
+            "PING_REQUEST", "UPLOAD_STATUS_REQUEST", "SEGMENTED_UPLOAD_REQUEST", "UPLOAD_SEGMENT_REQUEST",
+            "COMMIT_UPLOAD_REQUEST", "CHUNK_QUERY_REQUEST", "CHUNK_UPLOAD_REQUEST", "COMMIT_MANIFEST_REQUEST",
+            "SIGNATURE_REQUEST", "DELTA_UPLOAD_REQUEST", "CHANGES_REQUEST", "LIST_PAGE_REQUEST",
+            "BATCH_REQUEST", "BATCH_DOWNLOAD_REQUEST", "BATCH_UPLOAD_REQUEST", "SYNC_MANIFEST_REQUEST",
+            "DATA", "WINDOW_UPDATE", "CANCEL_TRANSFER",
+            "LIST_FILES_RESPONSE", "DOWNLOAD_RESPONSE", "ERROR_RESPONSE", "PONG_RESPONSE", "UPLOAD_STATUS_RESPONSE",
+            "SEGMENTED_UPLOAD_RESPONSE", "CHUNKS_RESPONSE", "SIGNATURE_RESPONSE", "CHANGES_RESPONSE",
+            "LIST_PAGE_RESPONSE", "BATCH_RESPONSE", "BATCH_DOWNLOAD_RESPONSE", "SYNC_MANIFEST_RESPONSE",
+            "NOT_MODIFIED_RESPONSE", "CHANGE_NOTIFICATION"
+    })
+    private Opcode opcode;
+
+    private Frame frame;
+    //encoded frame, decoded again and again
+    private ByteBuf encoded;
+    //buffer reused by every encoding
+    private ByteBuf out;
+
+    @Setup
+    public void setUp() {
+        frame = SampleFrames.of(opcode);
+        encoded = PooledByteBufAllocator.DEFAULT.directBuffer();
+        FrameCodec.encode(frame, encoded);
+        out = PooledByteBufAllocator.DEFAULT.directBuffer(encoded.readableBytes());
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (frame instanceof DataFrame) {
+            ((DataFrame) frame).release();
+        }
+        encoded.release();
+        out.release();
+    }
+
+    @Benchmark
+    public ByteBuf encode() {
+        out.clear();
+        if (frame instanceof DataFrame) {
+            DataFrame dataFrame = (DataFrame) frame;
+            FrameCodec.encodeDataHeader(dataFrame.getTransferId(), dataFrame.contentLength(), out);
+        } else {
+            FrameCodec.encode(frame, out);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public Frame decode() {
+        encoded.readerIndex(FrameCodec.LENGTH_FIELD_SIZE);
+        Frame decoded = FrameCodec.decode(encoded);
+        if (decoded instanceof DataFrame) {
+            ((DataFrame) decoded).release();
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,29 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+import java.util.zip.CRC32;
+
+/**
+ * Length and CRC-32 of file content, enough to notice lost, reordered or damaged bytes of a transfer.
+ */
+@AllArgsConstructor
+@EqualsAndHashCode
+@Getter
+class ContentDigest {
+    private final long length;
+    private final long crc;
+
+    static ContentDigest of(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return new ContentDigest(content.length, crc.getValue());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bytes with CRC %08x", length, crc);
+    }
+}
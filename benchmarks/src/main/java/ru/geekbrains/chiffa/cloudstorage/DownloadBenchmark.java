@@ -0,0 +1,161 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Download of a whole file from a server over loopback, from the request to the last data frame,
+ * for every way the server can send file content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class DownloadBenchmark {
+    private static final int FILE_SIZE = 8 * 1024 * 1024;
+    private static final String FILENAME = "download.bin";
+    private static final long TIMEOUT_SECONDS = 30;
+
+    /**
+     * How the server sends the file.
+     */
+    public enum Source {
+        /**
+         * File regions sent with sendfile.
+         */
+        ZERO_COPY,
+        /**
+         * File read chunk by chunk into buffers.
+         */
+        CHUNKED,
+        /**
+         * Direct buffer of {@link HotFileCache} holding the whole file.
+         */
+        CACHED
+    }
+
+    @Param({"ZERO_COPY", "CHUNKED", "CACHED"})
+    private Source source;
+
+    private LoopbackServer server;
+    private EventLoopGroup clientGroup;
+    private Channel channel;
+    private DownloadHandler handler;
+    private int nextTransferId;
+
+    @Setup
+    public void setUp() throws Exception {
+        StorageFixture.recreate("download");
+        ServerConfig config = StorageFixture.config("download");
+        config.setDownloadMode(source == Source.CHUNKED ? DownloadMode.CHUNKED : DownloadMode.ZERO_COPY);
+        config.setHotFileMaxSize(source == Source.CACHED ? FILE_SIZE : 0);
+        Path file = config.getStoragePath().resolve(StorageFixture.USERNAME).resolve(FILENAME);
+        StorageFixture.writeFile(file, FILE_SIZE);
+
+        server = new LoopbackServer(config);
+        clientGroup = new NioEventLoopGroup(1);
+        Bootstrap bootstrap = new Bootstrap()
+                .group(clientGroup)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline().addLast(new FrameDecoder(), new FrameEncoder(), new DownloadHandler());
+                    }
+                });
+        channel = server.connect(bootstrap);
+        handler = channel.pipeline().get(DownloadHandler.class);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        channel.close().sync();
+        clientGroup.shutdownGracefully().sync();
+        server.close();
+    }
+
+    @Benchmark
+    public long download() throws InterruptedException, ExecutionException, TimeoutException {
+        int transferId = ++nextTransferId;
+        CompletableFuture<Long> done = handler.expect(transferId, FILE_SIZE);
+        channel.writeAndFlush(new DownloadRequest(StorageFixture.USERNAME, FILENAME, transferId));
+        return done.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Receives one download at a time, acknowledging its data like the client does.
+     */
+    private static class DownloadHandler extends ChannelHandlerAdapter {
+        //current download, set by the benchmark thread before its request is written
+        private volatile CompletableFuture<Long> done;
+        private volatile InboundWindow window;
+        private volatile long expectedBytes;
+        //accessed only from the event loop
+        private long receivedBytes;
+
+        CompletableFuture<Long> expect(int transferId, long bytes) {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            window = new InboundWindow(transferId);
+            expectedBytes = bytes;
+            done = future;
+            return future;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof DataFrame) {
+                DataFrame frame = (DataFrame) msg;
+                int length = frame.contentLength();
+                frame.release();
+                WindowUpdate update = window.consume(length);
+                if (update != null) {
+                    ctx.writeAndFlush(update);
+                }
+                receivedBytes += length;
+                if (receivedBytes == expectedBytes) {
+                    receivedBytes = 0;
+                    done.complete(expectedBytes);
+                }
+            } else if (msg instanceof ErrorResponse) {
+                done.completeExceptionally(new IOException(((ErrorResponse) msg).getText()));
+            } else {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            done.completeExceptionally(cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing of a directory by {@link MainHandler}, from the request to the encoded response.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ListingBenchmark {
+    @Param({"10", "10000", "100000"})
+    private int files;
+
+    private StorageFixture storage;
+    private EmbeddedChannel channel;
+    //the same request every time, so that generating its random id isn't measured
+    private ListFilesRequest request;
+
+    @Setup
+    public void setUp() throws IOException {
+        String name = "listing-" + files;
+        StorageFixture.recreate(name);
+        ServerConfig config = StorageFixture.config(name);
+        Path userDir = Files.createDirectories(config.getStoragePath().resolve(StorageFixture.USERNAME));
+        for (int i = 0; i < files; i++) {
+            Files.createFile(userDir.resolve(String.format("file-%06d.txt", i)));
+        }
+        storage = new StorageFixture(config);
+        channel = new EmbeddedChannel(new FrameEncoder(), storage.newHandler());
+        request = new ListFilesRequest(StorageFixture.USERNAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finish();
+        storage.close();
+    }
+
+    @Benchmark
+    public int list() {
+        channel.writeInbound(request);
+        ByteBuf response = channel.readOutbound();
+        try {
+            return response.readableBytes();
+        } finally {
+            response.release();
+        }
+    }
+}
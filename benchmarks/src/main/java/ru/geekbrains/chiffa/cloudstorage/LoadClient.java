@@ -0,0 +1,216 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.EventLoop;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
+
+/**
+ * Connection of one simulated user of {@link LoadGenerator}. Unlike the real client it doesn't keep files:
+ * downloaded content is only summed up into a {@link ContentDigest}.
+ * <p>
+ * Not thread safe, all methods must be called from the event loop of the channel.
+ */
+class LoadClient extends ChannelHandlerAdapter {
+    private final Map<UUID, CompletableFuture<Response>> requests = new HashMap<>();
+    //upload transfer ids by the ids of their requests, to stop sending data when an upload fails
+    private final Map<UUID, Integer> uploads = new HashMap<>();
+    //downloads waiting for their response by request id and receiving data by transfer id
+    private final Map<UUID, Download> requestedDownloads = new HashMap<>();
+    private final Map<Integer, Download> downloads = new HashMap<>();
+    private Channel channel;
+    private OutboundTransfers transfers;
+    private int nextTransferId;
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        channel = ctx.channel();
+        transfers = new OutboundTransfers(channel, false);
+    }
+
+    /**
+     * @return response, or an {@link IOException} if the server has answered with an error
+     */
+    CompletableFuture<Response> request(Request request) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        requests.put(request.getId(), response);
+        channel.writeAndFlush(request);
+        return response;
+    }
+
+    /**
+     * Sends the content, releasing it when done.
+     *
+     * @return response to the upload once the server has stored the file
+     */
+    CompletableFuture<Response> upload(String username, String filename, ByteBuf content) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        int transferId = ++nextTransferId;
+        UploadRequest request = new UploadRequest(username, content.readableBytes(), filename, transferId);
+        requests.put(request.getId(), response);
+        uploads.put(request.getId(), transferId);
+        channel.writeAndFlush(request);
+        transfers.send(transferId, content).whenComplete((ignored, e) -> {
+            if (e != null) {
+                fail(request.getId(), e);
+            }
+        });
+        return response;
+    }
+
+    /**
+     * @return digest of the whole downloaded content
+     */
+    CompletableFuture<ContentDigest> download(String username, String filename) {
+        CompletableFuture<ContentDigest> digest = new CompletableFuture<>();
+        int transferId = ++nextTransferId;
+        DownloadRequest request = new DownloadRequest(username, filename, transferId);
+        requestedDownloads.put(request.getId(), new Download(transferId, digest));
+        channel.writeAndFlush(request);
+        return digest;
+    }
+
+    boolean isActive() {
+        return channel.isActive();
+    }
+
+    EventLoop eventLoop() {
+        return channel.eventLoop();
+    }
+
+    /**
+     * May be called from any thread.
+     */
+    void close() {
+        channel.close();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof DataFrame) {
+            receiveData((DataFrame) msg);
+        } else if (msg instanceof WindowUpdate) {
+            transfers.windowUpdate((WindowUpdate) msg);
+        } else if (msg instanceof ErrorResponse) {
+            ErrorResponse response = (ErrorResponse) msg;
+            fail(response.getId(), new IOException(response.getText()));
+        } else if (msg instanceof DownloadResponse) {
+            startDownload((DownloadResponse) msg);
+        } else if (msg instanceof Response) {
+            Response response = (Response) msg;
+            uploads.remove(response.getId());
+            CompletableFuture<Response> future = requests.remove(response.getId());
+            if (future != null) {
+                future.complete(response);
+            }
+        } else {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void startDownload(DownloadResponse response) {
+        Download download = requestedDownloads.remove(response.getId());
+        if (download == null) {
+            return;
+        }
+        download.length = response.getLength();
+        if (download.length == 0) {
+            download.finish();
+        } else {
+            downloads.put(download.transferId, download);
+        }
+    }
+
+    private void receiveData(DataFrame frame) {
+        try {
+            Download download = downloads.get(frame.getTransferId());
+            if (download == null) {
+                return;
+            }
+            ByteBuf content = (ByteBuf) frame.getContent();
+            int length = content.readableBytes();
+            download.crc.update(content.nioBuffer());
+            download.received += length;
+            WindowUpdate update = download.window.consume(length);
+            if (update != null) {
+                channel.writeAndFlush(update);
+            }
+            if (download.received >= download.length) {
+                downloads.remove(frame.getTransferId());
+                download.finish();
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void fail(UUID id, Throwable cause) {
+        Integer transferId = uploads.remove(id);
+        if (transferId != null) {
+            transfers.cancel(transferId, cause);
+        }
+        CompletableFuture<Response> future = requests.remove(id);
+        if (future != null) {
+            future.completeExceptionally(cause);
+        }
+        Download download = requestedDownloads.remove(id);
+        if (download != null) {
+            download.digest.completeExceptionally(cause);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        transfers.flush();
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        IOException cause = new IOException("Connection closed");
+        transfers.cancelAll(cause);
+        for (UUID id : new ArrayList<>(requests.keySet())) {
+            fail(id, cause);
+        }
+        for (UUID id : new ArrayList<>(requestedDownloads.keySet())) {
+            fail(id, cause);
+        }
+        downloads.values().forEach(download -> download.digest.completeExceptionally(cause));
+        downloads.clear();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.close();
+    }
+
+    private static class Download {
+        private final int transferId;
+        private final InboundWindow window;
+        private final CompletableFuture<ContentDigest> digest;
+        private final CRC32 crc = new CRC32();
+        private long length;
+        private long received;
+
+        private Download(int transferId, CompletableFuture<ContentDigest> digest) {
+            this.transferId = transferId;
+            this.window = new InboundWindow(transferId);
+            this.digest = digest;
+        }
+
+        private void finish() {
+            digest.complete(new ContentDigest(received, crc.getValue()));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Locale;
+
+/**
+ * Settings of {@link LoadGenerator}, given as {@code --<name>=<value>} arguments named after the fields.
+ */
+@Getter
+@Setter
+public class LoadConfig {
+    private int users = 100;
+    private long durationSeconds = 60;
+    /**
+     * Weights of the operations each user picks from, {@code <operation>:<weight>,...}.
+     */
+    private String mix = "upload:20,download:50,list:20,rename:5,delete:5";
+    /**
+     * Weights of the sizes of uploaded files in bytes, {@code <size>:<weight>,...}.
+     */
+    private String fileSizes = "4096:50,65536:30,1048576:15,8388608:5";
+    /**
+     * Mean pause of a user between two operations, the pauses are exponentially distributed.
+     */
+    private long thinkMillis = 100;
+    /**
+     * Operations taking longer fail.
+     */
+    private long timeoutSeconds = 60;
+    /**
+     * Interval of intermediate reports, 0 to report only at the end.
+     */
+    private long reportSeconds = 10;
+    private long seed = 1;
+
+    /**
+     * @throws IllegalArgumentException on an unknown name or an invalid value
+     */
+    public static LoadConfig fromArguments(String[] args) {
+        LoadConfig config = new LoadConfig();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --<name>=<value> but got " + arg);
+            }
+            String name = arg.substring(2, separator);
+            String value = arg.substring(separator + 1).trim();
+            try {
+                config.set(name, value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid value of %s: %s", name, value), e);
+            }
+        }
+        config.validate();
+        return config;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "users":
+                users = Integer.parseInt(value);
+                break;
+            case "durationSeconds":
+                durationSeconds = Long.parseLong(value);
+                break;
+            case "mix":
+                mix = value;
+                break;
+            case "fileSizes":
+                fileSizes = value;
+                break;
+            case "thinkMillis":
+                thinkMillis = Long.parseLong(value);
+                break;
+            case "timeoutSeconds":
+                timeoutSeconds = Long.parseLong(value);
+                break;
+            case "reportSeconds":
+                reportSeconds = Long.parseLong(value);
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown setting " + name);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a value is out of its range
+     */
+    public void validate() {
+        if (users < 1 || durationSeconds < 1 || timeoutSeconds < 1) {
+            throw new IllegalArgumentException("Users, duration and timeout must be positive");
+        }
+        if (thinkMillis < 0 || reportSeconds < 0) {
+            throw new IllegalArgumentException("Think time and report interval can't be negative");
+        }
+        if (operations().values().contains(Operation.OTHER)) {
+            throw new IllegalArgumentException("Mix can only hold list, upload, download, rename and delete: " + mix);
+        }
+        if (sizes().values().stream().anyMatch(size -> size < 0)) {
+            throw new IllegalArgumentException("File sizes can't be negative: " + fileSizes);
+        }
+    }
+
+    WeightedChoice<Operation> operations() {
+        return WeightedChoice.parse(mix, value -> Operation.valueOf(value.toUpperCase(Locale.ROOT)));
+    }
+
+    WeightedChoice<Long> sizes() {
+        return WeightedChoice.parse(fileSizes, Long::valueOf);
+    }
+}
@@ -0,0 +1,75 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a server on loopback with a temporary storage and lets simulated users work with it for a while,
+ * then reports throughput and latency per operation, failures and corrupted content.
+ * <p>
+ * Takes the settings of {@link LoadConfig} as {@code --<name>=<value>} arguments, the server is configured
+ * with {@code cloudstorage.<name>} system properties as usual. Exits with status 2 if any content was corrupted.
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.fromArguments(args);
+        ServerConfig serverConfig = ServerConfig.fromSystemProperties();
+        Path storage = Files.createTempDirectory("cloudstorage-load");
+        serverConfig.setStoragePath(storage.resolve("root"));
+
+        LoadStats stats;
+        EventLoopGroup clientGroup = new NioEventLoopGroup();
+        try (LoopbackServer server = new LoopbackServer(serverConfig)) {
+            Bootstrap bootstrap = new Bootstrap()
+                    .group(clientGroup)
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, true)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel channel) {
+                            channel.pipeline().addLast(new FrameDecoder(), new FrameEncoder(), new LoadClient());
+                        }
+                    });
+            List<LoadClient> clients = new ArrayList<>();
+            for (int i = 0; i < config.getUsers(); i++) {
+                clients.add(server.connect(bootstrap).pipeline().get(LoadClient.class));
+            }
+            System.out.printf("%d users connected, running for %d s%n", config.getUsers(), config.getDurationSeconds());
+
+            stats = new LoadStats();
+            long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+            List<CompletableFuture<Void>> users = new ArrayList<>();
+            for (int i = 0; i < clients.size(); i++) {
+                users.add(new VirtualUser(i, clients.get(i), config, stats, deadlineNanos).start());
+            }
+            if (config.getReportSeconds() > 0) {
+                LoadStats running = stats;
+                clientGroup.scheduleAtFixedRate(() -> running.print(System.out),
+                        config.getReportSeconds(), config.getReportSeconds(), TimeUnit.SECONDS);
+            }
+            CompletableFuture.allOf(users.toArray(new CompletableFuture<?>[0]))
+                    .get(config.getDurationSeconds() + config.getTimeoutSeconds() * 2, TimeUnit.SECONDS);
+
+            System.out.println("Final results:");
+            stats.print(System.out);
+            clients.forEach(LoadClient::close);
+        } finally {
+            clientGroup.shutdownGracefully().sync();
+            StorageFixture.deleteRecursively(storage);
+        }
+        System.exit(stats.getCorruptions() > 0 ? 2 : 0);
+    }
+}
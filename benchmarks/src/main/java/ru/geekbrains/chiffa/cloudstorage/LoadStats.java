@@ -0,0 +1,98 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.io.PrintStream;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of a {@link LoadGenerator} run: latency of successful operations, failures by cause
+ * and content which didn't match what was uploaded.
+ * <p>
+ * Thread safe.
+ */
+class LoadStats {
+    private static final int MAX_REPORTED_CAUSES = 10;
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final ConcurrentMap<String, LongAdder> causes = new ConcurrentHashMap<>();
+    private final LongAdder corruptions = new LongAdder();
+    private final LongAdder bytesUploaded = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final long startNanos = System.nanoTime();
+
+    LoadStats() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    void succeeded(Operation operation, long startNanos) {
+        latencies.get(operation).recordSince(startNanos);
+    }
+
+    void failed(Operation operation, Throwable cause) {
+        errors.get(operation).increment();
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        String description = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        causes.computeIfAbsent(description, ignored -> new LongAdder()).increment();
+    }
+
+    void corrupted() {
+        corruptions.increment();
+    }
+
+    void uploaded(long bytes) {
+        bytesUploaded.add(bytes);
+    }
+
+    void downloaded(long bytes) {
+        bytesDownloaded.add(bytes);
+    }
+
+    long getCorruptions() {
+        return corruptions.sum();
+    }
+
+    void print(PrintStream out) {
+        double seconds = Math.max(System.nanoTime() - startNanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+        out.printf("%-10s %10s %8s %10s %10s %10s%n", "operation", "ok", "errors", "ops/s", "p50 ms", "p99 ms");
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram latency = latencies.get(operation);
+            long count = latency.getCount();
+            long errorCount = errors.get(operation).sum();
+            if (count == 0 && errorCount == 0) {
+                continue;
+            }
+            out.printf("%-10s %10d %8d %10.1f %10.2f %10.2f%n", operation.name().toLowerCase(Locale.ROOT),
+                    count, errorCount, count / seconds,
+                    toMillis(latency.percentileNanos(0.5)), toMillis(latency.percentileNanos(0.99)));
+        }
+        out.printf("uploaded %.1f MB/s, downloaded %.1f MB/s, corrupted %d, elapsed %.0f s%n",
+                toMegabytes(bytesUploaded.sum()) / seconds, toMegabytes(bytesDownloaded.sum()) / seconds,
+                corruptions.sum(), seconds);
+        causes.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, LongAdder> entry) -> entry.getValue().sum())
+                        .reversed())
+                .limit(MAX_REPORTED_CAUSES)
+                .forEach(entry -> out.printf("%8d x %s%n", entry.getValue().sum(), entry.getKey()));
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static double toMegabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,73 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NettyServer} running in a thread of its own on a free loopback port.
+ */
+class LoopbackServer implements AutoCloseable {
+    private static final String HOST = "localhost";
+    private static final long START_TIMEOUT_SECONDS = 30;
+
+    private final int port;
+    private final NettyServer server;
+    private final Thread thread;
+
+    /**
+     * Overrides the port of the config with a free one.
+     */
+    LoopbackServer(ServerConfig config) throws IOException {
+        port = freePort();
+        config.setPort(port);
+        server = new NettyServer(config);
+        thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (InterruptedException | IOException e) {
+                throw new IllegalStateException("Server wasn't started", e);
+            }
+        }, "loopback-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Retries until the server thread has bound the port.
+     *
+     * @param bootstrap client bootstrap with everything but the remote address
+     */
+    Channel connect(Bootstrap bootstrap) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(START_TIMEOUT_SECONDS);
+        while (true) {
+            try {
+                return bootstrap.connect(HOST, port).sync().channel();
+            } catch (Exception e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Server didn't start", e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.close();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(START_TIMEOUT_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Frame of every type with typical content, the same on every run.
+ */
+final class SampleFrames {
+    static final int DATA_SIZE = OutboundTransfers.CHUNK_SIZE;
+    private static final int LIST_SIZE = 100;
+    private static final UUID ID = new UUID(1, 2);
+    private static final String USERNAME = "bench";
+    private static final String FILENAME = "holiday-photos-2020.zip";
+    private static final long FILE_SIZE = 512L * 1024 * 1024;
+    private static final String HASH = ChunkRef.toHex(new byte[32]);
+
+    private SampleFrames() {
+    }
+
+    static Frame of(Opcode opcode) {
+        switch (opcode) {
+            case LIST_FILES_REQUEST:
+                return new ListFilesRequest(USERNAME);
+            case UPLOAD_REQUEST:
+                return new UploadRequest(USERNAME, FILE_SIZE, FILENAME, 1);
+            case DOWNLOAD_REQUEST:
+                return new DownloadRequest(USERNAME, FILENAME, 1, 0, DownloadRequest.TO_END, HASH);
+            case RENAME_REQUEST:
+                return new RenameRequest(USERNAME, FILENAME, "renamed-" + FILENAME);
+            case DELETE_REQUEST:
+                return new DeleteRequest(USERNAME, FILENAME);
+            case PING_REQUEST:
+                return new PingRequest();
+            case UPLOAD_STATUS_REQUEST:
+                return new UploadStatusRequest(USERNAME, FILENAME);
+            case SEGMENTED_UPLOAD_REQUEST:
+                return new SegmentedUploadRequest(USERNAME, FILENAME, FILE_SIZE);
+            case UPLOAD_SEGMENT_REQUEST:
+                return new UploadSegmentRequest(ID, 1, FILE_SIZE / 2, FILE_SIZE / 4);
+            case COMMIT_UPLOAD_REQUEST:
+                return new CommitUploadRequest(ID);
+            case CHUNK_QUERY_REQUEST:
+                return new ChunkQueryRequest(hashes());
+            case CHUNK_UPLOAD_REQUEST:
+                return new ChunkUploadRequest(1, chunks());
+            case COMMIT_MANIFEST_REQUEST:
+                return new CommitManifestRequest(USERNAME, FILENAME, chunks());
+            case SIGNATURE_REQUEST:
+                return new SignatureRequest(USERNAME, FILENAME);
+            case DELTA_UPLOAD_REQUEST:
+                return new DeltaUploadRequest(USERNAME, FILENAME, 1, 4096, FILE_SIZE / 16, FILE_SIZE, HASH);
+            case CHANGES_REQUEST:
+                return new ChangesRequest(USERNAME, ID, 1000, true);
+            case LIST_PAGE_REQUEST:
+                return new ListPageRequest(USERNAME, "", ListingOrder.NAME, false, "", LIST_SIZE);
+            case BATCH_REQUEST:
+                return new BatchRequest(USERNAME, operations());
+            case BATCH_DOWNLOAD_REQUEST:
+                return new BatchDownloadRequest(USERNAME, 1, filenames());
+            case BATCH_UPLOAD_REQUEST:
+                return new BatchUploadRequest(USERNAME, 1, filenames(), sizes());
+            case SYNC_MANIFEST_REQUEST:
+                return new SyncManifestRequest(USERNAME, "", "", LIST_SIZE);
+            case DATA:
+                return new DataFrame(1, Unpooled.wrappedBuffer(StorageFixture.randomBytes(DATA_SIZE)));
+            case WINDOW_UPDATE:
+                return new WindowUpdate(1, OutboundTransfers.INITIAL_WINDOW_SIZE / 4);
+            case CANCEL_TRANSFER:
+                return new CancelTransfer(1);
+            case LIST_FILES_RESPONSE:
+                return new ListFilesResponse(ID, filenames());
+            case DOWNLOAD_RESPONSE:
+                return new DownloadResponse(ID, FILENAME, FILE_SIZE, 0, FILE_SIZE, HASH);
+            case ERROR_RESPONSE:
+                return new ErrorResponse(ID, "File " + FILENAME + " doesn't exist");
+            case PONG_RESPONSE:
+                return new PongResponse(ID);
+            case UPLOAD_STATUS_RESPONSE:
+                return new UploadStatusResponse(ID, FILENAME, FILE_SIZE / 2);
+            case SEGMENTED_UPLOAD_RESPONSE:
+                return new SegmentedUploadResponse(ID, ID);
+            case CHUNKS_RESPONSE:
+                return new ChunksResponse(ID, hashes());
+            case SIGNATURE_RESPONSE:
+                return new SignatureResponse(ID, FILE_SIZE, 4096, signatures());
+            case CHANGES_RESPONSE:
+                return new ChangesResponse(ID, ID, 1000, false, changes());
+            case LIST_PAGE_RESPONSE:
+                return new ListPageResponse(ID, entries(), FILENAME);
+            case BATCH_RESPONSE:
+                return new BatchResponse(ID, Collections.nCopies(LIST_SIZE, ""), ID, 1000, changes());
+            case BATCH_DOWNLOAD_RESPONSE:
+                return new BatchDownloadResponse(
+                        ID, sizes(), Collections.nCopies(LIST_SIZE, HASH), Collections.nCopies(LIST_SIZE, ""));
+            case SYNC_MANIFEST_RESPONSE:
+                return new SyncManifestResponse(ID, syncEntries(), FILENAME);
+            case NOT_MODIFIED_RESPONSE:
+                return new NotModifiedResponse(ID, FILENAME, FILE_SIZE);
+            case CHANGE_NOTIFICATION:
+                return new ChangeNotification(USERNAME, ID, new FileChange(1000, FileChange.Type.PUT, FILENAME));
+            default:
+                throw new IllegalArgumentException("No sample of " + opcode);
+        }
+    }
+
+    private static List<String> filenames() {
+        List<String> filenames = new ArrayList<>(LIST_SIZE);
+        for (int i = 0; i < LIST_SIZE; i++) {
+            filenames.add(i + "-" + FILENAME);
+        }
+        return filenames;
+    }
+
+    private static List<Long> sizes() {
+        return Collections.nCopies(LIST_SIZE, FILE_SIZE / LIST_SIZE);
+    }
+
+    private static List<BatchOperation> operations() {
+        List<BatchOperation> operations = new ArrayList<>(LIST_SIZE);
+        for (String filename : filenames()) {
+            operations.add(BatchOperation.rename(filename, "renamed-" + filename));
+        }
+        return operations;
+    }
+
+    private static List<String> hashes() {
+        return Collections.nCopies(LIST_SIZE, HASH);
+    }
+
+    private static List<ChunkRef> chunks() {
+        return Collections.nCopies(LIST_SIZE, new ChunkRef(HASH, ContentDefinedChunker.MIN_CHUNK_SIZE));
+    }
+
+    private static List<BlockSignature> signatures() {
+        BlockSignature signature = new BlockSignature(0x12345678, new byte[BlockSignature.STRONG_HASH_SIZE]);
+        return Collections.nCopies(LIST_SIZE, signature);
+    }
+
+    private static List<FileChange> changes() {
+        List<FileChange> changes = new ArrayList<>(LIST_SIZE);
+        for (String filename : filenames()) {
+            changes.add(new FileChange(1000 + changes.size(), FileChange.Type.PUT, filename));
+        }
+        return changes;
+    }
+
+    private static List<FileEntry> entries() {
+        List<FileEntry> entries = new ArrayList<>(LIST_SIZE);
+        for (String filename : filenames()) {
+            entries.add(new FileEntry(filename, FileEntry.Type.FILE, FILE_SIZE, 1_600_000_000_000L));
+        }
+        return entries;
+    }
+
+    private static List<SyncEntry> syncEntries() {
+        List<SyncEntry> entries = new ArrayList<>(LIST_SIZE);
+        for (String filename : filenames()) {
+            entries.add(new SyncEntry(filename, FILE_SIZE, 1_600_000_000_000L, HASH));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,141 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server side state of one storage for benchmarks which drive {@link MainHandler} without a socket.
+ * Handlers run storage work on the calling thread, so a benchmark thread sees its responses as soon as
+ * the request has been written.
+ * <p>
+ * Storages live in fixed directories under the system temp directory and are filled with the same
+ * pseudo-random data on every run, so results of different releases can be compared.
+ */
+class StorageFixture implements AutoCloseable {
+    static final String USERNAME = "bench";
+    private static final long SEED = 42;
+
+    private final ServerConfig config;
+    private final Set<Path> activeUploads = ConcurrentHashMap.newKeySet();
+    private final EventLoopGroup eventLoops = new DefaultEventLoopGroup(1);
+    private final ServerMetrics metrics = new ServerMetrics(activeUploads::size, eventLoops);
+    private final GroupCommitter groupCommitter;
+    private final SegmentedUploads segmentedUploads;
+    private final ChunkStore chunkStore;
+    private final ChangeLog changeLog;
+    private final MetadataIndex metadataIndex;
+    private final SyncManifest syncManifest;
+    private final HotFileCache hotFileCache;
+    private final UploadBudget uploadBudget;
+    private final TrafficShaper trafficShaper;
+
+    StorageFixture(ServerConfig config) throws IOException {
+        this.config = config;
+        this.groupCommitter = new GroupCommitter(config.getGroupCommitWindowMillis(), metrics.getFsyncLatency());
+        this.segmentedUploads = new SegmentedUploads(activeUploads, config.getSegmentedUploadTimeoutMillis());
+        this.chunkStore = new ChunkStore(config.getStoragePath());
+        this.changeLog = new ChangeLog(config.getChangeLogRetention());
+        this.metadataIndex = new MetadataIndex(
+                config.getStoragePath(), chunkStore, groupCommitter, config.getIndexSnapshotRecords());
+        this.syncManifest = new SyncManifest(config.getStoragePath(), metadataIndex, chunkStore);
+        this.hotFileCache = new HotFileCache(config.getHotFileMaxSize(), config.getHotFileCacheBytes());
+        this.uploadBudget = new UploadBudget(config.getUploadBudgetBytes());
+        this.trafficShaper = new TrafficShaper(config);
+        Files.createDirectories(config.getStoragePath());
+        chunkStore.load();
+        metadataIndex.load();
+    }
+
+    /**
+     * @return handler of a new connection
+     */
+    MainHandler newHandler() {
+        return new MainHandler(config, groupCommitter, Runnable::run, activeUploads, segmentedUploads, chunkStore,
+                changeLog, metadataIndex, syncManifest, hotFileCache, uploadBudget, trafficShaper, metrics);
+    }
+
+    @Override
+    public void close() {
+        syncManifest.close();
+        groupCommitter.close();
+        metadataIndex.close();
+        hotFileCache.clear();
+        eventLoops.shutdownGracefully();
+    }
+
+    /**
+     * @return config of the storage in the fixed directory with the given name
+     */
+    static ServerConfig config(String name) {
+        ServerConfig config = new ServerConfig();
+        config.setStoragePath(directory(name).resolve("root"));
+        return config;
+    }
+
+    /**
+     * @return empty directory with the given name, whatever a previous run has left there
+     */
+    static Path recreate(String name) throws IOException {
+        Path dir = directory(name);
+        if (Files.exists(dir)) {
+            deleteRecursively(dir);
+        }
+        return Files.createDirectories(dir);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Writes the same pseudo-random bytes for the same size.
+     */
+    static void writeFile(Path path, long size) throws IOException {
+        Files.createDirectories(path.getParent());
+        Random random = new Random(SEED);
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+
+    /**
+     * @return the same pseudo-random bytes for the same size
+     */
+    static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(SEED).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static Path directory(String name) {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "cloudstorage-benchmarks", name);
+    }
+}
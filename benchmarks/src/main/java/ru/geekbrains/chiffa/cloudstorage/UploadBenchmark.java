@@ -0,0 +1,94 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload of a whole file through {@link FrameDecoder} and {@link MainHandler} on an {@link EmbeddedChannel},
+ * from the request to the response, with data frames of different sizes. The file is forced once
+ * when complete, as with the default sync policy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class UploadBenchmark {
+    private static final int FILE_SIZE = 32 * 1024 * 1024;
+    private static final String FILENAME = "upload.bin";
+    private static final int TRANSFER_ID = 1;
+
+    @Param({"4096", "65536", "1048576"})
+    private int chunkSize;
+
+    private StorageFixture storage;
+    //encoded upload request and data frame, written again for every upload
+    private ByteBuf request;
+    private ByteBuf dataFrame;
+
+    @Setup
+    public void setUp() throws IOException {
+        StorageFixture.recreate("upload");
+        storage = new StorageFixture(StorageFixture.config("upload"));
+        request = PooledByteBufAllocator.DEFAULT.directBuffer();
+        FrameCodec.encode(new UploadRequest(StorageFixture.USERNAME, FILE_SIZE, FILENAME, TRANSFER_ID), request);
+        dataFrame = PooledByteBufAllocator.DEFAULT.directBuffer(FrameCodec.DATA_HEADER_SIZE + chunkSize);
+        FrameCodec.encodeDataHeader(TRANSFER_ID, chunkSize, dataFrame);
+        dataFrame.writeBytes(StorageFixture.randomBytes(chunkSize));
+    }
+
+    @TearDown
+    public void tearDown() {
+        request.release();
+        dataFrame.release();
+        storage.close();
+    }
+
+    @Benchmark
+    public Object upload() {
+        EmbeddedChannel channel = new EmbeddedChannel(new FrameDecoder(), storage.newHandler());
+        try {
+            channel.writeInbound(request.duplicate().retain());
+            for (int sent = 0; sent < FILE_SIZE; sent += chunkSize) {
+                channel.writeInbound(dataFrame.duplicate().retain());
+            }
+            return response(channel);
+        } finally {
+            channel.finish();
+        }
+    }
+
+    /**
+     * Skips window updates of the upload.
+     */
+    private static Object response(EmbeddedChannel channel) {
+        for (Object msg = channel.readOutbound(); msg != null; msg = channel.readOutbound()) {
+            if (msg instanceof ErrorResponse) {
+                throw new IllegalStateException(((ErrorResponse) msg).getText());
+            }
+            if (msg instanceof Response) {
+                return msg;
+            }
+            ReferenceCountUtil.release(msg);
+        }
+        throw new IllegalStateException("Upload wasn't answered");
+    }
+}
@@ -0,0 +1,214 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Simulated user of {@link LoadGenerator} doing one operation at a time with think time in between.
+ * The user knows the content of every file it has uploaded, so it checks downloads and listings against it.
+ * <p>
+ * Everything runs on the event loop of the connection, so the state of the user needs no locking.
+ * An operation which has timed out is still applied to the state when its answer comes.
+ */
+class VirtualUser {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualUser.class);
+
+    private final String username;
+    private final LoadClient client;
+    private final LoadConfig config;
+    private final WeightedChoice<Operation> operations;
+    private final WeightedChoice<Long> sizes;
+    private final LoadStats stats;
+    private final Random random;
+    private final long deadlineNanos;
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    //digests of the files of the user by name, null until downloaded for files found after a failure,
+    //and the names again to pick from
+    private final Map<String, ContentDigest> files = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    //set when an operation has failed and the server may or may not have done it
+    private boolean uncertain;
+    //operations which have timed out but may still be done by the server
+    private int unanswered;
+    private int nextFileId;
+
+    VirtualUser(int index, LoadClient client, LoadConfig config, LoadStats stats, long deadlineNanos) {
+        this.username = String.format("user-%04d", index);
+        this.client = client;
+        this.config = config;
+        this.operations = config.operations();
+        this.sizes = config.sizes();
+        this.stats = stats;
+        this.random = new Random(config.getSeed() * 1_000_003 + index);
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @return future completed once the user has finished its last operation after the deadline,
+     * or its connection has been closed
+     */
+    CompletableFuture<Void> start() {
+        scheduleNext();
+        return finished;
+    }
+
+    private void scheduleNext() {
+        long thinkMillis = (long) (-Math.log(1 - random.nextDouble()) * config.getThinkMillis());
+        client.eventLoop().schedule(this::next, thinkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void next() {
+        if (System.nanoTime() >= deadlineNanos || !client.isActive()) {
+            finished.complete(null);
+            return;
+        }
+        Operation operation = operations.next(random);
+        if (names.isEmpty() && operation != Operation.LIST) {
+            operation = Operation.UPLOAD;
+        }
+        Operation started = operation;
+        long startNanos = System.nanoTime();
+        withTimeout(run(operation)).whenComplete((ignored, e) -> {
+            if (e == null) {
+                stats.succeeded(started, startNanos);
+            } else {
+                uncertain = true;
+                stats.failed(started, e);
+            }
+            scheduleNext();
+        });
+    }
+
+    private CompletableFuture<?> run(Operation operation) {
+        switch (operation) {
+            case UPLOAD:
+                return upload();
+            case DOWNLOAD:
+                return download();
+            case LIST:
+                return list();
+            case RENAME:
+                return rename();
+            case DELETE:
+                return delete();
+            default:
+                throw new IllegalArgumentException("Unsupported operation " + operation);
+        }
+    }
+
+    private CompletableFuture<?> upload() {
+        String name = "file-" + nextFileId++;
+        byte[] content = content(sizes.next(random).intValue());
+        ContentDigest digest = ContentDigest.of(content);
+        ByteBuf buffer = Unpooled.wrappedBuffer(content);
+        return client.upload(username, name, buffer).thenRun(() -> {
+            stats.uploaded(content.length);
+            if (files.put(name, digest) == null) {
+                names.add(name);
+            }
+        });
+    }
+
+    private CompletableFuture<?> download() {
+        String name = randomName();
+        ContentDigest expected = files.get(name);
+        return client.download(username, name).thenAccept(actual -> {
+            stats.downloaded(actual.getLength());
+            if (expected == null) {
+                files.put(name, actual);
+            } else if (!actual.equals(expected)) {
+                stats.corrupted();
+                logger.warn("File {} of {} is corrupted: expected {} but got {}", name, username, expected, actual);
+            }
+        });
+    }
+
+    /**
+     * After a failure the listing is taken as it is, otherwise it must show exactly the files of the user.
+     * Files which only the listing knows of are checked against their first download.
+     */
+    private CompletableFuture<?> list() {
+        return client.request(new ListFilesRequest(username)).thenAccept(response -> {
+            List<String> listed = ((ListFilesResponse) response).getFiles();
+            if (unanswered > 0) {
+                return;
+            }
+            if (uncertain) {
+                files.keySet().retainAll(new HashSet<>(listed));
+                listed.forEach(name -> files.putIfAbsent(name, null));
+                names.clear();
+                names.addAll(files.keySet());
+                uncertain = false;
+            } else if (!new HashSet<>(listed).equals(files.keySet())) {
+                stats.corrupted();
+                logger.warn("Listing of {} has {} files instead of {}", username, listed.size(), files.size());
+            }
+        });
+    }
+
+    private CompletableFuture<?> rename() {
+        String name = randomName();
+        String newName = "file-" + nextFileId++;
+        return client.request(new RenameRequest(username, name, newName)).thenRun(() -> {
+            files.put(newName, files.remove(name));
+            names.set(names.indexOf(name), newName);
+        });
+    }
+
+    private CompletableFuture<?> delete() {
+        String name = randomName();
+        return client.request(new DeleteRequest(username, name)).thenRun(() -> {
+            files.remove(name);
+            names.remove(name);
+        });
+    }
+
+    private String randomName() {
+        return names.get(random.nextInt(names.size()));
+    }
+
+    private byte[] content(int size) {
+        SplittableRandom bytes = new SplittableRandom(random.nextLong());
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i += Long.BYTES) {
+            long value = bytes.nextLong();
+            for (int j = i; j < Math.min(i + Long.BYTES, size); j++) {
+                content[j] = (byte) value;
+                value >>>= 8;
+            }
+        }
+        return content;
+    }
+
+    private CompletableFuture<?> withTimeout(CompletableFuture<?> operation) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = client.eventLoop().schedule(() -> {
+            unanswered++;
+            result.completeExceptionally(new TimeoutException("No answer in " + config.getTimeoutSeconds() + " s"));
+        }, config.getTimeoutSeconds(), TimeUnit.SECONDS);
+        operation.whenComplete((ignored, e) -> {
+            if (!timeout.cancel(false)) {
+                unanswered--;
+            } else if (e == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,69 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Random choice among values in proportion to their weights.
+ */
+class WeightedChoice<T> {
+    private final List<T> values;
+    private final int[] cumulativeWeights;
+
+    private WeightedChoice(List<T> values, int[] cumulativeWeights) {
+        this.values = values;
+        this.cumulativeWeights = cumulativeWeights;
+    }
+
+    /**
+     * @param text   {@code <value>:<weight>,...}
+     * @param parser parser of a value
+     * @throws IllegalArgumentException if the text is malformed or no weight is positive
+     */
+    static <T> WeightedChoice<T> parse(String text, Function<String, T> parser) {
+        List<T> values = new ArrayList<>();
+        int[] cumulativeWeights = new int[0];
+        int total = 0;
+        for (String pair : text.split(",")) {
+            if (pair.trim().isEmpty()) {
+                continue;
+            }
+            int separator = pair.lastIndexOf(':');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected <value>:<weight> but got " + pair);
+            }
+            T value = parser.apply(pair.substring(0, separator).trim());
+            int weight = Integer.parseInt(pair.substring(separator + 1).trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weight can't be negative: " + pair);
+            }
+            if (weight == 0) {
+                continue;
+            }
+            total += weight;
+            values.add(value);
+            cumulativeWeights = Arrays.copyOf(cumulativeWeights, values.size());
+            cumulativeWeights[values.size() - 1] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("No value has a positive weight: " + text);
+        }
+        return new WeightedChoice<>(values, cumulativeWeights);
+    }
+
+    T next(Random random) {
+        int point = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int index = Arrays.binarySearch(cumulativeWeights, point + 1);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return values.get(index);
+    }
+
+    List<T> values() {
+        return values;
+    }
+}
@@ -0,0 +1,45 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * Rate limit of the client in one direction, shared by all its connections. Uploads are throttled through
+ * {@link OutboundTransfers}, downloads are paced by holding back window updates.
+ * <p>
+ * Thread safe.
+ */
+public class BandwidthLimit implements TransferThrottle {
+    private volatile RateLimiter limiter = new RateLimiter(0, 0);
+
+    /**
+     * @param bytesPerSecond new rate, 0 for no limit
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        // a tenth of a second of traffic may go at once, but not less than a chunk
+        limiter = new RateLimiter(bytesPerSecond, Math.max(bytesPerSecond / 10, OutboundTransfers.CHUNK_SIZE));
+    }
+
+    /**
+     * @return nanoseconds until more bytes may go, 0 if they may go now
+     */
+    public long delayNanos() {
+        return limiter.delayNanos();
+    }
+
+    public void take(int bytes) {
+        limiter.take(bytes);
+    }
+
+    @Override
+    public long delayNanos(String owner) {
+        return delayNanos();
+    }
+
+    @Override
+    public void sent(String owner, int bytes) {
+        take(bytes);
+    }
+
+    @Override
+    public int weight(String owner) {
+        return 1;
+    }
+}
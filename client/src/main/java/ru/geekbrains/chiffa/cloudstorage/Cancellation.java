@@ -0,0 +1,46 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Stops an upload or a download of the {@link Client} which may be running. The operation tracks the futures
+ * of its transfers as it starts them, and cancelling them stops the transfers on both sides.
+ * <p>
+ * Thread safe.
+ */
+public class Cancellation {
+    private final List<Future<?>> futures = new ArrayList<>();
+    private boolean cancelled;
+
+    /**
+     * Cancels the future right away if the operation has been cancelled already.
+     *
+     * @return the future
+     */
+    public <T extends Future<?>> T track(T future) {
+        synchronized (this) {
+            if (!cancelled) {
+                futures.add(future);
+                return future;
+            }
+        }
+        future.cancel(false);
+        return future;
+    }
+
+    public void cancel() {
+        List<Future<?>> tracked;
+        synchronized (this) {
+            cancelled = true;
+            tracked = new ArrayList<>(futures);
+            futures.clear();
+        }
+        tracked.forEach(future -> future.cancel(false));
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -1,113 +1,460 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
-import io.netty.handler.codec.serialization.ObjectDecoderInputStream;
-import io.netty.handler.codec.serialization.ObjectEncoderOutputStream;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.Setter;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Client keeps a few persistent connections to the server and sends requests over them
+ * without waiting for previous responses.
+ */
+public class Client implements AutoCloseable {
+    public static final String DEFAULT_HOST = "localhost";
+    public static final int DEFAULT_PORT = 8888;
+    public static final int KEEPALIVE_SECONDS = 30;
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 16L * 1024 * 1024;
 
-public class Client {
-    public static final int BUFFER_SIZE = 4096;
     private final Path rootDir;
     private final String userName;
-    private Socket socket;
-    private final ExecutorService executorService;
+    private final EventLoopGroup group;
+    private final List<ClientConnection> connections = new ArrayList<>();
+    private final AtomicInteger nextConnection = new AtomicInteger();
+    private final RemoteFileList files = new RemoteFileList();
+    private final List<Consumer<List<String>>> listeners = new CopyOnWriteArrayList<>();
+    private final BandwidthLimit uploadLimit = new BandwidthLimit();
+    private final BandwidthLimit downloadLimit = new BandwidthLimit();
+    /**
+     * Files are split into segments uploaded in parallel only when every segment gets at least this many bytes.
+     */
+    @Setter
+    private volatile long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    /**
+     * Uploads send only the chunks of files that the server doesn't store yet.
+     */
+    @Setter
+    private volatile boolean deduplicate;
+
+    public Client(String clientName, Path rootDir) {
+        this(clientName, rootDir, DEFAULT_HOST, DEFAULT_PORT, 1);
+    }
 
-    public Client(String clientName, ExecutorService executorService, Path rootDir) {
+    public Client(String clientName, Path rootDir, String host, int port, int connectionCount) {
         this.userName = clientName;
-        this.executorService = executorService;
         this.rootDir = rootDir;
+        this.group = new NioEventLoopGroup(1, Executors.newCachedThreadPool(new DefaultThreadFactory("client", true)));
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .remoteAddress(host, port)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline().addLast(
+                                new IdleStateHandler(0, KEEPALIVE_SECONDS, 0),
+                                new FrameDecoder(),
+                                new FrameEncoder(),
+                                new ClientHandler(Client.this::onChangeNotification, uploadLimit, downloadLimit)
+                        );
+                    }
+                });
+        for (int i = 0; i < connectionCount; i++) {
+            connections.add(new ClientConnection(bootstrap));
+        }
+    }
+
+    /**
+     * Limits the rate of all uploads of the client together, 0 for no limit.
+     */
+    public void setUploadLimit(long bytesPerSecond) {
+        uploadLimit.setBytesPerSecond(bytesPerSecond);
+    }
+
+    /**
+     * Limits the rate of all downloads of the client together, 0 for no limit.
+     */
+    public void setDownloadLimit(long bytesPerSecond) {
+        downloadLimit.setBytesPerSecond(bytesPerSecond);
+    }
+
+    private ClientConnection nextConnection() {
+        return connections.get(Math.floorMod(nextConnection.getAndIncrement(), connections.size()));
+    }
+
+    private CompletableFuture<Message> send(Request request) {
+        return nextConnection().channel()
+                .thenCompose(channel -> channel.pipeline().get(ClientHandler.class).send(channel, request));
+    }
+
+    /**
+     * Uploads the file over one connection or, if it is large enough, in segments over all connections.
+     */
+    public CompletableFuture<List<String>> upload(Path filePath) {
+        return upload(filePath, new Cancellation());
     }
 
-    private void connect() {
+    /**
+     * Uploads the file as {@link #upload(Path)} does, stopping the transfers once the cancellation is cancelled.
+     */
+    public CompletableFuture<List<String>> upload(Path filePath, Cancellation cancellation) {
+        return upload(filePath, filePath.getFileName().toString(), cancellation);
+    }
+
+    /**
+     * Uploads the file as {@link #upload(Path)} does, storing it under the name.
+     */
+    public CompletableFuture<List<String>> upload(Path filePath, String fileName, Cancellation cancellation) {
+        if (deduplicate) {
+            return uploadDeduplicated(filePath, fileName, cancellation);
+        }
+        long fileSize;
         try {
-            socket = new Socket("localhost", 8888);
+            fileSize = Files.size(filePath);
         } catch (IOException e) {
-            e.printStackTrace();
+            return failed(new UncheckedIOException("File is unreadable", e));
         }
+        int segmentCount = (int) Math.min(connections.size(), Math.max(1, fileSize / minSegmentSize));
+        return segmentCount > 1
+                ? uploadSegmented(filePath, fileName, segmentCount, cancellation)
+                : uploadFrom(filePath, fileName, 0, cancellation);
     }
 
-    public CompletableFuture<List<String>> upload(Path filePath) {
-        return CompletableFuture.supplyAsync(() -> {
-            connect();
-
-            try (OutputStream os = socket.getOutputStream();
-                 ObjectEncoderOutputStream encoderOutputStream = new ObjectEncoderOutputStream(os);
-                 ObjectDecoderInputStream decoderInputStream = new ObjectDecoderInputStream(socket.getInputStream())) {
-
-                UploadRequest uploadRequest = new UploadRequest(
-                        userName,
-                        Files.size(filePath),
-                        filePath.getFileName().toString());
-                encoderOutputStream.writeObject(uploadRequest);
-                encoderOutputStream.flush();
-                sendFile(filePath.toString(), os);
-
-                return handleResponse(decoderInputStream.readObject());
-            } catch (IOException e) {
-                throw new RuntimeException("Connection failed", e);
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException("Server's answer is unreadable. Please check updates", e);
-            }
-        }, executorService);
+    /**
+     * Splits the file into {@code segmentCount} ranges sent concurrently over the connections of the client.
+     * The server replaces the stored file only after every segment has arrived.
+     */
+    public CompletableFuture<List<String>> uploadSegmented(Path filePath, int segmentCount) {
+        return uploadSegmented(filePath, filePath.getFileName().toString(), segmentCount, new Cancellation());
     }
 
-    private void sendFile(String filePath, OutputStream ous) throws IOException {
-        try (InputStream fis = new FileInputStream(filePath)) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int count;
-            while ((count = fis.read(buffer)) != -1) {
-                ous.write(buffer, 0, count);
-            }
-            ous.flush();
+    private CompletableFuture<List<String>> uploadSegmented(Path filePath, String fileName, int segmentCount,
+                                                            Cancellation cancellation) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("Segment count must be positive: " + segmentCount);
+        }
+        long fileSize;
+        try {
+            fileSize = Files.size(filePath);
+        } catch (IOException e) {
+            return failed(new UncheckedIOException("File is unreadable", e));
         }
+        return CompletableFuture.supplyAsync(() -> localChecksum(filePath))
+                .thenCompose(checksum -> send(new SegmentedUploadRequest(userName, fileName, fileSize, checksum)))
+                .thenCompose(response -> {
+                    if (!(response instanceof SegmentedUploadResponse)) {
+                        throw new RuntimeException(handleErrorResponse(response));
+                    }
+                    UUID uploadId = ((SegmentedUploadResponse) response).getUploadId();
+                    long segmentSize = (fileSize + segmentCount - 1) / segmentCount;
+                    List<CompletableFuture<Message>> segments = new ArrayList<>();
+                    for (long offset = 0; offset < fileSize; offset += segmentSize) {
+                        segments.add(uploadSegment(uploadId, filePath, offset, Math.min(segmentSize, fileSize - offset),
+                                cancellation));
+                    }
+                    return CompletableFuture.allOf(segments.toArray(new CompletableFuture<?>[0]))
+                            .thenCompose(ignored -> {
+                                for (CompletableFuture<Message> segment : segments) {
+                                    if (!(segment.join() instanceof SegmentedUploadResponse)) {
+                                        throw new RuntimeException(handleErrorResponse(segment.join()));
+                                    }
+                                }
+                                return send(new CommitUploadRequest(uploadId));
+                            });
+                })
+                .thenCompose(this::handleChanges);
     }
 
-    public CompletableFuture<List<String>> refresh() {
-        return CompletableFuture.supplyAsync(() -> {
-            connect();
+    /**
+     * Splits the file into content-defined chunks, sends only those the server doesn't have and stores
+     * the file as the list of its chunks.
+     */
+    public CompletableFuture<List<String>> uploadDeduplicated(Path filePath) {
+        return uploadDeduplicated(filePath, filePath.getFileName().toString(), new Cancellation());
+    }
 
-            try (ObjectEncoderOutputStream ous = new ObjectEncoderOutputStream(socket.getOutputStream());
-                 ObjectDecoderInputStream ois = new ObjectDecoderInputStream(socket.getInputStream())) {
-                ous.writeObject(new ListFilesRequest(userName));
+    private CompletableFuture<List<String>> uploadDeduplicated(Path filePath, String fileName,
+                                                               Cancellation cancellation) {
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    try {
+                        return ContentDefinedChunker.split(filePath);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("File is unreadable", e);
+                    }
+                })
+                .thenCompose(chunks -> {
+                    List<String> hashes = chunks.stream().map(ChunkRef::getHash).collect(Collectors.toList());
+                    return send(new ChunkQueryRequest(hashes))
+                            .thenCompose(response -> uploadChunks(filePath, chunks, response, cancellation))
+                            .thenCompose(ignored -> send(new CommitManifestRequest(userName, fileName, chunks)));
+                })
+                .thenCompose(this::handleChanges);
+    }
 
-                return handleResponse(ois.readObject());
-            } catch (IOException | ClassNotFoundException e) {
-                throw new RuntimeException("Server is unable", e);
+    private CompletableFuture<Void> uploadChunks(Path filePath, List<ChunkRef> chunks, Message queryResponse,
+                                                 Cancellation cancellation) {
+        if (!(queryResponse instanceof ChunksResponse)) {
+            throw new RuntimeException(handleErrorResponse(queryResponse));
+        }
+        // chunks repeating in the file are sent once
+        Set<String> missing = new HashSet<>(((ChunksResponse) queryResponse).getMissing());
+        List<ChunkRef> missingChunks = new ArrayList<>();
+        List<FileSlice> slices = new ArrayList<>();
+        long offset = 0;
+        for (ChunkRef chunk : chunks) {
+            if (missing.remove(chunk.getHash())) {
+                missingChunks.add(chunk);
+                slices.add(new FileSlice(filePath, offset, chunk.getLength()));
             }
-        }, executorService);
+            offset += chunk.getLength();
+        }
+
+        // missing chunks are spread over the connections
+        int groupCount = Math.min(connections.size(), missingChunks.size());
+        List<CompletableFuture<Message>> groups = new ArrayList<>();
+        for (int i = 0; i < groupCount; i++) {
+            int from = missingChunks.size() * i / groupCount;
+            int to = missingChunks.size() * (i + 1) / groupCount;
+            List<ChunkRef> groupChunks = missingChunks.subList(from, to);
+            List<FileSlice> groupSlices = slices.subList(from, to);
+            groups.add(nextConnection().channel().thenCompose(channel -> {
+                ClientHandler handler = channel.pipeline().get(ClientHandler.class);
+                ChunkUploadRequest request = new ChunkUploadRequest(handler.nextTransferId(), groupChunks);
+                return cancellation.track(handler.sendChunks(channel, request, groupSlices));
+            }));
+        }
+        return CompletableFuture.allOf(groups.toArray(new CompletableFuture<?>[0])).thenAccept(ignored -> {
+            for (CompletableFuture<Message> group : groups) {
+                Message response = group.join();
+                if (!(response instanceof ChunksResponse)) {
+                    throw new RuntimeException(handleErrorResponse(response));
+                }
+                if (!((ChunksResponse) response).getMissing().isEmpty()) {
+                    throw new RuntimeException("File has changed while it was uploaded");
+                }
+            }
+        });
     }
 
-    public CompletableFuture<List<String>> delete(String fileName) {
-        return CompletableFuture.supplyAsync(() -> {
-            connect();
+    /**
+     * Uploads a new version of a file stored on the server sending only the bytes that differ from it.
+     */
+    public CompletableFuture<List<String>> uploadDelta(Path filePath) {
+        return uploadDelta(filePath, filePath.getFileName().toString(), new Cancellation());
+    }
+
+    /**
+     * Uploads the file as {@link #uploadDelta(Path)} does, storing it under the name.
+     */
+    public CompletableFuture<List<String>> uploadDelta(Path filePath, String fileName, Cancellation cancellation) {
+        return send(new SignatureRequest(userName, fileName))
+                .thenComposeAsync(response -> {
+                    if (!(response instanceof SignatureResponse)) {
+                        throw new RuntimeException(handleErrorResponse(response));
+                    }
+                    SignatureResponse signatures = (SignatureResponse) response;
+                    DeltaEncoder encoder = new DeltaEncoder(signatures);
+                    Path deltaFile;
+                    long deltaLength;
+                    try {
+                        deltaFile = Files.createTempFile("delta", null);
+                        encoder.encode(filePath, deltaFile);
+                        deltaLength = Files.size(deltaFile);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("File is unreadable", e);
+                    }
+                    return nextConnection().channel()
+                            .thenCompose(channel -> {
+                                ClientHandler handler = channel.pipeline().get(ClientHandler.class);
+                                DeltaUploadRequest request = new DeltaUploadRequest(
+                                        userName, fileName, handler.nextTransferId(), signatures.getBlockSize(),
+                                        deltaLength, encoder.getFileSize(), encoder.getFileHash());
+                                return cancellation.track(handler.sendDelta(channel, request, deltaFile));
+                            })
+                            .whenComplete((ignored, e) -> deleteQuietly(deltaFile));
+                })
+                .thenCompose(this::handleChanges);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // a temporary file, it is left to the system
+        }
+    }
 
-            try (ObjectEncoderOutputStream ous = new ObjectEncoderOutputStream(socket.getOutputStream());
-                 ObjectDecoderInputStream ois = new ObjectDecoderInputStream(socket.getInputStream())) {
-                ous.writeObject(new DeleteRequest(userName, fileName));
+    private CompletableFuture<Message> uploadSegment(UUID uploadId, Path filePath, long offset, long length,
+                                                     Cancellation cancellation) {
+        return nextConnection().channel()
+                .thenCompose(channel -> {
+                    ClientHandler handler = channel.pipeline().get(ClientHandler.class);
+                    UploadSegmentRequest request = new UploadSegmentRequest(
+                            uploadId, handler.nextTransferId(), offset, length);
+                    return cancellation.track(handler.sendSegment(channel, request, filePath));
+                });
+    }
 
-                return handleResponse(ois.readObject());
-            } catch (IOException | ClassNotFoundException e) {
-                throw new RuntimeException("Server is unable", e);
+    /**
+     * Continues an interrupted upload of the file from the offset the server has stored.
+     */
+    public CompletableFuture<List<String>> resumeUpload(Path filePath) {
+        String fileName = filePath.getFileName().toString();
+        return send(new UploadStatusRequest(userName, fileName)).thenCompose(response -> {
+            if (response instanceof UploadStatusResponse) {
+                return uploadFrom(filePath, fileName, ((UploadStatusResponse) response).getOffset(),
+                        new Cancellation());
+            } else {
+                throw new RuntimeException(handleErrorResponse(response));
             }
-        }, executorService);
+        });
     }
 
-    private List<String> handleResponse(Object response) {
-        if (response instanceof ListFilesResponse) {
-            return ((ListFilesResponse) response).getFiles();
+    private CompletableFuture<List<String>> uploadFrom(Path filePath, String fileName, long offset,
+                                                       Cancellation cancellation) {
+        long fileSize;
+        try {
+            fileSize = Files.size(filePath);
+        } catch (IOException e) {
+            return failed(new UncheckedIOException("File is unreadable", e));
+        }
+        return CompletableFuture.supplyAsync(() -> localChecksum(filePath))
+                .thenCompose(checksum -> nextConnection().channel().thenCompose(channel -> {
+                    ClientHandler handler = channel.pipeline().get(ClientHandler.class);
+                    UploadRequest request = new UploadRequest(userName, fileSize, fileName, handler.nextTransferId(),
+                            Math.min(offset, fileSize), checksum);
+                    return cancellation.track(handler.sendUpload(channel, request, filePath));
+                }))
+                .thenCompose(this::handleChanges);
+    }
+
+    /**
+     * Brings the file list up to date, fetching only the changes since the last known version.
+     */
+    public CompletableFuture<List<String>> refresh() {
+        return send(files.changesRequest(userName, false)).thenCompose(this::handleChanges);
+    }
+
+    /**
+     * Keeps the file list up to date with the changes made by other clients of the user, the listener
+     * is called with the new list on every change.
+     */
+    public CompletableFuture<List<String>> subscribe(Consumer<List<String>> listener) {
+        listeners.add(listener);
+        ClientConnection connection = connections.get(0);
+        // a reconnected channel has lost the subscription and maybe some changes
+        connection.setConnectListener(channel -> sendSubscription(channel)
+                .thenCompose(this::handleChanges));
+        return connection.channel()
+                .thenCompose(this::sendSubscription)
+                .thenCompose(this::handleChanges);
+    }
+
+    private CompletableFuture<Message> sendSubscription(Channel channel) {
+        return channel.pipeline().get(ClientHandler.class).send(channel, files.changesRequest(userName, true));
+    }
+
+    private void onChangeNotification(ChangeNotification notification) {
+        if (!notification.getUsername().equals(userName)) {
+            return;
+        }
+        if (files.apply(notification.getLogId(), notification.getChange())) {
+            filesChanged();
         } else {
-            throw new RuntimeException(handleErrorResponse(response));
+            refresh();
         }
     }
 
-    private String handleErrorResponse(Object response) {
+    private List<String> filesChanged() {
+        List<String> names = files.getNames();
+        listeners.forEach(listener -> listener.accept(names));
+        return names;
+    }
+
+    /**
+     * @return one page of the files whose names start with the prefix, sorted by the server
+     */
+    public CompletableFuture<ListPageResponse> listPage(String prefix, ListingOrder order, boolean descending,
+                                                        String cursor, int pageSize) {
+        return send(new ListPageRequest(userName, prefix, order, descending, cursor, pageSize))
+                .thenApply(response -> {
+                    if (response instanceof ListPageResponse) {
+                        return (ListPageResponse) response;
+                    }
+                    throw new RuntimeException(handleErrorResponse(response));
+                });
+    }
+
+    /**
+     * Passes all files whose names start with the prefix to the consumer in order, asking for the next
+     * page only after the previous one has been consumed.
+     *
+     * @return future completed with the number of listed files
+     */
+    public CompletableFuture<Long> list(String prefix, ListingOrder order, boolean descending,
+                                        Consumer<FileEntry> consumer) {
+        return listFrom(prefix, order, descending, "", consumer, 0);
+    }
+
+    private CompletableFuture<Long> listFrom(String prefix, ListingOrder order, boolean descending, String cursor,
+                                             Consumer<FileEntry> consumer, long listed) {
+        return listPage(prefix, order, descending, cursor, ListPageRequest.MAX_PAGE_SIZE)
+                .thenCompose(page -> {
+                    page.getEntries().forEach(consumer);
+                    long count = listed + page.getEntries().size();
+                    if (page.isLast()) {
+                        return CompletableFuture.completedFuture(count);
+                    }
+                    return listFrom(prefix, order, descending, page.getCursor(), consumer, count);
+                });
+    }
+
+    public CompletableFuture<List<String>> delete(String fileName) {
+        return send(new DeleteRequest(userName, fileName)).thenCompose(this::handleChanges);
+    }
+
+    /**
+     * Applies the changes answering a request to the file list, refetching the whole list if some are missing.
+     */
+    private CompletableFuture<List<String>> handleChanges(Message response) {
+        if (!(response instanceof ChangesResponse)) {
+            return failed(new RuntimeException(handleErrorResponse(response)));
+        }
+        if (files.apply((ChangesResponse) response)) {
+            return CompletableFuture.completedFuture(filesChanged());
+        }
+        return send(new ChangesRequest(userName, ChangesRequest.NO_LOG, 0, false))
+                .thenCompose(this::handleChanges);
+    }
+
+    private String handleErrorResponse(Message response) {
         if (response instanceof ErrorResponse) {
             return ((ErrorResponse) response).getText();
         } else {
@@ -116,62 +463,275 @@ public class Client {
     }
 
     public CompletableFuture<Boolean> download(String fileName) {
-        return CompletableFuture.supplyAsync(() -> {
-            connect();
+        return download(fileName, new Cancellation());
+    }
 
-            try (ObjectEncoderOutputStream ous = new ObjectEncoderOutputStream(socket.getOutputStream());
-                 ObjectDecoderInputStream ois = new ObjectDecoderInputStream(socket.getInputStream())) {
+    /**
+     * Downloads the file, stopping the transfer once the cancellation is cancelled. The checksum of a local
+     * copy goes with the request, the server sends nothing if the stored file has the same content.
+     */
+    public CompletableFuture<Boolean> download(String fileName, Cancellation cancellation) {
+        Path destPath = rootDir.resolve(userName).resolve(fileName);
+        return CompletableFuture.supplyAsync(() -> localChecksum(destPath))
+                .thenCompose(knownChecksum ->
+                        download(fileName, 0, DownloadRequest.TO_END, knownChecksum, cancellation));
+    }
 
-                ous.writeObject(new DownloadRequest(userName, fileName));
+    /**
+     * @return checksum of the local file, empty if there is none or it can't be read
+     */
+    private static String localChecksum(Path path) {
+        try {
+            return Files.isRegularFile(path)
+                    ? FileSlice.checksum(Collections.singletonList(new FileSlice(path, 0, Files.size(path))))
+                    : "";
+        } catch (IOException e) {
+            // downloaded as a new one
+            return "";
+        }
+    }
 
-                Object response = ois.readObject();
-                if (response instanceof DownloadResponse) {
-                    return handleDownloadResponse((DownloadResponse) response, ois);
-                } else {
-                    throw new RuntimeException(handleErrorResponse(response));
-                }
-            } catch (IOException | ClassNotFoundException e) {
-                throw new RuntimeException("Server is unable", e);
-            }
-        }, executorService);
+    /**
+     * Continues an interrupted download from the size of the local file.
+     */
+    public CompletableFuture<Boolean> resumeDownload(String fileName) {
+        Path destPath = rootDir.resolve(userName).resolve(fileName);
+        long offset;
+        try {
+            offset = Files.exists(destPath) ? Files.size(destPath) : 0;
+        } catch (IOException e) {
+            return failed(new UncheckedIOException("File is unreadable", e));
+        }
+        return download(fileName, offset, DownloadRequest.TO_END, "", new Cancellation());
+    }
+
+    /**
+     * Downloads {@code length} bytes of the file starting from {@code offset} into the same range of the local file.
+     */
+    public CompletableFuture<Boolean> download(String fileName, long offset, long length) {
+        return download(fileName, offset, length, "", new Cancellation());
+    }
+
+    private CompletableFuture<Boolean> download(String fileName, long offset, long length, String knownChecksum,
+                                                Cancellation cancellation) {
+        Path destPath = rootDir.resolve(userName).resolve(fileName);
+        return nextConnection().channel()
+                .thenCompose(channel -> {
+                    ClientHandler handler = channel.pipeline().get(ClientHandler.class);
+                    DownloadRequest request = new DownloadRequest(
+                            userName, fileName, handler.nextTransferId(), offset, length, knownChecksum);
+                    return cancellation.track(handler.sendDownload(channel, request, destPath));
+                })
+                .thenApply(response -> {
+                    if (response instanceof DownloadResponse || response instanceof NotModifiedResponse) {
+                        return true;
+                    } else {
+                        throw new RuntimeException(handleErrorResponse(response));
+                    }
+                });
+    }
+
+    public CompletableFuture<List<String>> rename(String fileName, String newFileName) {
+        return send(new RenameRequest(userName, fileName, newFileName)).thenCompose(this::handleChanges);
+    }
+
+    /**
+     * Applies the operations in order, as few requests as possible carry them. Every request is applied
+     * by the server in one pass and answered with the changes of all its operations.
+     *
+     * @return future completed with an error text for every operation, empty for the operations which succeeded
+     */
+    public CompletableFuture<List<String>> batch(List<BatchOperation> operations) {
+        CompletableFuture<List<String>> errors = CompletableFuture.completedFuture(new ArrayList<>());
+        for (List<BatchOperation> part : partition(operations, BatchRequest.MAX_OPERATIONS)) {
+            errors = errors.thenCompose(previous -> send(new BatchRequest(userName, part))
+                    .thenCompose(this::handleBatchResponse)
+                    .thenApply(partErrors -> {
+                        previous.addAll(partErrors);
+                        return previous;
+                    }));
+        }
+        return errors;
     }
 
-    private boolean handleDownloadResponse(DownloadResponse response, ObjectDecoderInputStream is) throws IOException, ClassNotFoundException {
-        Path userDir = rootDir.resolve(userName);
-        if (!Files.exists(userDir)) {
-            Files.createDirectories(userDir);
+    /**
+     * @return future completed with an error text for every file, empty for the deleted ones
+     */
+    public CompletableFuture<List<String>> deleteAll(List<String> fileNames) {
+        return batch(fileNames.stream().map(BatchOperation::delete).collect(Collectors.toList()));
+    }
+
+    private CompletableFuture<List<String>> handleBatchResponse(Message response) {
+        if (!(response instanceof BatchResponse)) {
+            return failed(new RuntimeException(handleErrorResponse(response)));
         }
+        BatchResponse batch = (BatchResponse) response;
+        return handleChanges(batch.toChangesResponse()).thenApply(ignored -> batch.getErrors());
+    }
 
-        Path destPath = userDir.resolve(response.getFilename());
-        long fileSize = response.getFileSize();
+    /**
+     * Downloads the files streamed one after another by the server, a request carries up to
+     * {@link BatchDownloadRequest#MAX_FILES} of them.
+     *
+     * @return future completed with an error text for every file, empty for the downloaded ones
+     */
+    public CompletableFuture<List<String>> downloadAll(List<String> fileNames, Cancellation cancellation) {
+        List<Path> destPaths = fileNames.stream()
+                .map(fileName -> rootDir.resolve(userName).resolve(fileName))
+                .collect(Collectors.toList());
+        return downloadAll(fileNames, destPaths, cancellation);
+    }
 
-        if (!Files.exists(destPath)) {
-            Files.createFile(destPath);
+    /**
+     * Downloads the files as {@link #downloadAll(List, Cancellation)} does, each into its own local path.
+     */
+    public CompletableFuture<List<String>> downloadAll(List<String> fileNames, List<Path> destPaths,
+                                                       Cancellation cancellation) {
+        List<CompletableFuture<List<String>>> parts = new ArrayList<>();
+        for (int from = 0; from < fileNames.size(); from += BatchDownloadRequest.MAX_FILES) {
+            int to = Math.min(from + BatchDownloadRequest.MAX_FILES, fileNames.size());
+            List<String> part = fileNames.subList(from, to);
+            List<Path> partPaths = destPaths.subList(from, to);
+            parts.add(nextConnection().channel()
+                    .thenCompose(channel -> {
+                        ClientHandler handler = channel.pipeline().get(ClientHandler.class);
+                        BatchDownloadRequest request = new BatchDownloadRequest(
+                                userName, handler.nextTransferId(), part);
+                        return cancellation.track(handler.sendBatchDownload(channel, request, partPaths));
+                    })
+                    .thenApply(response -> {
+                        if (response instanceof BatchDownloadResponse) {
+                            return ((BatchDownloadResponse) response).getErrors();
+                        }
+                        throw new RuntimeException(handleErrorResponse(response));
+                    }));
         }
-        try (FileOutputStream fos = new FileOutputStream(destPath.toFile())) {
-            byte[] buffer = new byte[BUFFER_SIZE];
-            for (long i = 0; i < fileSize; ) {
-                int count = is.read(buffer, 0,
-                        (int) (i + BUFFER_SIZE > fileSize ? fileSize - i : BUFFER_SIZE));
-                fos.write(buffer, 0, count);
-                i += count;
+        return concat(parts);
+    }
+
+    /**
+     * Uploads the files sending them one after another, a request carries up to
+     * {@link BatchUploadRequest#MAX_FILES} of them. Meant for many small files: a large file is uploaded
+     * faster on its own by {@link #upload(Path)}.
+     *
+     * @return future completed with an error text for every file, empty for the uploaded ones
+     */
+    public CompletableFuture<List<String>> uploadAll(List<Path> filePaths, Cancellation cancellation) {
+        List<String> fileNames = filePaths.stream()
+                .map(filePath -> filePath.getFileName().toString())
+                .collect(Collectors.toList());
+        return uploadAll(filePaths, fileNames, cancellation);
+    }
+
+    /**
+     * Uploads the files as {@link #uploadAll(List, Cancellation)} does, each under its own name.
+     */
+    public CompletableFuture<List<String>> uploadAll(List<Path> filePaths, List<String> fileNames,
+                                                     Cancellation cancellation) {
+        List<Long> fileSizes = new ArrayList<>();
+        for (Path filePath : filePaths) {
+            try {
+                fileSizes.add(Files.size(filePath));
+            } catch (IOException e) {
+                return failed(new UncheckedIOException("File is unreadable", e));
             }
-            return true;
         }
+        List<CompletableFuture<List<String>>> parts = new ArrayList<>();
+        for (int from = 0; from < filePaths.size(); from += BatchUploadRequest.MAX_FILES) {
+            int to = Math.min(from + BatchUploadRequest.MAX_FILES, filePaths.size());
+            List<Path> partPaths = filePaths.subList(from, to);
+            List<String> partNames = fileNames.subList(from, to);
+            List<Long> partSizes = fileSizes.subList(from, to);
+            parts.add(CompletableFuture.supplyAsync(() -> partPaths.stream()
+                            .map(Client::localChecksum)
+                            .collect(Collectors.toList()))
+                    .thenCompose(checksums -> nextConnection().channel().thenCompose(channel -> {
+                        ClientHandler handler = channel.pipeline().get(ClientHandler.class);
+                        BatchUploadRequest request = new BatchUploadRequest(
+                                userName, handler.nextTransferId(), partNames, partSizes, checksums);
+                        return cancellation.track(handler.sendBatchUpload(channel, request, partPaths));
+                    }))
+                    .thenCompose(this::handleBatchResponse));
+        }
+        return concat(parts);
     }
 
-    public CompletableFuture<List<String>> rename(String fileName, String newFileName) {
-        return CompletableFuture.supplyAsync(() -> {
-            connect();
+    /**
+     * @return future completed with the manifest of the files whose names start with the prefix, sorted by name
+     */
+    public CompletableFuture<List<SyncEntry>> manifest(String prefix) {
+        return manifestFrom(prefix, "", new ArrayList<>());
+    }
 
-            try (ObjectEncoderOutputStream ous = new ObjectEncoderOutputStream(socket.getOutputStream());
-                 ObjectDecoderInputStream ois = new ObjectDecoderInputStream(socket.getInputStream())) {
-                ous.writeObject(new RenameRequest(userName, fileName, newFileName));
+    private CompletableFuture<List<SyncEntry>> manifestFrom(String prefix, String cursor, List<SyncEntry> entries) {
+        return send(new SyncManifestRequest(userName, prefix, cursor, SyncManifestRequest.MAX_PAGE_SIZE))
+                .thenCompose(response -> {
+                    if (!(response instanceof SyncManifestResponse)) {
+                        throw new RuntimeException(handleErrorResponse(response));
+                    }
+                    SyncManifestResponse page = (SyncManifestResponse) response;
+                    entries.addAll(page.getEntries());
+                    if (page.isLast()) {
+                        return CompletableFuture.completedFuture(entries);
+                    }
+                    return manifestFrom(prefix, page.getCursor(), entries);
+                });
+    }
 
-                return handleResponse(ois.readObject());
-            } catch (IOException | ClassNotFoundException e) {
-                throw new RuntimeException("Server is unable", e);
-            }
-        }, executorService);
+    /**
+     * Makes the folder of the storage a copy of the local directory and its subdirectories, sending only
+     * the new and changed files. Stored files missing locally are deleted if {@code deleteExtraneous} is set.
+     *
+     * @param folder name of the folder in the storage, empty for the whole storage of the user
+     */
+    public CompletableFuture<SyncResult> syncUp(Path localDir, String folder, boolean deleteExtraneous,
+                                                Cancellation cancellation) {
+        return new FolderSync(this, localDir, folder, deleteExtraneous, cancellation).up();
+    }
+
+    /**
+     * Makes the local directory a copy of the folder of the storage, downloading only the new and changed
+     * files. Local files missing in the storage are deleted if {@code deleteExtraneous} is set.
+     *
+     * @param folder name of the folder in the storage, empty for the whole storage of the user
+     */
+    public CompletableFuture<SyncResult> syncDown(String folder, Path localDir, boolean deleteExtraneous,
+                                                  Cancellation cancellation) {
+        return new FolderSync(this, localDir, folder, deleteExtraneous, cancellation).down();
+    }
+
+    int getConnectionCount() {
+        return connections.size();
+    }
+
+    private static <T> List<List<T>> partition(List<T> items, int size) {
+        List<List<T>> parts = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += size) {
+            parts.add(items.subList(from, Math.min(from + size, items.size())));
+        }
+        return parts;
+    }
+
+    /**
+     * @return future completed with the lists of all parts one after another
+     */
+    private static CompletableFuture<List<String>> concat(List<CompletableFuture<List<String>>> parts) {
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<String> all = new ArrayList<>();
+            parts.forEach(part -> all.addAll(part.join()));
+            return all;
+        });
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    @Override
+    public void close() {
+        connections.forEach(ClientConnection::close);
+        group.shutdownGracefully();
     }
 }
@@ -0,0 +1,89 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import lombok.Setter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived connection to the server. It is opened on first use and reopened automatically
+ * with exponential backoff after it has been lost.
+ */
+public class ClientConnection {
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 500;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000;
+
+    private final Bootstrap bootstrap;
+    private Channel channel;
+    private CompletableFuture<Channel> connecting;
+    private long reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+    private boolean closed;
+    /**
+     * Called with every newly connected channel, e.g. to restore subscriptions.
+     */
+    @Setter
+    private volatile Consumer<Channel> connectListener = channel -> { };
+
+    public ClientConnection(Bootstrap bootstrap) {
+        this.bootstrap = bootstrap;
+    }
+
+    /**
+     * @return future of an active channel, connecting if there is none
+     */
+    public synchronized CompletableFuture<Channel> channel() {
+        if (channel != null && channel.isActive()) {
+            return CompletableFuture.completedFuture(channel);
+        }
+        if (connecting == null) {
+            connect();
+        }
+        return connecting;
+    }
+
+    private synchronized void connect() {
+        CompletableFuture<Channel> future = new CompletableFuture<>();
+        connecting = future;
+        bootstrap.connect().addListener(f -> onConnected((ChannelFuture) f, future));
+    }
+
+    private synchronized void onConnected(ChannelFuture connectFuture, CompletableFuture<Channel> future) {
+        connecting = null;
+        if (connectFuture.isSuccess()) {
+            channel = connectFuture.channel();
+            reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+            channel.closeFuture().addListener(f -> scheduleReconnect());
+            connectListener.accept(channel);
+            future.complete(channel);
+        } else {
+            future.completeExceptionally(connectFuture.cause());
+            scheduleReconnect();
+        }
+    }
+
+    private synchronized void scheduleReconnect() {
+        if (closed || connecting != null) {
+            return;
+        }
+        long delay = reconnectDelayMillis;
+        reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+        bootstrap.group().schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void reconnect() {
+        if (!closed && connecting == null && (channel == null || !channel.isActive())) {
+            connect();
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
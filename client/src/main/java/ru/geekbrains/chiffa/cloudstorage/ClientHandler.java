@@ -0,0 +1,492 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.timeout.IdleStateEvent;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Correlates responses of one connection with the requests sent over it by their ids.
+ * Several requests, uploads and downloads may be in flight at the same time, file content
+ * of every transfer travels in {@link DataFrame}s tagged with its transfer id.
+ * Cancelling the future of an upload or a download stops the transfer on both sides.
+ */
+public class ClientHandler extends ChannelHandlerAdapter {
+    private final Map<UUID, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicInteger nextTransferId = new AtomicInteger();
+    private final Consumer<ChangeNotification> notificationListener;
+    private final BandwidthLimit uploadLimit;
+    private final BandwidthLimit downloadLimit;
+    private Channel channel;
+
+    //transfers, accessed only from the event loop
+    private OutboundTransfers uploads;
+    private final Map<Integer, Download> downloads = new HashMap<>();
+
+    public ClientHandler(Consumer<ChangeNotification> notificationListener) {
+        this(notificationListener, new BandwidthLimit(), new BandwidthLimit());
+    }
+
+    public ClientHandler(Consumer<ChangeNotification> notificationListener, BandwidthLimit uploadLimit,
+                         BandwidthLimit downloadLimit) {
+        this.notificationListener = notificationListener;
+        this.uploadLimit = uploadLimit;
+        this.downloadLimit = downloadLimit;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        channel = ctx.channel();
+        uploads = new OutboundTransfers(channel, true, uploadLimit);
+    }
+
+    public int nextTransferId() {
+        return nextTransferId.incrementAndGet();
+    }
+
+    public CompletableFuture<Message> send(Channel channel, Request request) {
+        CompletableFuture<Message> future = register(request.getId(), -1, null);
+        channel.writeAndFlush(request).addListener(f -> {
+            if (!f.isSuccess()) {
+                fail(request.getId(), f.cause());
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return future completed with the server's response once the file has been stored
+     */
+    public CompletableFuture<Message> sendUpload(Channel channel, UploadRequest request, Path filePath) {
+        return sendFileRange(channel, request, request.getTransferId(), filePath,
+                request.getOffset(), request.getFileSize() - request.getOffset());
+    }
+
+    /**
+     * @return future completed with the server's response once the segment has been written
+     */
+    public CompletableFuture<Message> sendSegment(Channel channel, UploadSegmentRequest request, Path filePath) {
+        return sendFileRange(channel, request, request.getTransferId(), filePath, request.getOffset(), request.getLength());
+    }
+
+    /**
+     * @return future completed with the server's response once the file has been rebuilt from the delta
+     */
+    public CompletableFuture<Message> sendDelta(Channel channel, DeltaUploadRequest request, Path deltaFile) {
+        return sendFileRange(channel, request, request.getTransferId(), deltaFile, 0, request.getDeltaLength());
+    }
+
+    /**
+     * Sends the slices of local files holding the chunks in the order of the request.
+     *
+     * @return future completed with the server's response once the chunks have been verified and stored
+     */
+    public CompletableFuture<Message> sendChunks(Channel channel, ChunkUploadRequest request, List<FileSlice> slices) {
+        return sendSlices(channel, request, request.getTransferId(), slices);
+    }
+
+    /**
+     * Sends the whole files of the request one after another.
+     *
+     * @return future completed with the server's response once all files have been stored or have failed
+     */
+    public CompletableFuture<Message> sendBatchUpload(Channel channel, BatchUploadRequest request,
+                                                      List<Path> filePaths) {
+        List<FileSlice> slices = new ArrayList<>();
+        for (int i = 0; i < filePaths.size(); i++) {
+            slices.add(new FileSlice(filePaths.get(i), 0, request.getFileSizes().get(i)));
+        }
+        return sendSlices(channel, request, request.getTransferId(), slices);
+    }
+
+    private CompletableFuture<Message> sendSlices(Channel channel, Request request, int transferId,
+                                                  List<FileSlice> slices) {
+        CompletableFuture<Message> future = register(request.getId(), transferId, null);
+        channel.eventLoop().execute(() -> {
+            channel.writeAndFlush(request);
+            uploads.send(transferId, slices)
+                    .whenComplete((ignored, e) -> {
+                        if (e != null) {
+                            fail(request.getId(), e);
+                        }
+                    });
+        });
+        return future;
+    }
+
+    private CompletableFuture<Message> sendFileRange(Channel channel, Request request, int transferId, Path filePath,
+                                                     long offset, long length) {
+        FileChannel file;
+        try {
+            file = FileChannel.open(filePath, StandardOpenOption.READ);
+        } catch (IOException e) {
+            CompletableFuture<Message> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        CompletableFuture<Message> future = register(request.getId(), transferId, null);
+        channel.eventLoop().execute(() -> {
+            channel.writeAndFlush(request);
+            uploads.send(transferId, file, offset, length)
+                    .whenComplete((ignored, e) -> {
+                        if (e != null) {
+                            fail(request.getId(), e);
+                        }
+                    });
+        });
+        return future;
+    }
+
+    /**
+     * @return future completed with the {@link DownloadResponse} once the requested range has been written
+     * to destPath, or with the server's error response
+     */
+    public CompletableFuture<Message> sendDownload(Channel channel, DownloadRequest request, Path destPath) {
+        return sendDownload(channel, request, request.getTransferId(), Collections.singletonList(destPath));
+    }
+
+    /**
+     * @return future completed with the {@link BatchDownloadResponse} once the files sent by the server have been
+     * written to the destination paths in the order of the request, or with the server's error response
+     */
+    public CompletableFuture<Message> sendBatchDownload(Channel channel, BatchDownloadRequest request,
+                                                        List<Path> destPaths) {
+        return sendDownload(channel, request, request.getTransferId(), destPaths);
+    }
+
+    private CompletableFuture<Message> sendDownload(Channel channel, Request request, int transferId,
+                                                    List<Path> destPaths) {
+        CompletableFuture<Message> future = register(request.getId(), transferId, destPaths);
+        channel.writeAndFlush(request).addListener(f -> {
+            if (!f.isSuccess()) {
+                fail(request.getId(), f.cause());
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Message> register(UUID id, int transferId, List<Path> destPaths) {
+        PendingRequest pendingRequest = new PendingRequest(transferId, destPaths);
+        pendingRequests.put(id, pendingRequest);
+        if (transferId > 0) {
+            pendingRequest.future.whenComplete((ignored, e) -> {
+                if (pendingRequest.future.isCancelled()) {
+                    channel.eventLoop().execute(() -> cancelTransfer(id, transferId));
+                }
+            });
+        }
+        return pendingRequest.future;
+    }
+
+    private void cancelTransfer(UUID id, int transferId) {
+        pendingRequests.remove(id);
+        CancellationException cause = new CancellationException("Transfer was cancelled");
+        uploads.cancel(transferId, cause);
+        Download download = downloads.remove(transferId);
+        if (download != null) {
+            download.fail(cause);
+        }
+        channel.writeAndFlush(new CancelTransfer(transferId));
+    }
+
+    private void fail(UUID id, Throwable cause) {
+        PendingRequest pendingRequest = pendingRequests.remove(id);
+        if (pendingRequest != null) {
+            pendingRequest.future.completeExceptionally(cause);
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof DataFrame) {
+            DataFrame frame = (DataFrame) msg;
+            try {
+                handleDataFrame(ctx, frame);
+            } finally {
+                frame.release();
+            }
+        } else if (msg instanceof WindowUpdate) {
+            uploads.windowUpdate((WindowUpdate) msg);
+        } else if (msg instanceof CancelTransfer) {
+            Download download = downloads.remove(((CancelTransfer) msg).getTransferId());
+            if (download != null) {
+                download.fail(new IOException("Server has stopped the download"));
+            }
+        } else if (msg instanceof ChangeNotification) {
+            notificationListener.accept((ChangeNotification) msg);
+        } else if (msg instanceof Message) {
+            handleMessage((Message) msg);
+        }
+    }
+
+    private void handleMessage(Message msg) {
+        PendingRequest pendingRequest = pendingRequests.remove(msg.getId());
+        if (pendingRequest == null) {
+            return;
+        }
+        if (msg instanceof DownloadResponse && pendingRequest.destPaths != null) {
+            DownloadResponse response = (DownloadResponse) msg;
+            boolean replace = response.getOffset() == 0 && response.getLength() == response.getFileSize();
+            startDownload(pendingRequest, response, Collections.singletonList(new Target(
+                    pendingRequest.destPaths.get(0), response.getOffset(), response.getLength(), replace,
+                    replace ? response.getChecksum() : "")));
+            return;
+        }
+        if (msg instanceof BatchDownloadResponse && pendingRequest.destPaths != null) {
+            BatchDownloadResponse response = (BatchDownloadResponse) msg;
+            List<Target> targets = new ArrayList<>();
+            for (int i = 0; i < response.getErrors().size(); i++) {
+                if (response.getErrors().get(i).isEmpty()) {
+                    targets.add(new Target(pendingRequest.destPaths.get(i), 0, response.getFileSizes().get(i), true,
+                            response.getChecksums().get(i)));
+                }
+            }
+            startDownload(pendingRequest, response, targets);
+            return;
+        }
+        if (pendingRequest.transferId > 0) {
+            // server has answered before the upload was finished, e.g. with an error
+            uploads.cancel(pendingRequest.transferId, new IOException("Upload was rejected"));
+        }
+        pendingRequest.future.complete(msg);
+    }
+
+    private void startDownload(PendingRequest pendingRequest, Message response, List<Target> targets) {
+        Download download = new Download(pendingRequest, response, targets);
+        try {
+            if (download.start()) {
+                download.complete();
+            } else {
+                downloads.put(pendingRequest.transferId, download);
+            }
+        } catch (IOException e) {
+            download.fail(e);
+        }
+    }
+
+    private void handleDataFrame(ChannelHandlerContext ctx, DataFrame frame) {
+        Download download = downloads.get(frame.getTransferId());
+        if (download == null) {
+            return;
+        }
+        ByteBuf content = (ByteBuf) frame.getContent();
+        int length = content.readableBytes();
+        try {
+            boolean complete = download.write(content);
+            downloadLimit.take(length);
+            if (complete) {
+                downloads.remove(frame.getTransferId());
+                download.complete();
+            } else {
+                acknowledge(ctx, download.window.consume(length));
+            }
+        } catch (IOException e) {
+            downloads.remove(frame.getTransferId());
+            download.fail(e);
+            ctx.writeAndFlush(new CancelTransfer(frame.getTransferId()));
+        }
+    }
+
+    /**
+     * Sends the window update once the download limit lets the data go on.
+     */
+    private void acknowledge(ChannelHandlerContext ctx, WindowUpdate update) {
+        if (update == null) {
+            return;
+        }
+        long delayNanos = downloadLimit.delayNanos();
+        if (delayNanos == 0) {
+            ctx.writeAndFlush(update);
+        } else {
+            ctx.executor().schedule(() -> ctx.writeAndFlush(update), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        uploads.flush();
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            ctx.writeAndFlush(new PingRequest());
+        } else {
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        IOException cause = new IOException("Connection to the server is lost");
+        uploads.cancelAll(cause);
+        for (Download download : new ArrayList<>(downloads.values())) {
+            download.fail(cause);
+        }
+        downloads.clear();
+        for (UUID id : pendingRequests.keySet()) {
+            fail(id, cause);
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.close();
+    }
+
+    private static class PendingRequest {
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+        private final int transferId;
+        //files of a download in the order of the request, null for other requests
+        private final List<Path> destPaths;
+
+        private PendingRequest(int transferId, List<Path> destPaths) {
+            this.transferId = transferId;
+            this.destPaths = destPaths;
+        }
+    }
+
+    /**
+     * Range of a local file written by a download.
+     */
+    private static class Target {
+        private final Path path;
+        private final long offset;
+        private final long length;
+        //the file is cut to the range, a partial download keeps the rest
+        private final boolean replace;
+        //checksum of the whole file the range makes up, empty if the range isn't checked
+        private final String checksum;
+
+        private Target(Path path, long offset, long length, boolean replace, String checksum) {
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+            this.replace = replace;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Writes the content of a transfer into its targets one after another, checking the checksum of every
+     * target which has one as its bytes arrive.
+     */
+    private static class Download {
+        private final PendingRequest request;
+        private final Message response;
+        private final Deque<Target> targets;
+        private final InboundWindow window;
+        //target being written and what is left of it
+        private Target target;
+        private FileSink file;
+        private long remaining;
+        //checksum of the bytes of the target so far, null if it isn't checked
+        private ContentChecksum checksum;
+
+        private Download(PendingRequest request, Message response, List<Target> targets) {
+            this.request = request;
+            this.response = response;
+            this.targets = new ArrayDeque<>(targets);
+            this.window = new InboundWindow(request.transferId);
+        }
+
+        /**
+         * Takes the empty targets at the start of the transfer.
+         *
+         * @return true if there is nothing to receive
+         */
+        private boolean start() throws IOException {
+            advance();
+            return file == null;
+        }
+
+        /**
+         * @return true when all targets have been written
+         */
+        private boolean write(ByteBuf content) throws IOException {
+            while (content.isReadable()) {
+                if (file == null) {
+                    throw new IOException("Download exceeds the announced length");
+                }
+                int length = (int) Math.min(remaining, content.readableBytes());
+                ByteBuf piece = content.readSlice(length);
+                if (checksum != null) {
+                    checksum.update(piece);
+                }
+                file.write(piece);
+                remaining -= length;
+                advance();
+            }
+            return file == null;
+        }
+
+        /**
+         * Closes the written target and opens the next one having bytes to receive.
+         */
+        private void advance() throws IOException {
+            while (remaining == 0) {
+                if (file != null) {
+                    FileSink written = file;
+                    file = null;
+                    written.close();
+                    verify();
+                }
+                target = targets.poll();
+                if (target == null) {
+                    return;
+                }
+                file = FileSink.open(target.path, target.offset, target.replace);
+                remaining = target.length;
+                checksum = target.checksum.isEmpty() ? null : new ContentChecksum();
+            }
+        }
+
+        /**
+         * Deletes the written target if it doesn't have the content of the stored file.
+         */
+        private void verify() throws IOException {
+            if (checksum != null && !checksum.finish().equals(target.checksum)) {
+                Files.deleteIfExists(target.path);
+                throw new IOException(String.format("Downloaded file %s is damaged", target.path.getFileName()));
+            }
+        }
+
+        private void complete() {
+            request.future.complete(response);
+        }
+
+        private void fail(Throwable cause) {
+            try {
+                if (file != null) {
+                    file.abort();
+                }
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+            request.future.completeExceptionally(cause);
+        }
+    }
+}
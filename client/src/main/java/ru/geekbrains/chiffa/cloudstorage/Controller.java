@@ -10,16 +10,22 @@ import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.Node;
 import javafx.scene.control.*;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Window;
 
 import java.io.File;
 import java.net.URL;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.ResourceBundle;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class Controller implements Initializable {
     public static final String WARNING_TITLE = "Warning!";
@@ -27,6 +33,8 @@ public class Controller implements Initializable {
     private final BooleanProperty loadingInProgress = new SimpleBooleanProperty(false);
     private final BooleanProperty unsignedIn = new SimpleBooleanProperty(true);
     private Client client;
+    private TransferScheduler transfers;
+    private List<File> chosenFiles = Collections.emptyList();
 
     //upload unit
     @FXML
@@ -35,6 +43,8 @@ public class Controller implements Initializable {
     private Button uploadButton;
     @FXML
     private Button browseButton;
+    @FXML
+    private Button syncButton;
 
     //work with storageFiles unit
     @FXML
@@ -47,6 +57,8 @@ public class Controller implements Initializable {
     private Button downloadButton;
     @FXML
     private ListView<String> storageFilesListView;
+    @FXML
+    private Label transfersLabel;
 
     //sign in unit
     @FXML
@@ -56,11 +68,12 @@ public class Controller implements Initializable {
 
     public void openBrowseDialog(ActionEvent actionEvent) {
         FileChooser fc = new FileChooser();
-        fc.setTitle("Choose file");
+        fc.setTitle("Choose files");
         Window window = ((Node) actionEvent.getTarget()).getScene().getWindow();
-        File chosenFile = fc.showOpenDialog(window);
-        if (chosenFile != null) {
-            filePathTextField.setText(chosenFile.getPath());
+        List<File> files = fc.showOpenMultipleDialog(window);
+        if (files != null) {
+            chosenFiles = files;
+            filePathTextField.setText(files.stream().map(File::getPath).collect(Collectors.joining("; ")));
         }
     }
 
@@ -73,11 +86,13 @@ public class Controller implements Initializable {
     }
 
     public void initialize(URL location, ResourceBundle resources) {
+        storageFilesListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         uploadButton.disableProperty()
                 .bind(Bindings.length(filePathTextField.textProperty()).isEqualTo(0)
                         .or(loadingInProgress)
                         .or(unsignedIn));
         browseButton.disableProperty().bind(loadingInProgress.or(unsignedIn));
+        syncButton.disableProperty().bind(loadingInProgress.or(unsignedIn));
         filePathTextField.disableProperty().bind(loadingInProgress.or(unsignedIn));
 
         storageFilesListView.disableProperty().bind(loadingInProgress.or(unsignedIn));
@@ -101,53 +116,86 @@ public class Controller implements Initializable {
     }
 
     public void upload() {
-        loadingInProgress.set(true);
-        client.upload(Paths.get(filePathTextField.getText())).thenAccept(files -> {
-            try {
-                Platform.runLater(() -> setFilesListView(files));
-            } catch (Exception e) {
-                showAlert(WARNING_TITLE, e.getMessage());
-                e.printStackTrace();
+        // small files go together, large ones are split into segments on their own
+        List<Path> smallFiles = new ArrayList<>();
+        for (File file : chosenFiles) {
+            if (file.length() < Client.DEFAULT_MIN_SEGMENT_SIZE) {
+                smallFiles.add(file.toPath());
+            } else {
+                track(transfers.upload(file.toPath(), TransferPriority.NORMAL), this::setFilesListView);
+            }
+        }
+        if (smallFiles.size() == 1) {
+            track(transfers.upload(smallFiles.get(0), TransferPriority.NORMAL), this::setFilesListView);
+        } else if (!smallFiles.isEmpty()) {
+            track(transfers.uploadAll(smallFiles, TransferPriority.NORMAL), this::showBatchErrors);
+        }
+        chosenFiles = Collections.emptyList();
+        filePathTextField.clear();
+    }
+
+    /**
+     * Sends the new and changed files of a chosen directory and its subdirectories to the storage folder
+     * of the same name.
+     */
+    public void syncFolder(ActionEvent actionEvent) {
+        DirectoryChooser dc = new DirectoryChooser();
+        dc.setTitle("Choose folder");
+        Window window = ((Node) actionEvent.getTarget()).getScene().getWindow();
+        File dir = dc.showDialog(window);
+        if (dir == null) {
+            return;
+        }
+        track(transfers.syncUp(dir.toPath(), dir.getName(), false, TransferPriority.BULK), result -> {
+            if (result.getErrors().isEmpty()) {
+                showAlert(SUCCESS_TITLE, String.format("Folder %s synced: %d files sent, %d unchanged.",
+                        dir.getName(), result.getTransferred(), result.getUnchanged()));
+            } else {
+                showBatchErrors(result.getErrors(), result.getTransferred() + result.getErrors().size());
             }
-            loadingInProgress.set(false);
         });
     }
 
     public void refresh() {
-        loadingInProgress.set(true);
-        client.refresh().thenAccept(files -> {
-            Platform.runLater(() -> setFilesListView(files));
-            loadingInProgress.set(false);
-        });
+        track(transfers.refresh(), this::setFilesListView);
     }
 
     public void signIn() {
-        client = new Client(
-                usernameTextField.getText(),
-                Executors.newSingleThreadExecutor(),
-                Paths.get("client_storage"));
-        refresh();
+        client = new Client(usernameTextField.getText(), Paths.get("client_storage"));
+        transfers = new TransferScheduler(client);
+        loadingInProgress.set(true);
+        client.subscribe(files -> Platform.runLater(() -> setFilesListView(files)))
+                .whenComplete((files, e) -> loadingInProgress.set(false));
         unsignedIn.set(false);
     }
 
     public void delete() {
-        loadingInProgress.set(true);
-
-        client.delete(storageFilesListView.getSelectionModel().getSelectedItem()).thenAccept(files -> {
-            Platform.runLater(() -> setFilesListView(files));
-            loadingInProgress.set(false);
-        });
+        List<String> fileNames = selectedFileNames();
+        if (fileNames.size() == 1) {
+            track(transfers.delete(fileNames.get(0)), this::setFilesListView);
+        } else {
+            track(transfers.deleteAll(fileNames), this::showBatchErrors);
+        }
     }
 
     public void download() {
-        loadingInProgress.set(true);
-        String fileName = storageFilesListView.getSelectionModel().getSelectedItem();
-        client.download(fileName).thenAccept(success -> {
-            if (success) {
-                Platform.runLater(() -> showAlert(SUCCESS_TITLE, String.format("File %s downloaded successfully.", fileName)));
-            }
-            loadingInProgress.set(false);
-        });
+        List<String> fileNames = selectedFileNames();
+        if (fileNames.size() == 1) {
+            String fileName = fileNames.get(0);
+            track(transfers.download(fileName, TransferPriority.NORMAL), success -> {
+                if (success) {
+                    showAlert(SUCCESS_TITLE, String.format("File %s downloaded successfully.", fileName));
+                }
+            });
+        } else {
+            track(transfers.downloadAll(fileNames, TransferPriority.NORMAL), errors -> {
+                if (errors.stream().allMatch(String::isEmpty)) {
+                    showAlert(SUCCESS_TITLE, String.format("%d files downloaded successfully.", errors.size()));
+                } else {
+                    showBatchErrors(errors);
+                }
+            });
+        }
     }
 
     public void rename() {
@@ -157,15 +205,50 @@ public class Controller implements Initializable {
             if (!isFilenameAcceptable(newFileName)) {
                 showAlert(WARNING_TITLE, "Unacceptable filename.");
             } else {
-                loadingInProgress.set(true);
-                client.rename(fileName, newFileName).thenAccept(files -> {
-                    Platform.runLater(() -> setFilesListView(files));
-                    loadingInProgress.set(false);
-                });
+                track(transfers.rename(fileName, newFileName), this::setFilesListView);
+            }
+        }
+    }
+
+    private List<String> selectedFileNames() {
+        return new ArrayList<>(storageFilesListView.getSelectionModel().getSelectedItems());
+    }
+
+    /**
+     * Passes the result of the operation to the consumer on the application thread, or shows why it has failed,
+     * and keeps the number of transfers up to date.
+     */
+    private <T> void track(TransferScheduler.Transfer<T> transfer, Consumer<T> consumer) {
+        updateTransfersLabel();
+        transfer.future().whenComplete((result, e) -> Platform.runLater(() -> {
+            if (e == null) {
+                consumer.accept(result);
+            } else if (!(e instanceof CancellationException)) {
+                showAlert(WARNING_TITLE, String.format("%s failed: %s", transfer.getDescription(), e.getMessage()));
             }
+            updateTransfersLabel();
+        }));
+    }
+
+    /**
+     * Shows how many items of a batch have failed and the first few reasons.
+     */
+    private void showBatchErrors(List<String> errors) {
+        showBatchErrors(errors.stream().filter(error -> !error.isEmpty()).collect(Collectors.toList()), errors.size());
+    }
+
+    private void showBatchErrors(List<String> failures, int total) {
+        if (!failures.isEmpty()) {
+            showAlert(WARNING_TITLE, String.format("%d of %d files failed:%n%s", failures.size(), total,
+                    failures.stream().distinct().limit(5).collect(Collectors.joining(System.lineSeparator()))));
         }
     }
 
+    private void updateTransfersLabel() {
+        transfersLabel.setText(String.format("Transfers: %d running, %d queued",
+                transfers.getRunning(), transfers.getQueued()));
+    }
+
     private void setFilesListView(List<String> listFiles) {
         storageFilesListView.setItems(FXCollections.observableArrayList(listFiles));
     }
@@ -0,0 +1,213 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a local file as a delta against the signatures of the version stored on the server,
+ * see {@link DeltaFormat}. The window of one block slides over the file byte by byte, and wherever
+ * its rolling checksum and then its strong hash match a stored block, the block is referenced
+ * instead of sent.
+ */
+public class DeltaEncoder {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    //longest literal instruction, a literal length is an int
+    private static final int MAX_LITERAL = 1 << 30;
+
+    private final int blockSize;
+    private final List<BlockSignature> signatures;
+    //indexes of full blocks by their rolling checksum, with a table of 16 bit tags to skip most lookups
+    private final Map<Integer, List<Integer>> blocksByWeak = new HashMap<>();
+    private final boolean[] tags = new boolean[1 << 16];
+    private final MessageDigest strongDigest = ChunkRef.newDigest();
+
+    @Getter
+    private String fileHash;
+    @Getter
+    private long fileSize;
+
+    private InputStream in;
+    private MessageDigest fileDigest;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+
+    private FileChannel source;
+    private FileChannel delta;
+    private final ByteBuffer header = ByteBuffer.allocate(DeltaFormat.HEADER_SIZE);
+    private int copyFirst = -1;
+    private int copyCount;
+
+    public DeltaEncoder(SignatureResponse response) {
+        this.blockSize = response.getBlockSize();
+        this.signatures = response.getSignatures();
+        long fullBlocks = response.getFileSize() / blockSize;
+        for (int i = 0; i < fullBlocks; i++) {
+            int weak = signatures.get(i).getWeak();
+            blocksByWeak.computeIfAbsent(weak, key -> new ArrayList<>()).add(i);
+            tags[tag(weak)] = true;
+        }
+    }
+
+    /**
+     * Writes the delta of the file into deltaFile.
+     */
+    public void encode(Path file, Path deltaFile) throws IOException {
+        fileDigest = ChunkRef.newDigest();
+        try (InputStream in = Files.newInputStream(file);
+             FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel delta = FileChannel.open(deltaFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            this.in = in;
+            this.source = source;
+            this.delta = delta;
+            scan();
+        }
+        fileHash = ChunkRef.toHex(fileDigest.digest());
+    }
+
+    private void scan() throws IOException {
+        byte[] window = new byte[blockSize];
+        RollingChecksum checksum = new RollingChecksum();
+        int head = 0;
+        long position = 0;
+        long literalStart = 0;
+        int windowLength = fill(window);
+        if (windowLength == blockSize) {
+            checksum.reset(window, 0, blockSize);
+        }
+        while (windowLength == blockSize) {
+            int block = match(checksum.getValue(), window, head);
+            if (block >= 0) {
+                if (position > literalStart) {
+                    writeLiteral(literalStart, position - literalStart);
+                }
+                writeCopy(block);
+                position += blockSize;
+                literalStart = position;
+                head = 0;
+                windowLength = fill(window);
+                if (windowLength == blockSize) {
+                    checksum.reset(window, 0, blockSize);
+                }
+                continue;
+            }
+            int next = nextByte();
+            if (next < 0) {
+                break;
+            }
+            byte out = window[head];
+            window[head] = (byte) next;
+            head = head + 1 == blockSize ? 0 : head + 1;
+            checksum.roll(out, (byte) next);
+            position++;
+        }
+        if (fileSize > literalStart) {
+            writeLiteral(literalStart, fileSize - literalStart);
+        }
+        flushCopy();
+    }
+
+    private int match(int weak, byte[] window, int head) {
+        if (!tags[tag(weak)]) {
+            return -1;
+        }
+        List<Integer> blocks = blocksByWeak.get(weak);
+        if (blocks == null) {
+            return -1;
+        }
+        byte[] linear = new byte[blockSize];
+        System.arraycopy(window, head, linear, 0, blockSize - head);
+        System.arraycopy(window, 0, linear, blockSize - head, head);
+        byte[] strong = BlockSignature.strongHash(strongDigest, linear, 0, blockSize);
+        for (int block : blocks) {
+            if (Arrays.equals(strong, signatures.get(block).getStrong())) {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    private static int tag(int weak) {
+        return (weak ^ (weak >>> 16)) & 0xFFFF;
+    }
+
+    private int fill(byte[] window) throws IOException {
+        int length = 0;
+        int next;
+        while (length < window.length && (next = nextByte()) >= 0) {
+            window[length++] = (byte) next;
+        }
+        return length;
+    }
+
+    private int nextByte() throws IOException {
+        if (bufferPosition == bufferLimit) {
+            int read = in.read(buffer);
+            if (read <= 0) {
+                return -1;
+            }
+            fileDigest.update(buffer, 0, read);
+            fileSize += read;
+            bufferPosition = 0;
+            bufferLimit = read;
+        }
+        return buffer[bufferPosition++] & 0xFF;
+    }
+
+    private void writeLiteral(long offset, long length) throws IOException {
+        flushCopy();
+        while (length > 0) {
+            int part = (int) Math.min(length, MAX_LITERAL);
+            writeHeader(DeltaFormat.LITERAL, part, 0);
+            long copied = 0;
+            while (copied < part) {
+                copied += source.transferTo(offset + copied, part - copied, delta);
+            }
+            offset += part;
+            length -= part;
+        }
+    }
+
+    /**
+     * Consecutive blocks are merged into one instruction.
+     */
+    private void writeCopy(int block) throws IOException {
+        if (copyFirst >= 0 && copyFirst + copyCount == block) {
+            copyCount++;
+        } else {
+            flushCopy();
+            copyFirst = block;
+            copyCount = 1;
+        }
+    }
+
+    private void flushCopy() throws IOException {
+        if (copyFirst >= 0) {
+            writeHeader(DeltaFormat.COPY, copyFirst, copyCount);
+            copyFirst = -1;
+            copyCount = 0;
+        }
+    }
+
+    private void writeHeader(byte type, int first, int second) throws IOException {
+        header.clear();
+        header.put(type).putInt(first).putInt(second).flip();
+        while (header.hasRemaining()) {
+            delta.write(header);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * One sync of a local directory with a folder of the storage. The sides are compared by their manifests:
+ * the server sends the size and the checksum of every file of the folder, the local checksums come from
+ * the {@link SyncState} of the directory, so that only the files changed since the previous sync are read.
+ * Differing files are sent in parallel over all connections of the client, small ones in batches.
+ * <p>
+ * A lost connection fails the whole sync, so that it can be tried again, errors of single files are
+ * reported in the {@link SyncResult}.
+ */
+class FolderSync {
+    /**
+     * Uploaded files of this size and larger are sent on their own, as a delta of the stored version if there is one.
+     */
+    static final long LARGE_FILE_SIZE = 1024 * 1024;
+
+    private final Client client;
+    private final Path localDir;
+    private final String prefix;
+    private final boolean deleteExtraneous;
+    private final Cancellation cancellation;
+    private final SyncState state;
+    private final AtomicInteger transferred = new AtomicInteger();
+    private final AtomicInteger deleted = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    //names of the local files after the sync, relative to the directory
+    private final Set<String> keptFiles = Collections.synchronizedSet(new HashSet<>());
+
+    FolderSync(Client client, Path localDir, String folder, boolean deleteExtraneous, Cancellation cancellation) {
+        this.client = client;
+        this.localDir = localDir;
+        this.prefix = FileNames.folderPrefix(folder);
+        this.deleteExtraneous = deleteExtraneous;
+        this.cancellation = cancellation;
+        this.state = SyncState.load(localDir);
+    }
+
+    CompletableFuture<SyncResult> up() {
+        CompletableFuture<List<LocalFile>> localFiles = CompletableFuture.supplyAsync(this::scan);
+        return client.manifest(prefix)
+                .thenCombineAsync(localFiles, (entries, files) -> {
+                    Map<String, SyncEntry> stored = entries.stream()
+                            .collect(Collectors.toMap(SyncEntry::getName, entry -> entry));
+                    List<CompletableFuture<Void>> transfers = new ArrayList<>();
+                    List<LocalFile> smallFiles = new ArrayList<>();
+                    for (LocalFile file : files) {
+                        keptFiles.add(file.name);
+                        SyncEntry entry = stored.remove(prefix + file.name);
+                        if (!FileNames.isValid(file.name)) {
+                            errors.add(file.name + ": Invalid file name");
+                        } else if (isSame(file, entry)) {
+                            unchanged.incrementAndGet();
+                        } else if (file.size < LARGE_FILE_SIZE) {
+                            smallFiles.add(file);
+                        } else {
+                            transfers.add(upload(file, entry != null));
+                        }
+                    }
+                    for (List<LocalFile> group : groups(smallFiles)) {
+                        transfers.add(uploadAll(group));
+                    }
+                    if (deleteExtraneous && !stored.isEmpty()) {
+                        transfers.add(deleteStored(new ArrayList<>(stored.keySet())));
+                    }
+                    return transfers;
+                })
+                .thenCompose(this::finish);
+    }
+
+    CompletableFuture<SyncResult> down() {
+        CompletableFuture<List<LocalFile>> localFiles = CompletableFuture.supplyAsync(() -> {
+            try {
+                Files.createDirectories(localDir);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Directory can't be created", e);
+            }
+            return scan();
+        });
+        return client.manifest(prefix)
+                .thenCombineAsync(localFiles, (entries, files) -> {
+                    Map<String, LocalFile> local = files.stream()
+                            .collect(Collectors.toMap(file -> file.name, file -> file));
+                    List<SyncEntry> changed = new ArrayList<>();
+                    for (SyncEntry entry : entries) {
+                        String name = entry.getName().substring(prefix.length());
+                        if (SyncState.isStateFile(name)) {
+                            continue;
+                        }
+                        LocalFile file = local.remove(name);
+                        if (!FileNames.isValid(name)) {
+                            errors.add(name + ": Invalid file name");
+                        } else if (isSame(file, entry)) {
+                            keptFiles.add(name);
+                            unchanged.incrementAndGet();
+                        } else {
+                            changed.add(entry);
+                        }
+                    }
+                    for (LocalFile file : local.values()) {
+                        if (deleteExtraneous && deleteLocal(file)) {
+                            deleted.incrementAndGet();
+                        } else {
+                            keptFiles.add(file.name);
+                        }
+                    }
+                    List<CompletableFuture<Void>> transfers = new ArrayList<>();
+                    for (List<SyncEntry> group : groups(changed)) {
+                        transfers.add(downloadAll(group));
+                    }
+                    return transfers;
+                })
+                .thenCompose(this::finish);
+    }
+
+    /**
+     * Saves the checksums computed by the sync, whether it has succeeded or not.
+     */
+    private CompletableFuture<SyncResult> finish(List<CompletableFuture<Void>> transfers) {
+        return CompletableFuture.allOf(transfers.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((ignored, e) -> {
+                    state.retain(keptFiles);
+                    try {
+                        state.save();
+                    } catch (IOException saveException) {
+                        // checksums are computed again by the next sync
+                    }
+                })
+                .thenApply(ignored -> {
+                    List<String> sortedErrors = new ArrayList<>(errors);
+                    Collections.sort(sortedErrors);
+                    return new SyncResult(transferred.get(), deleted.get(), unchanged.get(), sortedErrors);
+                });
+    }
+
+    /**
+     * @return true if the stored file has the size and the content of the local one
+     */
+    private boolean isSame(LocalFile file, SyncEntry entry) {
+        if (file == null || entry == null || file.size != entry.getSize() || entry.getChecksum().isEmpty()) {
+            return false;
+        }
+        try {
+            return entry.getChecksum().equals(state.checksum(file.name, file.path, file.size, file.lastModified));
+        } catch (IOException e) {
+            // unreadable now, it is sent again and fails with a reason
+            return false;
+        }
+    }
+
+    private CompletableFuture<Void> upload(LocalFile file, boolean stored) {
+        String fileName = prefix + file.name;
+        CompletableFuture<List<String>> upload = stored
+                ? client.uploadDelta(file.path, fileName, cancellation)
+                : client.upload(file.path, fileName, cancellation);
+        return track(upload, ignored -> transferred.incrementAndGet(),
+                reason -> errors.add(file.name + ": " + reason));
+    }
+
+    private CompletableFuture<Void> uploadAll(List<LocalFile> files) {
+        List<Path> paths = files.stream().map(file -> file.path).collect(Collectors.toList());
+        List<String> fileNames = files.stream().map(file -> prefix + file.name).collect(Collectors.toList());
+        return track(client.uploadAll(paths, fileNames, cancellation), fileErrors -> {
+            for (int i = 0; i < files.size(); i++) {
+                countOrReport(files.get(i).name, fileErrors.get(i), transferred);
+            }
+        }, reason -> files.forEach(file -> errors.add(file.name + ": " + reason)));
+    }
+
+    private CompletableFuture<Void> deleteStored(List<String> fileNames) {
+        List<String> names = fileNames.stream()
+                .map(fileName -> fileName.substring(prefix.length()))
+                .collect(Collectors.toList());
+        return track(client.deleteAll(fileNames), fileErrors -> {
+            for (int i = 0; i < names.size(); i++) {
+                countOrReport(names.get(i), fileErrors.get(i), deleted);
+            }
+        }, reason -> names.forEach(name -> errors.add(name + ": " + reason)));
+    }
+
+    private CompletableFuture<Void> downloadAll(List<SyncEntry> entries) {
+        List<String> fileNames = entries.stream().map(SyncEntry::getName).collect(Collectors.toList());
+        List<String> names = fileNames.stream()
+                .map(fileName -> fileName.substring(prefix.length()))
+                .collect(Collectors.toList());
+        List<Path> destPaths = names.stream().map(localDir::resolve).collect(Collectors.toList());
+        return track(client.downloadAll(fileNames, destPaths, cancellation), fileErrors -> {
+            for (int i = 0; i < entries.size(); i++) {
+                String name = names.get(i);
+                if (fileErrors.get(i).isEmpty()) {
+                    keptFiles.add(name);
+                    remember(name, destPaths.get(i), entries.get(i));
+                }
+                countOrReport(name, fileErrors.get(i), transferred);
+            }
+        }, reason -> names.forEach(name -> errors.add(name + ": " + reason)));
+    }
+
+    /**
+     * Keeps the checksum of a downloaded file, so that the next sync doesn't read it.
+     */
+    private void remember(String name, Path path, SyncEntry entry) {
+        if (entry.getChecksum().isEmpty()) {
+            return;
+        }
+        try {
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            state.put(name, entry.getSize(), lastModified, entry.getChecksum());
+        } catch (IOException e) {
+            // the next sync reads the file
+        }
+    }
+
+    private boolean deleteLocal(LocalFile file) {
+        try {
+            Files.deleteIfExists(file.path);
+            return true;
+        } catch (IOException e) {
+            errors.add(file.name + ": File wasn't deleted");
+            return false;
+        }
+    }
+
+    private void countOrReport(String name, String error, AtomicInteger counter) {
+        if (error.isEmpty()) {
+            counter.incrementAndGet();
+        } else {
+            errors.add(name + ": " + error);
+        }
+    }
+
+    /**
+     * Passes the result of a transfer to the consumer and the reason of its failure to the error consumer,
+     * unless the transfer has failed for a lost connection or has been cancelled: the sync fails then.
+     */
+    private static <T> CompletableFuture<Void> track(CompletableFuture<T> transfer, Consumer<T> consumer,
+                                                     Consumer<String> errorConsumer) {
+        return transfer.handle((result, e) -> {
+            if (e == null) {
+                consumer.accept(result);
+                return null;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof IOException || cause instanceof CancellationException) {
+                throw new CompletionException(cause);
+            }
+            errorConsumer.accept(cause.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * @return the items split into consecutive groups, one for every connection of the client
+     */
+    private <T> List<List<T>> groups(List<T> items) {
+        int groupCount = Math.min(client.getConnectionCount(), items.size());
+        List<List<T>> groups = new ArrayList<>();
+        for (int i = 0; i < groupCount; i++) {
+            groups.add(items.subList(items.size() * i / groupCount, items.size() * (i + 1) / groupCount));
+        }
+        return groups;
+    }
+
+    /**
+     * @return regular files of the directory and of its subdirectories, except the sync state
+     */
+    private List<LocalFile> scan() {
+        List<LocalFile> files = new ArrayList<>();
+        try {
+            Files.walkFileTree(localDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) {
+                    String name = FileNames.relativize(localDir, path);
+                    if (attributes.isRegularFile() && !SyncState.isStateFile(name)) {
+                        files.add(new LocalFile(name, path, attributes.size(),
+                                attributes.lastModifiedTime().toMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
+                    if (path.equals(localDir)) {
+                        throw e;
+                    }
+                    errors.add(FileNames.relativize(localDir, path) + ": File is unreadable");
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Directory is unreadable", e);
+        }
+        return files;
+    }
+
+    private static class LocalFile {
+        //path relative to the synced directory, with / separators
+        private final String name;
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        private LocalFile(String name, Path path, long size, long lastModified) {
+            this.name = name;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Client's copy of the user's file list, kept up to date by applying the changes of the server's
+ * change log in the order of their versions.
+ */
+public class RemoteFileList {
+    private UUID logId = ChangesRequest.NO_LOG;
+    private long version;
+    private final Set<String> names = new TreeSet<>();
+
+    /**
+     * @return request for the changes after the current version
+     */
+    public synchronized ChangesRequest changesRequest(String username, boolean subscribe) {
+        return new ChangesRequest(username, logId, version, subscribe);
+    }
+
+    /**
+     * @return false if the changes don't follow the current version, the list has to be fetched anew
+     */
+    public synchronized boolean apply(ChangesResponse response) {
+        if (response.isReset()) {
+            names.clear();
+            logId = response.getLogId();
+            version = response.getVersion();
+            for (FileChange change : response.getChanges()) {
+                applyChange(change);
+            }
+            return true;
+        }
+        for (FileChange change : response.getChanges()) {
+            if (!apply(response.getLogId(), change)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Applies the change if it is the next one, changes already applied are ignored.
+     *
+     * @return false if the change is of another log or some changes before it are missing
+     */
+    public synchronized boolean apply(UUID changeLogId, FileChange change) {
+        if (!logId.equals(changeLogId)) {
+            return false;
+        }
+        if (change.getVersion() <= version) {
+            return true;
+        }
+        if (change.getVersion() != version + 1) {
+            return false;
+        }
+        applyChange(change);
+        version = change.getVersion();
+        return true;
+    }
+
+    private void applyChange(FileChange change) {
+        switch (change.getType()) {
+            case PUT:
+                names.add(change.getName());
+                break;
+            case DELETE:
+                names.remove(change.getName());
+                break;
+            case RENAME:
+                names.remove(change.getName());
+                names.add(change.getNewName());
+                break;
+        }
+    }
+
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(names);
+    }
+}
@@ -0,0 +1,21 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Outcome of a folder sync: how many files were sent, deleted and left as they were, and why the others failed.
+ */
+@AllArgsConstructor
+@Getter
+public class SyncResult {
+    private final int transferred;
+    private final int deleted;
+    private final int unchanged;
+    /**
+     * Failures as the name of the file followed by the reason.
+     */
+    private final List<String> errors;
+}
@@ -0,0 +1,120 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checksums of the files of a synced folder, kept in a file of the folder between syncs. A checksum is
+ * reused while the size and the modification time of its file stay the same, so that a sync reads only
+ * the files changed since the previous one.
+ * <p>
+ * Thread safe.
+ */
+public class SyncState {
+    /**
+     * File of the state in the root of the synced folder, it is never synced itself.
+     */
+    public static final String FILE_NAME = ".cloudsync";
+    private static final int MAGIC = 0x43535331;
+
+    private final Path path;
+    private final Map<String, Entry> entries;
+
+    private SyncState(Path path, Map<String, Entry> entries) {
+        this.path = path;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the state of the folder, a missing or damaged state is an empty one.
+     */
+    public static SyncState load(Path dir) {
+        Path path = dir.resolve(FILE_NAME);
+        Map<String, Entry> entries = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() == MAGIC) {
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    entries.put(in.readUTF(), new Entry(in.readLong(), in.readLong(), in.readUTF()));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // never synced
+        } catch (IOException e) {
+            // the checksums are computed again
+            entries.clear();
+        }
+        return new SyncState(path, entries);
+    }
+
+    /**
+     * @return true if the file of the folder is the state or its temporary copy
+     */
+    public static boolean isStateFile(String name) {
+        return name.equals(FILE_NAME) || name.equals(FILE_NAME + ".tmp");
+    }
+
+    /**
+     * @return checksum of the file, read from the file only if it has changed since it was computed
+     */
+    public String checksum(String name, Path file, long size, long lastModified) throws IOException {
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+                return entry.checksum;
+            }
+        }
+        String checksum = FileSlice.checksum(Collections.singletonList(new FileSlice(file, 0, size)));
+        put(name, size, lastModified, checksum);
+        return checksum;
+    }
+
+    public synchronized void put(String name, long size, long lastModified, String checksum) {
+        entries.put(name, new Entry(size, lastModified, checksum));
+    }
+
+    /**
+     * Forgets the files which are gone.
+     */
+    public synchronized void retain(Set<String> names) {
+        entries.keySet().retainAll(names);
+    }
+
+    public synchronized void save() throws IOException {
+        Path temp = path.resolveSibling(FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().lastModified);
+                out.writeUTF(entry.getValue().checksum);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String checksum;
+
+        private Entry(long size, long lastModified, String checksum) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * Order in which the {@link TransferScheduler} starts queued operations, the highest priority first.
+ */
+public enum TransferPriority {
+    /**
+     * Requests a user waits for, e.g. a rename. They start at once, without waiting for a free transfer slot.
+     */
+    INTERACTIVE,
+    /**
+     * Transfers started by the user.
+     */
+    NORMAL,
+    /**
+     * Transfers going on in the background, e.g. of a whole folder.
+     */
+    BULK
+}
@@ -0,0 +1,290 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Queue of the operations of a {@link Client}. Up to {@code maxParallelTransfers} uploads and downloads run
+ * at the same time, queued operations start by priority and then in the order of submission, and
+ * {@link TransferPriority#INTERACTIVE} ones start at once.
+ * <p>
+ * An operation failed with an {@link IOException}, e.g. because the connection was lost, is tried again
+ * with exponential backoff, errors reported by the server are final.
+ * <p>
+ * Thread safe.
+ */
+public class TransferScheduler implements AutoCloseable {
+    public static final int DEFAULT_MAX_PARALLEL_TRANSFERS = 4;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long MIN_RETRY_DELAY_MILLIS = 500;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30_000;
+
+    private final Client client;
+    private final ScheduledExecutorService retryTimer =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("transfer-retry", true));
+    private final PriorityQueue<Transfer<?>> queue = new PriorityQueue<>(
+            Comparator.comparing((Transfer<?> transfer) -> transfer.priority)
+                    .thenComparingLong(transfer -> transfer.sequence));
+    //operations which have been started and haven't finished yet
+    private final Set<Transfer<?>> running = new HashSet<>();
+    private int runningTransfers;
+    private long nextSequence;
+    @Setter
+    private volatile int maxParallelTransfers = DEFAULT_MAX_PARALLEL_TRANSFERS;
+    /**
+     * Attempts of an operation failed with an {@link IOException} before it fails for good.
+     */
+    @Setter
+    private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    public TransferScheduler(Client client) {
+        this.client = client;
+    }
+
+    public Transfer<List<String>> upload(Path filePath, TransferPriority priority) {
+        return submit("Upload " + filePath.getFileName(), priority,
+                cancellation -> client.upload(filePath, cancellation));
+    }
+
+    public Transfer<Boolean> download(String fileName, TransferPriority priority) {
+        return submit("Download " + fileName, priority, cancellation -> client.download(fileName, cancellation));
+    }
+
+    public Transfer<List<String>> rename(String fileName, String newFileName) {
+        return submit("Rename " + fileName, TransferPriority.INTERACTIVE,
+                cancellation -> client.rename(fileName, newFileName));
+    }
+
+    public Transfer<List<String>> delete(String fileName) {
+        return submit("Delete " + fileName, TransferPriority.INTERACTIVE, cancellation -> client.delete(fileName));
+    }
+
+    /**
+     * Uploads many small files in batches taking one transfer slot.
+     *
+     * @return transfer completed with an error text for every file, empty for the uploaded ones
+     */
+    public Transfer<List<String>> uploadAll(List<Path> filePaths, TransferPriority priority) {
+        return submit("Upload of " + filePaths.size() + " files", priority,
+                cancellation -> client.uploadAll(filePaths, cancellation));
+    }
+
+    /**
+     * Downloads many files in batches taking one transfer slot.
+     *
+     * @return transfer completed with an error text for every file, empty for the downloaded ones
+     */
+    public Transfer<List<String>> downloadAll(List<String> fileNames, TransferPriority priority) {
+        return submit("Download of " + fileNames.size() + " files", priority,
+                cancellation -> client.downloadAll(fileNames, cancellation));
+    }
+
+    /**
+     * @return transfer completed with an error text for every file, empty for the deleted ones
+     */
+    public Transfer<List<String>> deleteAll(List<String> fileNames) {
+        return submit("Delete of " + fileNames.size() + " files", TransferPriority.INTERACTIVE,
+                cancellation -> client.deleteAll(fileNames));
+    }
+
+    /**
+     * Syncs the storage folder with the local directory taking one transfer slot. A sync failed for a lost
+     * connection is tried again from the start, which sends only what the failed one hasn't.
+     */
+    public Transfer<SyncResult> syncUp(Path localDir, String folder, boolean deleteExtraneous,
+                                       TransferPriority priority) {
+        return submit("Sync of " + localDir.getFileName(), priority,
+                cancellation -> client.syncUp(localDir, folder, deleteExtraneous, cancellation));
+    }
+
+    /**
+     * Syncs the local directory with the storage folder taking one transfer slot.
+     */
+    public Transfer<SyncResult> syncDown(String folder, Path localDir, boolean deleteExtraneous,
+                                         TransferPriority priority) {
+        return submit("Sync of " + folder, priority,
+                cancellation -> client.syncDown(folder, localDir, deleteExtraneous, cancellation));
+    }
+
+    public Transfer<List<String>> refresh() {
+        return submit("Refresh", TransferPriority.INTERACTIVE, cancellation -> client.refresh());
+    }
+
+    /**
+     * Queues an operation of the client. Uploads and downloads should stop when the cancellation given to them
+     * is cancelled, other operations may ignore it.
+     */
+    public <T> Transfer<T> submit(String description, TransferPriority priority,
+                                  Function<Cancellation, CompletableFuture<T>> operation) {
+        Transfer<T> transfer;
+        synchronized (this) {
+            transfer = new Transfer<>(this, description, priority, nextSequence++, operation);
+            queue.add(transfer);
+        }
+        startQueued();
+        return transfer;
+    }
+
+    /**
+     * @return operations waiting for their turn or for a retry
+     */
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    public synchronized int getRunning() {
+        return running.size();
+    }
+
+    private void startQueued() {
+        List<Transfer<?>> starting = new ArrayList<>();
+        synchronized (this) {
+            while (!queue.isEmpty()) {
+                Transfer<?> next = queue.peek();
+                boolean interactive = next.priority == TransferPriority.INTERACTIVE;
+                if (!interactive && runningTransfers >= maxParallelTransfers) {
+                    break;
+                }
+                queue.poll();
+                if (!interactive) {
+                    runningTransfers++;
+                }
+                next.cancellation = new Cancellation();
+                next.attempts++;
+                running.add(next);
+                starting.add(next);
+            }
+        }
+        starting.forEach(this::start);
+    }
+
+    private <T> void start(Transfer<T> transfer) {
+        CompletableFuture<T> attempt;
+        try {
+            attempt = transfer.operation.apply(transfer.cancellation);
+        } catch (RuntimeException e) {
+            attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(e);
+        }
+        attempt.whenComplete((value, e) -> finished(transfer, value, e));
+    }
+
+    private <T> void finished(Transfer<T> transfer, T value, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        boolean retry;
+        synchronized (this) {
+            running.remove(transfer);
+            if (transfer.priority != TransferPriority.INTERACTIVE) {
+                runningTransfers--;
+            }
+            retry = cause instanceof IOException && transfer.attempts < maxAttempts && !transfer.result.isDone();
+        }
+        if (retry) {
+            long delay = Math.min(MIN_RETRY_DELAY_MILLIS << (transfer.attempts - 1), MAX_RETRY_DELAY_MILLIS);
+            retryTimer.schedule(() -> retry(transfer), delay, TimeUnit.MILLISECONDS);
+        } else if (cause == null) {
+            transfer.result.complete(value);
+        } else {
+            transfer.result.completeExceptionally(cause);
+        }
+        startQueued();
+    }
+
+    private void retry(Transfer<?> transfer) {
+        synchronized (this) {
+            if (transfer.result.isDone()) {
+                return;
+            }
+            queue.add(transfer);
+        }
+        startQueued();
+    }
+
+    private void cancel(Transfer<?> transfer) {
+        Cancellation cancellation;
+        synchronized (this) {
+            queue.remove(transfer);
+            cancellation = running.contains(transfer) ? transfer.cancellation : null;
+        }
+        transfer.result.cancel(false);
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
+    }
+
+    /**
+     * Cancels all queued and running operations.
+     */
+    @Override
+    public void close() {
+        List<Transfer<?>> transfers;
+        synchronized (this) {
+            transfers = new ArrayList<>(queue);
+            transfers.addAll(running);
+        }
+        transfers.forEach(this::cancel);
+        retryTimer.shutdownNow();
+    }
+
+    /**
+     * Operation queued in a {@link TransferScheduler}.
+     */
+    public static class Transfer<T> {
+        @Getter
+        private final String description;
+        @Getter
+        private final TransferPriority priority;
+        //order of submission among the operations of the same priority
+        private final long sequence;
+        private final Function<Cancellation, CompletableFuture<T>> operation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final TransferScheduler scheduler;
+        //cancellation of the current attempt and the number of attempts, guarded by the scheduler
+        private Cancellation cancellation;
+        private int attempts;
+
+        private Transfer(TransferScheduler scheduler, String description, TransferPriority priority, long sequence,
+                         Function<Cancellation, CompletableFuture<T>> operation) {
+            this.scheduler = scheduler;
+            this.description = description;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.operation = operation;
+        }
+
+        /**
+         * @return future completed with the result of the operation once it has succeeded or failed for good
+         */
+        public CompletableFuture<T> future() {
+            return result;
+        }
+
+        /**
+         * Takes the operation out of the queue, or stops it if it is running.
+         */
+        public void cancel() {
+            scheduler.cancel(this);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+}
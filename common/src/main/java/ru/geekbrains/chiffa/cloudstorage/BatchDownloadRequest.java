@@ -0,0 +1,56 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Downloads many files at once. The server answers with {@link BatchDownloadResponse} and then sends
+ * the whole content of the found files one after another in {@link DataFrame}s of the transfer.
+ */
+public class BatchDownloadRequest implements Request {
+    /**
+     * Files of one request, larger batches are split by the client.
+     */
+    public static final int MAX_FILES = 10_000;
+
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private int transferId;
+    @Getter
+    private List<String> filenames;
+
+    public BatchDownloadRequest(String username, int transferId, List<String> filenames) {
+        this.username = username;
+        this.transferId = transferId;
+        this.filenames = filenames;
+    }
+
+    private BatchDownloadRequest(UUID id, String username, int transferId, List<String> filenames) {
+        this(username, transferId, filenames);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.BATCH_DOWNLOAD_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        buf.writeInt(transferId);
+        WireFormat.writeStringList(buf, filenames);
+    }
+
+    public static BatchDownloadRequest readFrom(ByteBuf buf) {
+        return new BatchDownloadRequest(
+                WireFormat.readUuid(buf), WireFormat.readString(buf), buf.readInt(), WireFormat.readStringList(buf));
+    }
+}
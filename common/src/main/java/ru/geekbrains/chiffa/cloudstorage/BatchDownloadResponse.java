@@ -0,0 +1,43 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Size of every file of a {@link BatchDownloadRequest} in the order of the request, its checksum, empty
+ * if it isn't known, and an error text, empty if the file is sent. Files with an error have no bytes
+ * in the transfer.
+ */
+@AllArgsConstructor
+public class BatchDownloadResponse implements Response {
+    @Getter
+    private final UUID id;
+    @Getter
+    private final List<Long> fileSizes;
+    @Getter
+    private final List<String> checksums;
+    @Getter
+    private final List<String> errors;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.BATCH_DOWNLOAD_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeLongList(buf, fileSizes);
+        WireFormat.writeStringList(buf, checksums);
+        WireFormat.writeStringList(buf, errors);
+    }
+
+    public static BatchDownloadResponse readFrom(ByteBuf buf) {
+        return new BatchDownloadResponse(WireFormat.readUuid(buf), WireFormat.readLongList(buf),
+                WireFormat.readStringList(buf), WireFormat.readStringList(buf));
+    }
+}
@@ -0,0 +1,68 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Change of one file requested as part of a {@link BatchRequest}.
+ */
+@AllArgsConstructor
+@Getter
+public class BatchOperation {
+    public enum Type {
+        DELETE,
+        /**
+         * The file is renamed to {@link #getNewName()}.
+         */
+        RENAME
+    }
+
+    private final Type type;
+    private final String name;
+    private final String newName;
+
+    public static BatchOperation delete(String name) {
+        return new BatchOperation(Type.DELETE, name, "");
+    }
+
+    public static BatchOperation rename(String name, String newName) {
+        return new BatchOperation(Type.RENAME, name, newName);
+    }
+
+    public void writeTo(ByteBuf buf) {
+        buf.writeByte(type.ordinal());
+        WireFormat.writeString(buf, name);
+        WireFormat.writeString(buf, newName);
+    }
+
+    public static BatchOperation readFrom(ByteBuf buf) {
+        int type = buf.readByte();
+        if (type < 0 || type >= Type.values().length) {
+            throw new IllegalArgumentException("Invalid operation type " + type);
+        }
+        return new BatchOperation(Type.values()[type], WireFormat.readString(buf), WireFormat.readString(buf));
+    }
+
+    public static void writeList(ByteBuf buf, List<BatchOperation> operations) {
+        buf.writeInt(operations.size());
+        for (BatchOperation operation : operations) {
+            operation.writeTo(buf);
+        }
+    }
+
+    public static List<BatchOperation> readList(ByteBuf buf) {
+        int size = buf.readInt();
+        if (size < 0 || size > buf.readableBytes() / 9) {
+            throw new IllegalArgumentException("Invalid list size " + size);
+        }
+        List<BatchOperation> operations = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            operations.add(readFrom(buf));
+        }
+        return operations;
+    }
+}
@@ -0,0 +1,51 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Deletes and renames many files at once. The server applies the operations in order, each one on its own,
+ * and answers with a single {@link BatchResponse}.
+ */
+public class BatchRequest implements Request {
+    /**
+     * Operations of one request, larger batches are split by the client.
+     */
+    public static final int MAX_OPERATIONS = 10_000;
+
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private List<BatchOperation> operations;
+
+    public BatchRequest(String username, List<BatchOperation> operations) {
+        this.username = username;
+        this.operations = operations;
+    }
+
+    private BatchRequest(UUID id, String username, List<BatchOperation> operations) {
+        this(username, operations);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.BATCH_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        BatchOperation.writeList(buf, operations);
+    }
+
+    public static BatchRequest readFrom(ByteBuf buf) {
+        return new BatchRequest(WireFormat.readUuid(buf), WireFormat.readString(buf), BatchOperation.readList(buf));
+    }
+}
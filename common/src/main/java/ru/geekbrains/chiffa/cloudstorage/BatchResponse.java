@@ -0,0 +1,53 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Outcome of a {@link BatchRequest} or a {@link BatchUploadRequest}: an error text for every item in the order
+ * of the request, empty if the item succeeded, and the changes of the succeeded items.
+ */
+@AllArgsConstructor
+public class BatchResponse implements Response {
+    @Getter
+    private final UUID id;
+    @Getter
+    private final List<String> errors;
+    @Getter
+    private final UUID logId;
+    @Getter
+    private final long version;
+    @Getter
+    private final List<FileChange> changes;
+
+    /**
+     * @return the changes of the batch as an answer to be applied to a file list
+     */
+    public ChangesResponse toChangesResponse() {
+        return new ChangesResponse(id, logId, version, false, changes);
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.BATCH_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeStringList(buf, errors);
+        WireFormat.writeUuid(buf, logId);
+        buf.writeLong(version);
+        FileChange.writeList(buf, changes);
+    }
+
+    public static BatchResponse readFrom(ByteBuf buf) {
+        return new BatchResponse(
+                WireFormat.readUuid(buf), WireFormat.readStringList(buf), WireFormat.readUuid(buf), buf.readLong(),
+                FileChange.readList(buf));
+    }
+}
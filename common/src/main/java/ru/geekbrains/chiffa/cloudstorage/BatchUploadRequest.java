@@ -0,0 +1,87 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Uploads many files at once. Their whole content follows one after another in {@link DataFrame}s
+ * of the transfer. The server stores every file on its own and answers with a {@link BatchResponse}
+ * once all of them have been received.
+ */
+public class BatchUploadRequest implements Request {
+    /**
+     * Files of one request, larger batches are split by the client.
+     */
+    public static final int MAX_FILES = 10_000;
+
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private int transferId;
+    @Getter
+    private List<String> filenames;
+    @Getter
+    private List<Long> fileSizes;
+    /**
+     * Checksums of the files as the client has them, empty for the unknown ones. A file is stored only if
+     * its received content has the same checksum.
+     */
+    @Getter
+    private List<String> checksums;
+
+    public BatchUploadRequest(String username, int transferId, List<String> filenames, List<Long> fileSizes) {
+        this(username, transferId, filenames, fileSizes, Collections.nCopies(filenames.size(), ""));
+    }
+
+    public BatchUploadRequest(String username, int transferId, List<String> filenames, List<Long> fileSizes,
+                              List<String> checksums) {
+        if (filenames.size() != fileSizes.size() || filenames.size() != checksums.size()) {
+            throw new IllegalArgumentException("Every file must have its size and checksum");
+        }
+        this.username = username;
+        this.transferId = transferId;
+        this.filenames = filenames;
+        this.fileSizes = fileSizes;
+        this.checksums = checksums;
+    }
+
+    private BatchUploadRequest(UUID id, String username, int transferId, List<String> filenames,
+                               List<Long> fileSizes, List<String> checksums) {
+        this(username, transferId, filenames, fileSizes, checksums);
+        this.id = id;
+    }
+
+    /**
+     * @return bytes of all files together
+     */
+    public long getLength() {
+        return fileSizes.stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.BATCH_UPLOAD_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        buf.writeInt(transferId);
+        WireFormat.writeStringList(buf, filenames);
+        WireFormat.writeLongList(buf, fileSizes);
+        WireFormat.writeStringList(buf, checksums);
+    }
+
+    public static BatchUploadRequest readFrom(ByteBuf buf) {
+        return new BatchUploadRequest(
+                WireFormat.readUuid(buf), WireFormat.readString(buf), buf.readInt(), WireFormat.readStringList(buf),
+                WireFormat.readLongList(buf), WireFormat.readStringList(buf));
+    }
+}
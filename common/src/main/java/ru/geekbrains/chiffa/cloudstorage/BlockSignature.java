@@ -0,0 +1,51 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checksums of one block of a stored file: the cheap rolling one finds candidate blocks in the new
+ * version of the file, the strong one confirms them.
+ */
+@AllArgsConstructor
+@Getter
+public class BlockSignature {
+    public static final int STRONG_HASH_SIZE = 16;
+
+    private final int weak;
+    private final byte[] strong;
+
+    public static byte[] strongHash(MessageDigest digest, byte[] data, int offset, int length) {
+        digest.update(data, offset, length);
+        return Arrays.copyOf(digest.digest(), STRONG_HASH_SIZE);
+    }
+
+    public static void writeList(ByteBuf buf, List<BlockSignature> signatures) {
+        buf.writeInt(signatures.size());
+        for (BlockSignature signature : signatures) {
+            buf.writeInt(signature.weak);
+            buf.writeBytes(signature.strong);
+        }
+    }
+
+    public static List<BlockSignature> readList(ByteBuf buf) {
+        int size = buf.readInt();
+        if (size < 0 || size > buf.readableBytes() / (4 + STRONG_HASH_SIZE)) {
+            throw new IllegalArgumentException("Invalid list size " + size);
+        }
+        List<BlockSignature> signatures = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int weak = buf.readInt();
+            byte[] strong = new byte[STRONG_HASH_SIZE];
+            buf.readBytes(strong);
+            signatures.add(new BlockSignature(weak, strong));
+        }
+        return signatures;
+    }
+}
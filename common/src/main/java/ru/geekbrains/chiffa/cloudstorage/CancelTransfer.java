@@ -0,0 +1,30 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Sent by either side of a transfer that is no longer wanted. The sender stops sending its data,
+ * the receiver drops what it has got, except for an upload, which may be resumed later.
+ * Data frames of the transfer which were sent before it are ignored.
+ */
+@AllArgsConstructor
+public class CancelTransfer implements Frame {
+    @Getter
+    private final int transferId;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.CANCEL_TRANSFER;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        buf.writeInt(transferId);
+    }
+
+    public static CancelTransfer readFrom(ByteBuf buf) {
+        return new CancelTransfer(buf.readInt());
+    }
+}
@@ -0,0 +1,34 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Change of the user's files pushed to the connections subscribed with a {@link ChangesRequest}.
+ */
+@AllArgsConstructor
+@Getter
+public class ChangeNotification implements Frame {
+    private final String username;
+    private final UUID logId;
+    private final FileChange change;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.CHANGE_NOTIFICATION;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeString(buf, username);
+        WireFormat.writeUuid(buf, logId);
+        change.writeTo(buf);
+    }
+
+    public static ChangeNotification readFrom(ByteBuf buf) {
+        return new ChangeNotification(WireFormat.readString(buf), WireFormat.readUuid(buf), FileChange.readFrom(buf));
+    }
+}
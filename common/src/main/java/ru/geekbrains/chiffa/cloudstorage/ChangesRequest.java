@@ -0,0 +1,61 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Asks for the changes of the user's files after {@code sinceVersion} of the change log {@code logId},
+ * the answer is {@link ChangesResponse}. A subscribing connection then gets every further change
+ * pushed as a {@link ChangeNotification}.
+ */
+public class ChangesRequest implements Request {
+    /**
+     * Log id of a client that has no file list yet, the server answers with the whole list.
+     */
+    public static final UUID NO_LOG = new UUID(0, 0);
+
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private UUID logId;
+    @Getter
+    private long sinceVersion;
+    @Getter
+    private boolean subscribe;
+
+    public ChangesRequest(String username, UUID logId, long sinceVersion, boolean subscribe) {
+        this.username = username;
+        this.logId = logId;
+        this.sinceVersion = sinceVersion;
+        this.subscribe = subscribe;
+    }
+
+    private ChangesRequest(UUID id, String username, UUID logId, long sinceVersion, boolean subscribe) {
+        this(username, logId, sinceVersion, subscribe);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.CHANGES_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeUuid(buf, logId);
+        buf.writeLong(sinceVersion);
+        buf.writeBoolean(subscribe);
+    }
+
+    public static ChangesRequest readFrom(ByteBuf buf) {
+        return new ChangesRequest(
+                WireFormat.readUuid(buf), WireFormat.readString(buf), WireFormat.readUuid(buf),
+                buf.readLong(), buf.readBoolean());
+    }
+}
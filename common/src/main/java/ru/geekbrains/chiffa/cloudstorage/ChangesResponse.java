@@ -0,0 +1,47 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Changes of the user's files up to {@code version}. Mutations are answered with their own change only.
+ * If the asked changes aren't retained anymore the response is a {@code reset}: the changes are then
+ * a {@link FileChange.Type#PUT} for every file and replace the client's list.
+ */
+@AllArgsConstructor
+public class ChangesResponse implements Response {
+    @Getter
+    private final UUID id;
+    @Getter
+    private final UUID logId;
+    @Getter
+    private final long version;
+    @Getter
+    private final boolean reset;
+    @Getter
+    private final List<FileChange> changes;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.CHANGES_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeUuid(buf, logId);
+        buf.writeLong(version);
+        buf.writeBoolean(reset);
+        FileChange.writeList(buf, changes);
+    }
+
+    public static ChangesResponse readFrom(ByteBuf buf) {
+        return new ChangesResponse(
+                WireFormat.readUuid(buf), WireFormat.readUuid(buf), buf.readLong(), buf.readBoolean(),
+                FileChange.readList(buf));
+    }
+}
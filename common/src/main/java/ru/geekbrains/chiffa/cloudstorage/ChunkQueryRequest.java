@@ -0,0 +1,41 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Asks which of the chunks the server doesn't store yet, the answer is {@link ChunksResponse}.
+ */
+public class ChunkQueryRequest implements Request {
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private List<String> hashes;
+
+    public ChunkQueryRequest(List<String> hashes) {
+        this.hashes = hashes;
+    }
+
+    private ChunkQueryRequest(UUID id, List<String> hashes) {
+        this(hashes);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.CHUNK_QUERY_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeStringList(buf, hashes);
+    }
+
+    public static ChunkQueryRequest readFrom(ByteBuf buf) {
+        return new ChunkQueryRequest(WireFormat.readUuid(buf), WireFormat.readStringList(buf));
+    }
+}
@@ -0,0 +1,89 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content chunk of a file identified by the hex SHA-256 of its bytes.
+ */
+@AllArgsConstructor
+@Getter
+public class ChunkRef {
+    public static final String HASH_ALGORITHM = "SHA-256";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final String hash;
+    private final int length;
+
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeString(buf, hash);
+        buf.writeInt(length);
+    }
+
+    public static ChunkRef readFrom(ByteBuf buf) {
+        String hash = WireFormat.readString(buf);
+        int length = buf.readInt();
+        if (!isHash(hash) || length < 0) {
+            throw new IllegalArgumentException("Invalid chunk " + hash + " of " + length + " bytes");
+        }
+        return new ChunkRef(hash, length);
+    }
+
+    public static void writeList(ByteBuf buf, List<ChunkRef> chunks) {
+        buf.writeInt(chunks.size());
+        for (ChunkRef chunk : chunks) {
+            chunk.writeTo(buf);
+        }
+    }
+
+    public static List<ChunkRef> readList(ByteBuf buf) {
+        int size = buf.readInt();
+        if (size < 0 || size > buf.readableBytes() / 8) {
+            throw new IllegalArgumentException("Invalid list size " + size);
+        }
+        List<ChunkRef> chunks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            chunks.add(readFrom(buf));
+        }
+        return chunks;
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " isn't available", e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Hashes are used as file names of the chunk store, so only lowercase hex of the right length is accepted.
+     */
+    public static boolean isHash(String value) {
+        if (value.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
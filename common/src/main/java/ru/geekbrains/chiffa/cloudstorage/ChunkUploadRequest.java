@@ -0,0 +1,47 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Starts sending the content of the chunks one after another in {@link DataFrame}s of the transfer.
+ * The server verifies every chunk against its hash and answers with {@link ChunksResponse}
+ * listing the chunks it still doesn't have.
+ */
+public class ChunkUploadRequest implements Request {
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private int transferId;
+    @Getter
+    private List<ChunkRef> chunks;
+
+    public ChunkUploadRequest(int transferId, List<ChunkRef> chunks) {
+        this.transferId = transferId;
+        this.chunks = chunks;
+    }
+
+    private ChunkUploadRequest(UUID id, int transferId, List<ChunkRef> chunks) {
+        this(transferId, chunks);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.CHUNK_UPLOAD_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        buf.writeInt(transferId);
+        ChunkRef.writeList(buf, chunks);
+    }
+
+    public static ChunkUploadRequest readFrom(ByteBuf buf) {
+        return new ChunkUploadRequest(WireFormat.readUuid(buf), buf.readInt(), ChunkRef.readList(buf));
+    }
+}
@@ -0,0 +1,34 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+@AllArgsConstructor
+public class ChunksResponse implements Response {
+    @Getter
+    private final UUID id;
+    /**
+     * Hashes of the asked or uploaded chunks that the server doesn't store.
+     */
+    @Getter
+    private final List<String> missing;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.CHUNKS_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeStringList(buf, missing);
+    }
+
+    public static ChunksResponse readFrom(ByteBuf buf) {
+        return new ChunksResponse(WireFormat.readUuid(buf), WireFormat.readStringList(buf));
+    }
+}
@@ -0,0 +1,51 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stores the file as the list of its chunks, all of which the server must already have.
+ * The server answers with the new {@link ListFilesResponse}.
+ */
+public class CommitManifestRequest implements Request {
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private String filename;
+    @Getter
+    private List<ChunkRef> chunks;
+
+    public CommitManifestRequest(String username, String filename, List<ChunkRef> chunks) {
+        this.username = username;
+        this.filename = filename;
+        this.chunks = chunks;
+    }
+
+    private CommitManifestRequest(UUID id, String username, String filename, List<ChunkRef> chunks) {
+        this(username, filename, chunks);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.COMMIT_MANIFEST_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, filename);
+        ChunkRef.writeList(buf, chunks);
+    }
+
+    public static CommitManifestRequest readFrom(ByteBuf buf) {
+        return new CommitManifestRequest(
+                WireFormat.readUuid(buf), WireFormat.readString(buf), WireFormat.readString(buf), ChunkRef.readList(buf));
+    }
+}
@@ -0,0 +1,41 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Replaces the stored file with a segmented upload once all of its segments have been acknowledged.
+ * The server answers with the new {@link ListFilesResponse}.
+ */
+public class CommitUploadRequest implements Request {
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private UUID uploadId;
+
+    public CommitUploadRequest(UUID uploadId) {
+        this.uploadId = uploadId;
+    }
+
+    private CommitUploadRequest(UUID id, UUID uploadId) {
+        this(uploadId);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.COMMIT_UPLOAD_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeUuid(buf, uploadId);
+    }
+
+    public static CommitUploadRequest readFrom(ByteBuf buf) {
+        return new CommitUploadRequest(WireFormat.readUuid(buf), WireFormat.readUuid(buf));
+    }
+}
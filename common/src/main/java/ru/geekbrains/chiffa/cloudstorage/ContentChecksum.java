@@ -0,0 +1,39 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+/**
+ * Checksum of content computed piece by piece as the bytes pass by, so that a file being written or received
+ * gets its checksum without being read again. It is the hex SHA-256 kept in the metadata of stored files.
+ * <p>
+ * Not thread safe.
+ */
+public class ContentChecksum {
+    private final MessageDigest digest = ChunkRef.newDigest();
+
+    /**
+     * Adds the readable bytes of the buffer, its reader index stays as it is.
+     */
+    public void update(ByteBuf buf) {
+        for (ByteBuffer buffer : buf.nioBuffers()) {
+            digest.update(buffer);
+        }
+    }
+
+    /**
+     * Adds the remaining bytes of the buffer, its position moves to the limit.
+     */
+    public void update(ByteBuffer buffer) {
+        digest.update(buffer);
+    }
+
+    /**
+     * @return checksum of the bytes added so far, the computation starts over
+     */
+    public String finish() {
+        return ChunkRef.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,69 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Splits files into chunks at positions chosen by their content with a gear rolling hash, so that an
+ * insertion into a file shifts only the chunks around it and the rest still match chunks stored before.
+ */
+public final class ContentDefinedChunker {
+    public static final int MIN_CHUNK_SIZE = 256 * 1024;
+    public static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    //20 bits give 1 MB chunks on average
+    private static final long BOUNDARY_MASK = (1L << 20) - 1;
+    //the gear hash depends on the last 64 bytes only, so hashing starts this far before the minimum size
+    private static final int HASH_WINDOW = 64;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // the table must be the same everywhere, chunk boundaries are compared across clients
+        Random random = new Random(0x636c6f7564L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private ContentDefinedChunker() {
+    }
+
+    public static List<ChunkRef> split(Path path) throws IOException {
+        List<ChunkRef> chunks = new ArrayList<>();
+        MessageDigest digest = ChunkRef.newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int chunkLength = 0;
+        long hash = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    chunkLength++;
+                    if (chunkLength <= MIN_CHUNK_SIZE - HASH_WINDOW) {
+                        continue;
+                    }
+                    hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+                    if ((chunkLength >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0) || chunkLength == MAX_CHUNK_SIZE) {
+                        digest.update(buffer, start, i + 1 - start);
+                        chunks.add(new ChunkRef(ChunkRef.toHex(digest.digest()), chunkLength));
+                        start = i + 1;
+                        chunkLength = 0;
+                        hash = 0;
+                    }
+                }
+                digest.update(buffer, start, read - start);
+            }
+        }
+        if (chunkLength > 0) {
+            chunks.add(new ChunkRef(ChunkRef.toHex(digest.digest()), chunkLength));
+        }
+        return chunks;
+    }
+}
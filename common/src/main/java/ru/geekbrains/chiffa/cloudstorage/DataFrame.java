@@ -0,0 +1,64 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.util.ReferenceCountUtil;
+import lombok.Getter;
+
+/**
+ * Piece of file content of the transfer with the given id. Transfer ids are chosen by the client
+ * and announced in {@link UploadRequest} or {@link DownloadRequest}, so pieces of several transfers
+ * can be interleaved with each other and with other messages on one connection.
+ * <p>
+ * Content is a {@link ByteBuf}, or a {@link FileRegion} when sent with zero-copy; received content is always
+ * a {@link ByteBuf}. The frame owns its content and must be released.
+ */
+public class DataFrame implements Frame {
+    @Getter
+    private final int transferId;
+    @Getter
+    private final Object content;
+
+    public DataFrame(int transferId, ByteBuf content) {
+        this.transferId = transferId;
+        this.content = content;
+    }
+
+    public DataFrame(int transferId, FileRegion content) {
+        this.transferId = transferId;
+        this.content = content;
+    }
+
+    public int contentLength() {
+        return content instanceof ByteBuf
+                ? ((ByteBuf) content).readableBytes()
+                : (int) ((FileRegion) content).count();
+    }
+
+    public void release() {
+        ReferenceCountUtil.release(content);
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.DATA;
+    }
+
+    /**
+     * Copies the content, {@link FrameEncoder} writes data frames without copying instead.
+     */
+    @Override
+    public void writeTo(ByteBuf buf) {
+        if (!(content instanceof ByteBuf)) {
+            throw new UnsupportedOperationException("File region can't be copied into a buffer");
+        }
+        buf.writeInt(transferId);
+        ByteBuf data = (ByteBuf) content;
+        buf.writeBytes(data, data.readerIndex(), data.readableBytes());
+    }
+
+    public static DataFrame readFrom(ByteBuf buf) {
+        int transferId = buf.readInt();
+        return new DataFrame(transferId, buf.readSlice(buf.readableBytes()).retain());
+    }
+}
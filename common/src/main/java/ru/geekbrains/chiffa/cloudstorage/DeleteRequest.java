@@ -1,5 +1,6 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
+import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 
 import java.util.UUID;
@@ -16,4 +17,25 @@ public class DeleteRequest implements Request {
         this.username = username;
         this.filename = filename;
     }
+
+    private DeleteRequest(UUID id, String username, String filename) {
+        this(username, filename);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.DELETE_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, filename);
+    }
+
+    public static DeleteRequest readFrom(ByteBuf buf) {
+        return new DeleteRequest(WireFormat.readUuid(buf), WireFormat.readString(buf), WireFormat.readString(buf));
+    }
 }
@@ -0,0 +1,32 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * Layout of a delta sent with {@link DeltaUploadRequest}. A delta is a sequence of instructions,
+ * each starting with a header of a type byte and two ints:
+ * <ul>
+ * <li>{@link #LITERAL} with the length of the bytes following the header,</li>
+ * <li>{@link #COPY} with the index of the first block of the stored file and the number of blocks to copy.</li>
+ * </ul>
+ */
+public final class DeltaFormat {
+    public static final byte LITERAL = 0;
+    public static final byte COPY = 1;
+    public static final int HEADER_SIZE = 9;
+    public static final int MIN_BLOCK_SIZE = 2 * 1024;
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    private DeltaFormat() {
+    }
+
+    /**
+     * Blocks of about the square root of the file size keep both the signatures and the data sent
+     * for a small change small.
+     */
+    public static int blockSize(long fileSize) {
+        int blockSize = MIN_BLOCK_SIZE;
+        while (blockSize < MAX_BLOCK_SIZE && (long) blockSize * blockSize < fileSize) {
+            blockSize *= 2;
+        }
+        return blockSize;
+    }
+}
@@ -0,0 +1,73 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Uploads a new version of a stored file as a delta against the blocks of its {@link SignatureResponse}.
+ * The delta follows in {@link DataFrame}s of the transfer, see {@link DeltaFormat}. The server checks
+ * the rebuilt file against {@code fileHash} and answers with the new {@link ListFilesResponse}.
+ */
+public class DeltaUploadRequest implements Request {
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private String filename;
+    @Getter
+    private int transferId;
+    @Getter
+    private int blockSize;
+    @Getter
+    private long deltaLength;
+    @Getter
+    private long fileSize;
+    /**
+     * Hex SHA-256 of the new version of the file.
+     */
+    @Getter
+    private String fileHash;
+
+    public DeltaUploadRequest(String username, String filename, int transferId, int blockSize,
+                              long deltaLength, long fileSize, String fileHash) {
+        this.username = username;
+        this.filename = filename;
+        this.transferId = transferId;
+        this.blockSize = blockSize;
+        this.deltaLength = deltaLength;
+        this.fileSize = fileSize;
+        this.fileHash = fileHash;
+    }
+
+    private DeltaUploadRequest(UUID id, String username, String filename, int transferId, int blockSize,
+                               long deltaLength, long fileSize, String fileHash) {
+        this(username, filename, transferId, blockSize, deltaLength, fileSize, fileHash);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.DELTA_UPLOAD_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, filename);
+        buf.writeInt(transferId);
+        buf.writeInt(blockSize);
+        buf.writeLong(deltaLength);
+        buf.writeLong(fileSize);
+        WireFormat.writeString(buf, fileHash);
+    }
+
+    public static DeltaUploadRequest readFrom(ByteBuf buf) {
+        return new DeltaUploadRequest(
+                WireFormat.readUuid(buf), WireFormat.readString(buf), WireFormat.readString(buf),
+                buf.readInt(), buf.readInt(), buf.readLong(), buf.readLong(), WireFormat.readString(buf));
+    }
+}
@@ -1,19 +1,83 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
+import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 
 import java.util.UUID;
 
 public class DownloadRequest implements Request {
+    public static final long TO_END = -1;
+
     @Getter
     private UUID id = UUID.randomUUID();
     @Getter
     private String username;
     @Getter
     private String filename;
+    @Getter
+    private int transferId;
+    @Getter
+    private long offset;
+    /**
+     * Number of bytes to send starting from offset, {@link #TO_END} for the rest of the file.
+     */
+    @Getter
+    private long length;
+    /**
+     * Checksum of the copy the client already has, empty if it has none. The server answers
+     * with a {@link NotModifiedResponse} instead of the content if the stored file has the same checksum.
+     */
+    @Getter
+    private String knownChecksum;
+
+    public DownloadRequest(String username, String filename, int transferId) {
+        this(username, filename, transferId, 0, TO_END);
+    }
+
+    public DownloadRequest(String username, String filename, int transferId, long offset, long length) {
+        this(username, filename, transferId, offset, length, "");
+    }
 
-    public DownloadRequest(String username, String filename) {
+    public DownloadRequest(String username, String filename, int transferId, long offset, long length,
+                           String knownChecksum) {
         this.username = username;
         this.filename = filename;
+        this.transferId = transferId;
+        this.offset = offset;
+        this.length = length;
+        this.knownChecksum = knownChecksum;
+    }
+
+    private DownloadRequest(UUID id, String username, String filename, int transferId, long offset, long length,
+                            String knownChecksum) {
+        this(username, filename, transferId, offset, length, knownChecksum);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.DOWNLOAD_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, filename);
+        buf.writeInt(transferId);
+        buf.writeLong(offset);
+        buf.writeLong(length);
+        WireFormat.writeString(buf, knownChecksum);
+    }
+
+    public static DownloadRequest readFrom(ByteBuf buf) {
+        return new DownloadRequest(
+                WireFormat.readUuid(buf),
+                WireFormat.readString(buf),
+                WireFormat.readString(buf),
+                buf.readInt(),
+                buf.readLong(),
+                buf.readLong(),
+                WireFormat.readString(buf));
     }
 }
@@ -1,6 +1,7 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
 
+import io.netty.buffer.ByteBuf;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
@@ -14,5 +15,45 @@ public class DownloadResponse implements Response {
     private final String filename;
     @Getter
     private final long fileSize;
+    /**
+     * Range of the file which is sent in data frames of the transfer.
+     */
+    @Getter
+    private final long offset;
+    @Getter
+    private final long length;
+    /**
+     * Checksum of the whole stored file, empty if it isn't known. The client checks a downloaded file against it.
+     */
+    @Getter
+    private final String checksum;
+
+    public DownloadResponse(UUID id, String filename, long fileSize) {
+        this(id, filename, fileSize, 0, fileSize, "");
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.DOWNLOAD_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, filename);
+        buf.writeLong(fileSize);
+        buf.writeLong(offset);
+        buf.writeLong(length);
+        WireFormat.writeString(buf, checksum);
+    }
 
+    public static DownloadResponse readFrom(ByteBuf buf) {
+        return new DownloadResponse(
+                WireFormat.readUuid(buf),
+                WireFormat.readString(buf),
+                buf.readLong(),
+                buf.readLong(),
+                buf.readLong(),
+                WireFormat.readString(buf));
+    }
 }
@@ -1,5 +1,6 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
+import io.netty.buffer.ByteBuf;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
@@ -11,4 +12,19 @@ public class ErrorResponse implements Response {
     private final UUID id;
     @Getter
     private final String text;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.ERROR_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, text);
+    }
+
+    public static ErrorResponse readFrom(ByteBuf buf) {
+        return new ErrorResponse(WireFormat.readUuid(buf), WireFormat.readString(buf));
+    }
 }
@@ -0,0 +1,72 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry of the change log of a user. Every change gets the next version of the user's log,
+ * applying the changes in version order to a file list brings it up to date.
+ */
+@AllArgsConstructor
+@Getter
+public class FileChange {
+    public enum Type {
+        /**
+         * The file was created or replaced.
+         */
+        PUT,
+        DELETE,
+        /**
+         * The file was renamed to {@link #getNewName()}.
+         */
+        RENAME
+    }
+
+    private final long version;
+    private final Type type;
+    private final String name;
+    private final String newName;
+
+    public FileChange(long version, Type type, String name) {
+        this(version, type, name, "");
+    }
+
+    public void writeTo(ByteBuf buf) {
+        buf.writeLong(version);
+        buf.writeByte(type.ordinal());
+        WireFormat.writeString(buf, name);
+        WireFormat.writeString(buf, newName);
+    }
+
+    public static FileChange readFrom(ByteBuf buf) {
+        long version = buf.readLong();
+        int type = buf.readByte();
+        if (type < 0 || type >= Type.values().length) {
+            throw new IllegalArgumentException("Invalid change type " + type);
+        }
+        return new FileChange(version, Type.values()[type], WireFormat.readString(buf), WireFormat.readString(buf));
+    }
+
+    public static void writeList(ByteBuf buf, List<FileChange> changes) {
+        buf.writeInt(changes.size());
+        for (FileChange change : changes) {
+            change.writeTo(buf);
+        }
+    }
+
+    public static List<FileChange> readList(ByteBuf buf) {
+        int size = buf.readInt();
+        if (size < 0 || size > buf.readableBytes() / 17) {
+            throw new IllegalArgumentException("Invalid list size " + size);
+        }
+        List<FileChange> changes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            changes.add(readFrom(buf));
+        }
+        return changes;
+    }
+}
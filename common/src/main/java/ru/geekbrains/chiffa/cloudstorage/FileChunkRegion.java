@@ -0,0 +1,22 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.channel.DefaultFileRegion;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Zero-copy region of a file that is shared by all chunks of a transfer.
+ * Unlike its parent {@link DefaultFileRegion} it doesn't close the file when released. It extends the
+ * parent rather than implementing {@link io.netty.channel.FileRegion}, because the native epoll
+ * transport sends only {@link DefaultFileRegion}s with sendfile.
+ */
+public class FileChunkRegion extends DefaultFileRegion {
+
+    public FileChunkRegion(FileChannel file, long position, long count) {
+        super(file, position, count);
+    }
+
+    @Override
+    protected void deallocate() {
+    }
+}
@@ -0,0 +1,60 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File of a user as listed by {@link ListPageRequest}, with its size and last modification time in millis.
+ */
+@AllArgsConstructor
+@Getter
+public class FileEntry {
+    public enum Type {
+        FILE,
+        DIRECTORY
+    }
+
+    private final String name;
+    private final Type type;
+    private final long size;
+    private final long lastModified;
+
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeString(buf, name);
+        buf.writeByte(type.ordinal());
+        buf.writeLong(size);
+        buf.writeLong(lastModified);
+    }
+
+    public static FileEntry readFrom(ByteBuf buf) {
+        String name = WireFormat.readString(buf);
+        int type = buf.readByte();
+        if (type < 0 || type >= Type.values().length) {
+            throw new IllegalArgumentException("Invalid file type " + type);
+        }
+        return new FileEntry(name, Type.values()[type], buf.readLong(), buf.readLong());
+    }
+
+    public static void writeList(ByteBuf buf, List<FileEntry> entries) {
+        buf.writeInt(entries.size());
+        for (FileEntry entry : entries) {
+            entry.writeTo(buf);
+        }
+    }
+
+    public static List<FileEntry> readList(ByteBuf buf) {
+        int size = buf.readInt();
+        if (size < 0 || size > buf.readableBytes() / 21) {
+            throw new IllegalArgumentException("Invalid list size " + size);
+        }
+        List<FileEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(readFrom(buf));
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,50 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.nio.file.Path;
+
+/**
+ * Names of stored files. A name is a relative path of segments separated by {@code /}, so that synced
+ * folders keep their structure, e.g. {@code project/src/Main.java}.
+ */
+public final class FileNames {
+    public static final char SEPARATOR = '/';
+
+    private FileNames() {
+    }
+
+    /**
+     * @return true if the name is a relative path without empty, {@code .} or {@code ..} segments and backslashes
+     */
+    public static boolean isValid(String name) {
+        if (name.isEmpty() || name.indexOf('\\') >= 0 || name.indexOf('\0') >= 0) {
+            return false;
+        }
+        for (String segment : name.split(String.valueOf(SEPARATOR), -1)) {
+            if (segment.isEmpty() || segment.equals(".") || segment.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return name of the file under the directory, with its segments separated by {@code /} on every platform
+     */
+    public static String relativize(Path dir, Path file) {
+        StringBuilder name = new StringBuilder();
+        for (Path segment : dir.relativize(file)) {
+            if (name.length() > 0) {
+                name.append(SEPARATOR);
+            }
+            name.append(segment);
+        }
+        return name.toString();
+    }
+
+    /**
+     * @return prefix of the names of the files in the folder, empty for the whole storage of the user
+     */
+    public static String folderPrefix(String folder) {
+        return folder.isEmpty() || folder.charAt(folder.length() - 1) == SEPARATOR ? folder : folder + SEPARATOR;
+    }
+}
@@ -0,0 +1,120 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes a byte range of a file arriving in order in small pieces, e.g. the data frames of a download.
+ * Pieces are held without copying until there are {@link #BATCH_SIZE} bytes of them, then written
+ * with one gathering write, so the file gets one write per batch rather than one per frame.
+ * The file isn't extended ahead of the data: written bytes always end where the file does, so that
+ * an interrupted download, even one whose process was killed, resumes from the size of the file.
+ * <p>
+ * Not thread safe.
+ */
+public class FileSink implements AutoCloseable {
+    public static final int BATCH_SIZE = 1024 * 1024;
+    //bounded by the number of buffers a single system call takes
+    private static final int MAX_BATCH_PIECES = 1024;
+
+    private final FileChannel file;
+    private final List<ByteBuf> batch = new ArrayList<>();
+    private long batchBytes;
+
+    private FileSink(FileChannel file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the file for writing at {@code offset}, creating it with its parent directories.
+     *
+     * @param replace whether the previous content of the file is dropped
+     */
+    public static FileSink open(Path path, long offset, boolean replace) throws IOException {
+        Files.createDirectories(path.getParent());
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (replace) {
+                file.truncate(0);
+            }
+            file.position(offset);
+            return new FileSink(file);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the readable bytes of the content, which stays owned by the caller.
+     */
+    public void write(ByteBuf content) throws IOException {
+        int length = content.readableBytes();
+        batch.add(content.readSlice(length).retain());
+        batchBytes += length;
+        if (batchBytes >= BATCH_SIZE || batch.size() >= MAX_BATCH_PIECES) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the bytes held so far to the file.
+     */
+    public void flush() throws IOException {
+        try {
+            List<ByteBuffer> buffers = new ArrayList<>();
+            for (ByteBuf piece : batch) {
+                Collections.addAll(buffers, piece.nioBuffers());
+            }
+            ByteBuffer[] pieces = buffers.toArray(new ByteBuffer[0]);
+            for (long written = 0; written < batchBytes; ) {
+                written += file.write(pieces);
+            }
+        } finally {
+            releaseBatch();
+        }
+    }
+
+    /**
+     * Writes the rest of the bytes and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Keeps the bytes received so far, so that the file can be resumed from its size, then closes the file.
+     */
+    public void abort() throws IOException {
+        try {
+            flush();
+        } finally {
+            release();
+        }
+    }
+
+    private void release() throws IOException {
+        releaseBatch();
+        file.close();
+    }
+
+    private void releaseBatch() {
+        batch.forEach(ByteBuf::release);
+        batch.clear();
+        batchBytes = 0;
+    }
+}
@@ -0,0 +1,51 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Byte range of a file sent as part of a transfer made of several files or several ranges of one file.
+ */
+@AllArgsConstructor
+@Getter
+public class FileSlice {
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final long offset;
+    private final long length;
+
+    /**
+     * @return hex SHA-256 of the content of the slices one after another
+     */
+    public static String checksum(List<FileSlice> slices) throws IOException {
+        MessageDigest digest = ChunkRef.newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+        for (FileSlice slice : slices) {
+            try (FileChannel channel = FileChannel.open(slice.path, StandardOpenOption.READ)) {
+                long position = slice.offset;
+                long end = slice.offset + slice.length;
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    int read = channel.read(buffer, position);
+                    if (read < 0) {
+                        throw new IOException("File is shorter than expected: " + slice.path);
+                    }
+                    buffer.flip();
+                    digest.update(buffer);
+                    position += read;
+                }
+            }
+        }
+        return ChunkRef.toHex(digest.digest());
+    }
+}
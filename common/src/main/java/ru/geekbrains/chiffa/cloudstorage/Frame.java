@@ -0,0 +1,13 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Anything that travels between client and server as a protocol frame.
+ * Implementations write only their payload, the frame header is added by {@link FrameCodec}.
+ */
+public interface Frame {
+    Opcode getOpcode();
+
+    void writeTo(ByteBuf buf);
+}
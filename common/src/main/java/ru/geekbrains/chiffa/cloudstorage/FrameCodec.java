@@ -0,0 +1,75 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+/**
+ * Binary frame format of the protocol:
+ * <pre>
+ * +---------+---------+--------+-----------------------+
+ * | length  | version | opcode | payload               |
+ * | int32   | int8    | int8   | (length - 2) bytes    |
+ * +---------+---------+--------+-----------------------+
+ * </pre>
+ * The length covers everything after itself. File content travels in {@link DataFrame}s
+ * whose payload is the transfer id followed by the content bytes.
+ */
+public final class FrameCodec {
+    public static final byte VERSION = 2;
+    public static final int LENGTH_FIELD_SIZE = 4;
+    public static final int HEADER_SIZE = 2;
+    public static final int DATA_HEADER_SIZE = LENGTH_FIELD_SIZE + HEADER_SIZE + 4;
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private FrameCodec() {
+    }
+
+    public static void encode(Frame frame, ByteBuf out) {
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0);
+        out.writeByte(VERSION);
+        out.writeByte(frame.getOpcode().getCode());
+        frame.writeTo(out);
+        out.setInt(lengthIndex, out.writerIndex() - lengthIndex - LENGTH_FIELD_SIZE);
+    }
+
+    /**
+     * Writes everything of a data frame except its content.
+     */
+    public static void encodeDataHeader(int transferId, int contentLength, ByteBuf out) {
+        out.writeInt(DATA_HEADER_SIZE - LENGTH_FIELD_SIZE + contentLength);
+        out.writeByte(VERSION);
+        out.writeByte(Opcode.DATA.getCode());
+        out.writeInt(transferId);
+    }
+
+    /**
+     * Decodes a frame without its length field.
+     */
+    public static Frame decode(ByteBuf frame) {
+        byte version = frame.readByte();
+        if (version != VERSION) {
+            throw new CorruptedFrameException("Unsupported protocol version " + version);
+        }
+        byte code = frame.readByte();
+        Opcode opcode = Opcode.of(code);
+        if (opcode == null) {
+            throw new CorruptedFrameException("Unknown opcode " + code);
+        }
+        try {
+            return opcode.read(frame);
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new CorruptedFrameException("Malformed " + opcode + " frame", e);
+        }
+    }
+
+    public static void checkLength(int length, int maxFrameLength) {
+        if (length < HEADER_SIZE) {
+            throw new CorruptedFrameException("Frame length " + length + " is too small");
+        }
+        if (length > maxFrameLength) {
+            throw new TooLongFrameException("Frame length " + length + " exceeds " + maxFrameLength);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.util.List;
+
+/**
+ * Decodes protocol frames. Content of {@link DataFrame}s is a slice of the inbound buffer
+ * and must be released by the receiver.
+ */
+public class FrameDecoder extends ByteToMessageDecoder {
+    private final int maxFrameLength;
+
+    public FrameDecoder() {
+        this(FrameCodec.DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    public FrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (in.readableBytes() < FrameCodec.LENGTH_FIELD_SIZE) {
+            return;
+        }
+        int length = in.getInt(in.readerIndex());
+        FrameCodec.checkLength(length, maxFrameLength);
+        if (in.readableBytes() < FrameCodec.LENGTH_FIELD_SIZE + length) {
+            return;
+        }
+        in.skipBytes(FrameCodec.LENGTH_FIELD_SIZE);
+        out.add(FrameCodec.decode(in.readSlice(length)));
+    }
+}
@@ -0,0 +1,44 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Encodes {@link Frame}s. Content of a {@link DataFrame} is never copied: a buffer is wrapped together
+ * with the frame header and a file region is written right after it.
+ */
+public class FrameEncoder extends ChannelHandlerAdapter {
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (msg instanceof DataFrame) {
+            writeDataFrame(ctx, (DataFrame) msg, promise);
+        } else if (msg instanceof Frame) {
+            ByteBuf buf = ctx.alloc().ioBuffer();
+            try {
+                FrameCodec.encode((Frame) msg, buf);
+            } catch (RuntimeException e) {
+                buf.release();
+                promise.setFailure(e);
+                return;
+            }
+            ctx.write(buf, promise);
+        } else {
+            ctx.write(msg, promise);
+        }
+    }
+
+    private void writeDataFrame(ChannelHandlerContext ctx, DataFrame frame, ChannelPromise promise) {
+        ByteBuf header = ctx.alloc().ioBuffer(FrameCodec.DATA_HEADER_SIZE);
+        FrameCodec.encodeDataHeader(frame.getTransferId(), frame.contentLength(), header);
+        if (frame.getContent() instanceof ByteBuf) {
+            ctx.write(Unpooled.wrappedBuffer(header, (ByteBuf) frame.getContent()), promise);
+        } else {
+            ctx.write(header);
+            ctx.write(frame.getContent(), promise);
+        }
+    }
+}
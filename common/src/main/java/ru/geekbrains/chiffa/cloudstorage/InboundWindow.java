@@ -0,0 +1,29 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * Receiver side of the flow control window of a transfer. Consumed bytes are acknowledged
+ * with a {@link WindowUpdate} once a quarter of the initial window has been consumed.
+ */
+public class InboundWindow {
+    private static final int UPDATE_THRESHOLD = OutboundTransfers.INITIAL_WINDOW_SIZE / 4;
+
+    private final int transferId;
+    private int consumedBytes;
+
+    public InboundWindow(int transferId) {
+        this.transferId = transferId;
+    }
+
+    /**
+     * @return update which should be sent to the sender, or null if it's too early
+     */
+    public WindowUpdate consume(int bytes) {
+        consumedBytes += bytes;
+        if (consumedBytes < UPDATE_THRESHOLD) {
+            return null;
+        }
+        WindowUpdate update = new WindowUpdate(transferId, consumedBytes);
+        consumedBytes = 0;
+        return update;
+    }
+}
@@ -1,6 +1,7 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
 
+import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 
 import java.util.UUID;
@@ -14,4 +15,24 @@ public class ListFilesRequest implements Request {
     public ListFilesRequest(String username) {
         this.username = username;
     }
+
+    private ListFilesRequest(UUID id, String username) {
+        this(username);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.LIST_FILES_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+    }
+
+    public static ListFilesRequest readFrom(ByteBuf buf) {
+        return new ListFilesRequest(WireFormat.readUuid(buf), WireFormat.readString(buf));
+    }
 }
@@ -1,5 +1,6 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
+import io.netty.buffer.ByteBuf;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
@@ -13,4 +14,18 @@ public class ListFilesResponse implements Response {
     @Getter
     private final List<String> files;
 
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.LIST_FILES_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeStringList(buf, files);
+    }
+
+    public static ListFilesResponse readFrom(ByteBuf buf) {
+        return new ListFilesResponse(WireFormat.readUuid(buf), WireFormat.readStringList(buf));
+    }
 }
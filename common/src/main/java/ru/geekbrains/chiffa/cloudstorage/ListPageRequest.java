@@ -0,0 +1,69 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Asks for the next page of the user's files whose names start with {@code prefix}, sorted on the server.
+ * The first page is asked with an empty cursor, the following ones with the cursor of the previous
+ * {@link ListPageResponse} and the same prefix and order.
+ */
+public class ListPageRequest implements Request {
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private String prefix;
+    @Getter
+    private ListingOrder order;
+    @Getter
+    private boolean descending;
+    @Getter
+    private String cursor;
+    @Getter
+    private int pageSize;
+
+    public ListPageRequest(String username, String prefix, ListingOrder order, boolean descending, String cursor,
+                           int pageSize) {
+        this.username = username;
+        this.prefix = prefix;
+        this.order = order;
+        this.descending = descending;
+        this.cursor = cursor;
+        this.pageSize = pageSize;
+    }
+
+    private ListPageRequest(UUID id, String username, String prefix, ListingOrder order, boolean descending,
+                            String cursor, int pageSize) {
+        this(username, prefix, order, descending, cursor, pageSize);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.LIST_PAGE_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, prefix);
+        buf.writeByte(order.ordinal());
+        buf.writeBoolean(descending);
+        WireFormat.writeString(buf, cursor);
+        buf.writeInt(pageSize);
+    }
+
+    public static ListPageRequest readFrom(ByteBuf buf) {
+        return new ListPageRequest(
+                WireFormat.readUuid(buf), WireFormat.readString(buf), WireFormat.readString(buf),
+                ListingOrder.valueOf(buf.readByte()), buf.readBoolean(), WireFormat.readString(buf),
+                buf.readInt());
+    }
+}
@@ -0,0 +1,42 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Page of a file listing. The cursor continues the listing after the last entry, it is empty
+ * on the last page.
+ */
+@AllArgsConstructor
+public class ListPageResponse implements Response {
+    @Getter
+    private final UUID id;
+    @Getter
+    private final List<FileEntry> entries;
+    @Getter
+    private final String cursor;
+
+    public boolean isLast() {
+        return cursor.isEmpty();
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.LIST_PAGE_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        FileEntry.writeList(buf, entries);
+        WireFormat.writeString(buf, cursor);
+    }
+
+    public static ListPageResponse readFrom(ByteBuf buf) {
+        return new ListPageResponse(WireFormat.readUuid(buf), FileEntry.readList(buf), WireFormat.readString(buf));
+    }
+}
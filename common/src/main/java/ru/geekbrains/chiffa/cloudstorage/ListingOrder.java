@@ -0,0 +1,43 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.Comparator;
+
+/**
+ * Sort key of a file listing. Entries with equal keys are ordered by name, so that the order is total
+ * and a page can continue right after the last entry of the previous one.
+ */
+public enum ListingOrder {
+    NAME {
+        @Override
+        public long key(FileEntry entry) {
+            return 0;
+        }
+    },
+    SIZE {
+        @Override
+        public long key(FileEntry entry) {
+            return entry.getSize();
+        }
+    },
+    MODIFIED {
+        @Override
+        public long key(FileEntry entry) {
+            return entry.getLastModified();
+        }
+    };
+
+    public abstract long key(FileEntry entry);
+
+    public Comparator<FileEntry> comparator(boolean descending) {
+        Comparator<FileEntry> comparator = Comparator.<FileEntry>comparingLong(this::key)
+                .thenComparing(FileEntry::getName);
+        return descending ? comparator.reversed() : comparator;
+    }
+
+    public static ListingOrder valueOf(int ordinal) {
+        if (ordinal < 0 || ordinal >= values().length) {
+            throw new IllegalArgumentException("Invalid listing order " + ordinal);
+        }
+        return values()[ordinal];
+    }
+}
@@ -0,0 +1,10 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.UUID;
+
+/**
+ * Request or response frame. A response carries the id of the request it answers.
+ */
+public interface Message extends Frame {
+    UUID getId();
+}
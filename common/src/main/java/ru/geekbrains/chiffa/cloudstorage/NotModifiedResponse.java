@@ -0,0 +1,37 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Answers a {@link DownloadRequest} whose known checksum is the checksum of the stored file: the copy
+ * of the client is up to date and nothing is sent.
+ */
+@AllArgsConstructor
+public class NotModifiedResponse implements Response {
+    @Getter
+    private final UUID id;
+    @Getter
+    private final String filename;
+    @Getter
+    private final long fileSize;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.NOT_MODIFIED_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, filename);
+        buf.writeLong(fileSize);
+    }
+
+    public static NotModifiedResponse readFrom(ByteBuf buf) {
+        return new NotModifiedResponse(WireFormat.readUuid(buf), WireFormat.readString(buf), buf.readLong());
+    }
+}
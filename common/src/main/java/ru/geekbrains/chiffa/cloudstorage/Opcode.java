@@ -0,0 +1,81 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.function.Function;
+
+/**
+ * One byte type tag of a protocol frame. Codes must never be reused for another frame type.
+ */
+public enum Opcode {
+    LIST_FILES_REQUEST(1, ListFilesRequest::readFrom),
+    UPLOAD_REQUEST(2, UploadRequest::readFrom),
+    DOWNLOAD_REQUEST(3, DownloadRequest::readFrom),
+    RENAME_REQUEST(4, RenameRequest::readFrom),
+    DELETE_REQUEST(5, DeleteRequest::readFrom),
+    PING_REQUEST(6, PingRequest::readFrom),
+    UPLOAD_STATUS_REQUEST(7, UploadStatusRequest::readFrom),
+    SEGMENTED_UPLOAD_REQUEST(8, SegmentedUploadRequest::readFrom),
+    UPLOAD_SEGMENT_REQUEST(9, UploadSegmentRequest::readFrom),
+    COMMIT_UPLOAD_REQUEST(10, CommitUploadRequest::readFrom),
+    CHUNK_QUERY_REQUEST(11, ChunkQueryRequest::readFrom),
+    CHUNK_UPLOAD_REQUEST(12, ChunkUploadRequest::readFrom),
+    COMMIT_MANIFEST_REQUEST(13, CommitManifestRequest::readFrom),
+    SIGNATURE_REQUEST(14, SignatureRequest::readFrom),
+    DELTA_UPLOAD_REQUEST(15, DeltaUploadRequest::readFrom),
+    CHANGES_REQUEST(16, ChangesRequest::readFrom),
+    LIST_PAGE_REQUEST(17, ListPageRequest::readFrom),
+    BATCH_REQUEST(18, BatchRequest::readFrom),
+    BATCH_DOWNLOAD_REQUEST(19, BatchDownloadRequest::readFrom),
+    BATCH_UPLOAD_REQUEST(20, BatchUploadRequest::readFrom),
+    SYNC_MANIFEST_REQUEST(21, SyncManifestRequest::readFrom),
+
+    DATA(32, DataFrame::readFrom),
+    WINDOW_UPDATE(33, WindowUpdate::readFrom),
+    CANCEL_TRANSFER(34, CancelTransfer::readFrom),
+
+    LIST_FILES_RESPONSE(64, ListFilesResponse::readFrom),
+    DOWNLOAD_RESPONSE(65, DownloadResponse::readFrom),
+    ERROR_RESPONSE(66, ErrorResponse::readFrom),
+    PONG_RESPONSE(67, PongResponse::readFrom),
+    UPLOAD_STATUS_RESPONSE(68, UploadStatusResponse::readFrom),
+    SEGMENTED_UPLOAD_RESPONSE(69, SegmentedUploadResponse::readFrom),
+    CHUNKS_RESPONSE(70, ChunksResponse::readFrom),
+    SIGNATURE_RESPONSE(71, SignatureResponse::readFrom),
+    CHANGES_RESPONSE(72, ChangesResponse::readFrom),
+    LIST_PAGE_RESPONSE(73, ListPageResponse::readFrom),
+    BATCH_RESPONSE(74, BatchResponse::readFrom),
+    BATCH_DOWNLOAD_RESPONSE(75, BatchDownloadResponse::readFrom),
+    SYNC_MANIFEST_RESPONSE(76, SyncManifestResponse::readFrom),
+    NOT_MODIFIED_RESPONSE(77, NotModifiedResponse::readFrom),
+
+    CHANGE_NOTIFICATION(96, ChangeNotification::readFrom);
+
+    private static final Opcode[] BY_CODE = new Opcode[256];
+
+    static {
+        for (Opcode opcode : values()) {
+            BY_CODE[opcode.code & 0xFF] = opcode;
+        }
+    }
+
+    private final byte code;
+    private final Function<ByteBuf, ? extends Frame> reader;
+
+    Opcode(int code, Function<ByteBuf, ? extends Frame> reader) {
+        this.code = (byte) code;
+        this.reader = reader;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public Frame read(ByteBuf payload) {
+        return reader.apply(payload);
+    }
+
+    public static Opcode of(byte code) {
+        return BY_CODE[code & 0xFF];
+    }
+}
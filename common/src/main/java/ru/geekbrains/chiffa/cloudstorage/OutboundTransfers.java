@@ -0,0 +1,502 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends file content of all outgoing transfers of one connection as {@link DataFrame}s.
+ * Transfers are served round robin one chunk at a time while the channel is writable, and each
+ * of them sends no more than its window allows; the receiver opens the window with {@link WindowUpdate}s.
+ * Transfers are grouped by owner, the groups take turns as weighted by the {@link TransferThrottle},
+ * and a group waits while the throttle holds its owner back.
+ * <p>
+ * Given a reader executor, files are opened and read on it rather than on the event loop: every file transfer
+ * has its next chunk read ahead there and is skipped by the round robin until the chunk is ready.
+ * <p>
+ * Not thread safe, all methods must be called from the event loop of the channel.
+ */
+public class OutboundTransfers {
+    public static final int INITIAL_WINDOW_SIZE = 4 * 1024 * 1024;
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Channel channel;
+    private final boolean zeroCopy;
+    private final TransferThrottle throttle;
+    //opens and reads files, null to do it on the event loop
+    private final Executor reader;
+    private final Map<Integer, Transfer> transfers = new HashMap<>();
+    private final Map<String, Group> groups = new HashMap<>();
+    private final Deque<Group> queue = new ArrayDeque<>();
+    private boolean flushScheduled;
+
+    public OutboundTransfers(Channel channel, boolean zeroCopy) {
+        this(channel, zeroCopy, TransferThrottle.NONE);
+    }
+
+    public OutboundTransfers(Channel channel, boolean zeroCopy, TransferThrottle throttle) {
+        this(channel, zeroCopy, throttle, null);
+    }
+
+    public OutboundTransfers(Channel channel, boolean zeroCopy, TransferThrottle throttle, Executor reader) {
+        this.channel = channel;
+        this.zeroCopy = zeroCopy;
+        this.throttle = throttle;
+        this.reader = reader;
+    }
+
+    /**
+     * Starts sending {@code length} bytes of the file beginning at {@code offset}. The file is closed
+     * when the transfer is over.
+     *
+     * @return future completed when the last chunk has been written to the socket
+     */
+    public CompletableFuture<Void> send(int transferId, FileChannel file, long offset, long length) {
+        return send(transferId, "", file, offset, length);
+    }
+
+    public CompletableFuture<Void> send(int transferId, String owner, FileChannel file, long offset, long length) {
+        Transfer transfer = new Transfer(transferId, owner, new ArrayDeque<>(), length);
+        transfer.file = file;
+        transfer.filePosition = offset;
+        transfer.fileRemaining = length;
+        return start(transfer);
+    }
+
+    /**
+     * Starts sending the slices one after another as a single transfer. Files of the slices are opened
+     * only when the transfer reaches them.
+     *
+     * @return future completed when the last chunk has been written to the socket
+     */
+    public CompletableFuture<Void> send(int transferId, List<FileSlice> slices) {
+        return send(transferId, "", slices);
+    }
+
+    public CompletableFuture<Void> send(int transferId, String owner, List<FileSlice> slices) {
+        long length = 0;
+        for (FileSlice slice : slices) {
+            length += slice.getLength();
+        }
+        return start(new Transfer(transferId, owner, new ArrayDeque<>(slices), length));
+    }
+
+    /**
+     * Starts sending the readable bytes of the buffer, which is released when the transfer is over.
+     * Frames carry slices of the buffer, its content isn't copied.
+     *
+     * @return future completed when the last chunk has been written to the socket
+     */
+    public CompletableFuture<Void> send(int transferId, ByteBuf buffer) {
+        return send(transferId, "", buffer);
+    }
+
+    public CompletableFuture<Void> send(int transferId, String owner, ByteBuf buffer) {
+        Transfer transfer = new Transfer(transferId, owner, new ArrayDeque<>(), buffer.readableBytes());
+        transfer.buffer = buffer;
+        return start(transfer);
+    }
+
+    private CompletableFuture<Void> start(Transfer transfer) {
+        if (transfer.length == 0) {
+            transfer.finish(null);
+        } else {
+            transfers.put(transfer.transferId, transfer);
+            Group group = groups.get(transfer.owner);
+            if (group == null) {
+                group = new Group(transfer.owner, Math.max(1, throttle.weight(transfer.owner)));
+                groups.put(group.owner, group);
+                queue.add(group);
+            }
+            group.transfers.add(transfer);
+            flush();
+        }
+        return transfer.future;
+    }
+
+    public void windowUpdate(WindowUpdate update) {
+        Transfer transfer = transfers.get(update.getTransferId());
+        if (transfer != null) {
+            transfer.window += update.getIncrement();
+            flush();
+        }
+    }
+
+    public void cancel(int transferId, Throwable cause) {
+        Transfer transfer = transfers.remove(transferId);
+        if (transfer != null) {
+            Group group = groups.get(transfer.owner);
+            group.transfers.remove(transfer);
+            if (group.transfers.isEmpty()) {
+                groups.remove(group.owner);
+                queue.remove(group);
+            }
+            transfer.finish(cause);
+        }
+    }
+
+    public void cancelAll(Throwable cause) {
+        for (Integer transferId : new ArrayList<>(transfers.keySet())) {
+            cancel(transferId, cause);
+        }
+    }
+
+    public int size() {
+        return transfers.size();
+    }
+
+    /**
+     * Writes chunks while the channel is writable. Must be called again when the channel becomes writable,
+     * groups held back by the throttle are flushed again when their delay is over.
+     */
+    public void flush() {
+        boolean written = false;
+        boolean progress = true;
+        long delayNanos = Long.MAX_VALUE;
+        while (progress && channel.isWritable() && !queue.isEmpty()) {
+            progress = false;
+            for (int i = queue.size(); i > 0 && channel.isWritable(); i--) {
+                Group group = queue.poll();
+                long groupDelayNanos = throttle.delayNanos(group.owner);
+                for (int chunks = group.weight; chunks > 0 && groupDelayNanos == 0 && channel.isWritable(); chunks--) {
+                    Transfer transfer = nextReady(group);
+                    if (transfer == null) {
+                        break;
+                    }
+                    throttle.sent(group.owner, writeChunk(transfer));
+                    progress = true;
+                    written = true;
+                    if (transfer.sentBytes < transfer.length && transfers.containsKey(transfer.transferId)) {
+                        group.transfers.add(transfer);
+                    }
+                    groupDelayNanos = throttle.delayNanos(group.owner);
+                }
+                if (groupDelayNanos > 0) {
+                    delayNanos = Math.min(delayNanos, groupDelayNanos);
+                }
+                if (group.transfers.isEmpty()) {
+                    groups.remove(group.owner);
+                } else {
+                    queue.add(group);
+                }
+            }
+        }
+        if (written) {
+            channel.flush();
+        }
+        if (delayNanos != Long.MAX_VALUE && !flushScheduled) {
+            flushScheduled = true;
+            channel.eventLoop().schedule(() -> {
+                flushScheduled = false;
+                flush();
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * @return next transfer of the group with an open window and its chunk at hand, taken out of the group,
+     * or null if all of them wait. Transfers whose chunk has to be read start reading it.
+     */
+    private Transfer nextReady(Group group) {
+        for (int i = group.transfers.size(); i > 0; i--) {
+            Transfer transfer = group.transfers.poll();
+            if (transfer.window > 0 && !transfer.reading) {
+                if (transfer.ready != null || !needsReading(transfer)) {
+                    return transfer;
+                }
+                readAhead(transfer);
+            }
+            if (transfers.get(transfer.transferId) == transfer) {
+                group.transfers.add(transfer);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the next chunk of the transfer is to be read by the reader
+     */
+    private boolean needsReading(Transfer transfer) {
+        if (reader == null || transfer.buffer != null) {
+            return false;
+        }
+        return !zeroCopy || transfer.fileRemaining == 0
+                || (transfer.fileRemaining < Math.min(CHUNK_SIZE, transfer.window) && !transfer.slices.isEmpty());
+    }
+
+    /**
+     * Reads the next chunk of the transfer on the reader, the transfer goes on when it is back
+     * on the event loop.
+     */
+    private void readAhead(Transfer transfer) {
+        int maxChunkSize = (int) Math.min(CHUNK_SIZE, transfer.window);
+        transfer.reading = true;
+        try {
+            reader.execute(() -> {
+                DataFrame frame = null;
+                IOException failure = null;
+                try {
+                    frame = nextChunk(transfer, maxChunkSize);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                DataFrame read = frame;
+                IOException readFailure = failure;
+                channel.eventLoop().execute(() -> chunkRead(transfer, read, readFailure));
+            });
+        } catch (RejectedExecutionException e) {
+            transfer.reading = false;
+            cancel(transfer.transferId, new IOException("Server is busy, try again later.", e));
+        }
+    }
+
+    private void chunkRead(Transfer transfer, DataFrame frame, IOException failure) {
+        transfer.reading = false;
+        if (transfers.get(transfer.transferId) != transfer) {
+            // cancelled while reading, its file was left open for the reader
+            if (frame != null) {
+                frame.release();
+            }
+            transfer.finish(null);
+            return;
+        }
+        if (failure != null) {
+            cancel(transfer.transferId, failure);
+            return;
+        }
+        transfer.ready = frame;
+        flush();
+    }
+
+    /**
+     * Opens and reads what the next chunk of a file transfer needs, moving on through its file and slices.
+     */
+    private DataFrame nextChunk(Transfer transfer, int maxChunkSize) throws IOException {
+        while (transfer.fileRemaining == 0) {
+            transfer.openNextSlice();
+        }
+        if (transfer.fileRemaining < maxChunkSize && !transfer.slices.isEmpty()) {
+            int chunkSize = (int) Math.min(maxChunkSize, transfer.length - transfer.sentBytes);
+            return new DataFrame(transfer.transferId, gatherChunk(transfer, chunkSize));
+        }
+        int chunkSize = (int) Math.min(maxChunkSize, transfer.fileRemaining);
+        long position = transfer.filePosition;
+        DataFrame frame = zeroCopy
+                ? new DataFrame(transfer.transferId, new FileChunkRegion(transfer.file, position, chunkSize))
+                : new DataFrame(transfer.transferId, readChunk(transfer.file, position, chunkSize));
+        transfer.filePosition += chunkSize;
+        transfer.fileRemaining -= chunkSize;
+        return frame;
+    }
+
+    /**
+     * @return size of the chunk, 0 if the transfer failed
+     */
+    private int writeChunk(Transfer transfer) {
+        if (transfer.buffer != null) {
+            return writeBufferChunk(transfer);
+        }
+        DataFrame frame = transfer.ready;
+        transfer.ready = null;
+        if (frame == null) {
+            try {
+                frame = nextChunk(transfer, (int) Math.min(CHUNK_SIZE, transfer.window));
+            } catch (IOException e) {
+                cancel(transfer.transferId, e);
+                return 0;
+            }
+        }
+        int chunkSize = frame.contentLength();
+        transfer.sentBytes += chunkSize;
+        transfer.window -= chunkSize;
+
+        ChannelFuture future = channel.write(frame);
+        transfer.lastWrite = future;
+        if (transfer.sentBytes == transfer.length) {
+            transfers.remove(transfer.transferId);
+            future.addListener(f -> transfer.finish(f.cause()));
+        } else if (transfer.fileRemaining == 0) {
+            // the last region of the slice is still to be written by the channel
+            FileChannel file = transfer.file;
+            transfer.file = null;
+            future.addListener(f -> file.close());
+        }
+        return chunkSize;
+    }
+
+    private int writeBufferChunk(Transfer transfer) {
+        int chunkSize = (int) Math.min(Math.min(CHUNK_SIZE, transfer.window), transfer.length - transfer.sentBytes);
+        ByteBuf buffer = transfer.buffer;
+        ByteBuf chunk = buffer.slice(buffer.readerIndex() + (int) transfer.sentBytes, chunkSize).retain();
+        transfer.sentBytes += chunkSize;
+        transfer.window -= chunkSize;
+
+        ChannelFuture future = channel.write(new DataFrame(transfer.transferId, chunk));
+        if (transfer.sentBytes == transfer.length) {
+            transfers.remove(transfer.transferId);
+            future.addListener(f -> transfer.finish(f.cause()));
+        }
+        return chunkSize;
+    }
+
+    private ByteBuf readChunk(FileChannel file, long position, int chunkSize) throws IOException {
+        ByteBuf buf = channel.alloc().ioBuffer(chunkSize);
+        try {
+            read(file, position, buf, chunkSize);
+            return buf;
+        } catch (IOException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the rest of the current slice and the following slices into one chunk, so that many small files
+     * don't go as many tiny frames.
+     */
+    private ByteBuf gatherChunk(Transfer transfer, int chunkSize) throws IOException {
+        ByteBuf buf = channel.alloc().ioBuffer(chunkSize);
+        try {
+            while (buf.writerIndex() < chunkSize) {
+                while (transfer.fileRemaining == 0) {
+                    transfer.openNextSlice();
+                }
+                int length = (int) Math.min(chunkSize - buf.writerIndex(), transfer.fileRemaining);
+                read(transfer.file, transfer.filePosition, buf, length);
+                transfer.filePosition += length;
+                transfer.fileRemaining -= length;
+            }
+            return buf;
+        } catch (IOException e) {
+            buf.release();
+            throw e;
+        }
+    }
+
+    private static void read(FileChannel file, long position, ByteBuf buf, int length) throws IOException {
+        ByteBuffer target = buf.nioBuffer(buf.writerIndex(), length);
+        while (target.hasRemaining()) {
+            if (file.read(target, position + target.position()) < 0) {
+                throw new EOFException("File is shorter than announced");
+            }
+        }
+        buf.writerIndex(buf.writerIndex() + length);
+    }
+
+    private static class Group {
+        private final String owner;
+        private final int weight;
+        private final Deque<Transfer> transfers = new ArrayDeque<>();
+
+        private Group(String owner, int weight) {
+            this.owner = owner;
+            this.weight = weight;
+        }
+    }
+
+    private static class Transfer {
+        private final int transferId;
+        private final String owner;
+        private final Deque<FileSlice> slices;
+        private final long length;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private long sentBytes;
+        private long window = INITIAL_WINDOW_SIZE;
+        //content of an in-memory transfer
+        private ByteBuf buffer;
+        //file being sent and what is left of its slice
+        private FileChannel file;
+        private long filePosition;
+        private long fileRemaining;
+        //last frame given to the channel, regions of the file may still wait in its outbound buffer
+        private ChannelFuture lastWrite;
+        //next chunk is being read by the reader, which owns the file and slices meanwhile
+        private boolean reading;
+        //frame read ahead by the reader
+        private DataFrame ready;
+
+        private Transfer(int transferId, String owner, Deque<FileSlice> slices, long length) {
+            this.transferId = transferId;
+            this.owner = owner;
+            this.slices = slices;
+            this.length = length;
+        }
+
+        private void openNextSlice() throws IOException {
+            if (file != null) {
+                // an empty slice or one whose rest has been gathered into a chunk
+                closeFile();
+            }
+            FileSlice slice = slices.poll();
+            if (slice == null) {
+                throw new EOFException("Slices are shorter than announced");
+            }
+            file = FileChannel.open(slice.getPath(), StandardOpenOption.READ);
+            filePosition = slice.getOffset();
+            fileRemaining = slice.getLength();
+        }
+
+        /**
+         * Closes the file once the channel has written the frames given to it so far.
+         */
+        private void closeFile() throws IOException {
+            FileChannel written = file;
+            file = null;
+            if (lastWrite == null) {
+                written.close();
+            } else {
+                lastWrite.addListener(f -> written.close());
+            }
+        }
+
+        private void finish(Throwable cause) {
+            if (buffer != null) {
+                buffer.release();
+                buffer = null;
+            }
+            if (ready != null) {
+                ready.release();
+                ready = null;
+            }
+            if (reading) {
+                // the reader still uses the file, it is closed when the read is back
+                complete(cause);
+                return;
+            }
+            try {
+                if (file != null) {
+                    file.close();
+                }
+            } catch (IOException e) {
+                if (cause == null) {
+                    cause = e;
+                }
+            }
+            complete(cause);
+        }
+
+        private void complete(Throwable cause) {
+            if (cause == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(cause);
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Keepalive sent by the client when a connection has been idle. The server answers with {@link PongResponse}.
+ */
+public class PingRequest implements Request {
+    @Getter
+    private final UUID id;
+
+    public PingRequest() {
+        this(UUID.randomUUID());
+    }
+
+    private PingRequest(UUID id) {
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.PING_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+    }
+
+    public static PingRequest readFrom(ByteBuf buf) {
+        return new PingRequest(WireFormat.readUuid(buf));
+    }
+}
@@ -0,0 +1,27 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+@AllArgsConstructor
+public class PongResponse implements Response {
+    @Getter
+    private final UUID id;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.PONG_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+    }
+
+    public static PongResponse readFrom(ByteBuf buf) {
+        return new PongResponse(WireFormat.readUuid(buf));
+    }
+}
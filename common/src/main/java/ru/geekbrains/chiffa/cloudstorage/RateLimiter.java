@@ -0,0 +1,73 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting a byte rate. Bytes are taken after they have been sent or received, even if the
+ * bucket can't cover them, and the next ones have to wait until the debt is paid off.
+ * <p>
+ * Thread safe.
+ */
+public class RateLimiter {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long bytesPerSecond;
+    private final long capacity;
+    private long tokens;
+    private long refillNanos = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond rate, 0 for no limit
+     * @param capacity       bytes which may be taken at once after an idle period
+     */
+    public RateLimiter(long bytesPerSecond, long capacity) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+    }
+
+    public boolean isUnlimited() {
+        return bytesPerSecond <= 0;
+    }
+
+    /**
+     * @return nanoseconds until the debt is paid off, 0 if more bytes may be taken now
+     */
+    public long delayNanos() {
+        return delayNanos(0);
+    }
+
+    /**
+     * @return nanoseconds until the debt is down to {@code allowedDebt} bytes, 0 if it is already
+     */
+    public long delayNanos(long allowedDebt) {
+        if (isUnlimited()) {
+            return 0;
+        }
+        synchronized (this) {
+            refill();
+            long debt = -tokens - allowedDebt;
+            return debt <= 0 ? 0 : (debt * NANOS_PER_SECOND + bytesPerSecond - 1) / bytesPerSecond;
+        }
+    }
+
+    public void take(long bytes) {
+        if (isUnlimited()) {
+            return;
+        }
+        synchronized (this) {
+            refill();
+            tokens -= bytes;
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        long added = (long) ((double) (now - refillNanos) * bytesPerSecond / NANOS_PER_SECOND);
+        // without a whole byte the time is kept, so that frequent calls still refill the bucket
+        if (added > 0) {
+            tokens = Math.min(capacity, tokens + added);
+            refillNanos = now;
+        }
+    }
+}
@@ -1,12 +1,13 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
+import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 
 import java.util.UUID;
 
 public class RenameRequest implements Request {
     @Getter
-    private final UUID id = UUID.randomUUID();
+    private final UUID id;
     @Getter
     private final String username;
     @Getter
@@ -15,8 +16,34 @@ public class RenameRequest implements Request {
     private final String newFileName;
 
     public RenameRequest(String username, String fileName, String newFileName) {
+        this(UUID.randomUUID(), username, fileName, newFileName);
+    }
+
+    private RenameRequest(UUID id, String username, String fileName, String newFileName) {
+        this.id = id;
         this.username = username;
         this.filename = fileName;
         this.newFileName = newFileName;
     }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.RENAME_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, filename);
+        WireFormat.writeString(buf, newFileName);
+    }
+
+    public static RenameRequest readFrom(ByteBuf buf) {
+        return new RenameRequest(
+                WireFormat.readUuid(buf),
+                WireFormat.readString(buf),
+                WireFormat.readString(buf),
+                WireFormat.readString(buf));
+    }
 }
@@ -1,6 +1,4 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
-import java.io.Serializable;
-
-public interface Request extends Serializable {
+public interface Request extends Message {
 }
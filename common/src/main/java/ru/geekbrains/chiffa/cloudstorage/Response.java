@@ -1,6 +1,4 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
-import java.io.Serializable;
-
-public interface Response extends Serializable {
+public interface Response extends Message {
 }
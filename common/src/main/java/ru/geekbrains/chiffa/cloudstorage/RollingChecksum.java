@@ -0,0 +1,39 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * rsync weak checksum of a window of bytes that can be moved by one byte in constant time.
+ */
+public class RollingChecksum {
+    private int a;
+    private int b;
+    private int length;
+
+    public RollingChecksum reset(byte[] data, int offset, int length) {
+        a = 0;
+        b = 0;
+        this.length = length;
+        for (int i = 0; i < length; i++) {
+            int value = data[offset + i] & 0xFF;
+            a += value;
+            b += (length - i) * value;
+        }
+        return this;
+    }
+
+    /**
+     * Moves the window by one byte: {@code out} leaves it at the start, {@code in} enters it at the end.
+     */
+    public void roll(byte out, byte in) {
+        int outValue = out & 0xFF;
+        a += (in & 0xFF) - outValue;
+        b += a - length * outValue;
+    }
+
+    public int getValue() {
+        return (b << 16) | (a & 0xFFFF);
+    }
+
+    public static int of(byte[] data, int offset, int length) {
+        return new RollingChecksum().reset(data, offset, length).getValue();
+    }
+}
@@ -0,0 +1,64 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Opens an upload whose segments may be sent concurrently over several connections with
+ * {@link UploadSegmentRequest}s. The id of this request identifies the upload until it is committed
+ * with {@link CommitUploadRequest}.
+ */
+public class SegmentedUploadRequest implements Request {
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private String filename;
+    @Getter
+    private long fileSize;
+    /**
+     * Checksum of the whole file as the client has it, empty if it isn't known. The upload is committed
+     * only if the received content has the same checksum.
+     */
+    @Getter
+    private String checksum;
+
+    public SegmentedUploadRequest(String username, String filename, long fileSize) {
+        this(username, filename, fileSize, "");
+    }
+
+    public SegmentedUploadRequest(String username, String filename, long fileSize, String checksum) {
+        this.username = username;
+        this.filename = filename;
+        this.fileSize = fileSize;
+        this.checksum = checksum;
+    }
+
+    private SegmentedUploadRequest(UUID id, String username, String filename, long fileSize, String checksum) {
+        this(username, filename, fileSize, checksum);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.SEGMENTED_UPLOAD_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, filename);
+        buf.writeLong(fileSize);
+        WireFormat.writeString(buf, checksum);
+    }
+
+    public static SegmentedUploadRequest readFrom(ByteBuf buf) {
+        return new SegmentedUploadRequest(
+                WireFormat.readUuid(buf), WireFormat.readString(buf), WireFormat.readString(buf), buf.readLong(),
+                WireFormat.readString(buf));
+    }
+}
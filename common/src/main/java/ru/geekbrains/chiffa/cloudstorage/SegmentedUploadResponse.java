@@ -0,0 +1,33 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Acknowledges that a segmented upload has been opened or that one of its segments has been written.
+ */
+@AllArgsConstructor
+public class SegmentedUploadResponse implements Response {
+    @Getter
+    private final UUID id;
+    @Getter
+    private final UUID uploadId;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.SEGMENTED_UPLOAD_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeUuid(buf, uploadId);
+    }
+
+    public static SegmentedUploadResponse readFrom(ByteBuf buf) {
+        return new SegmentedUploadResponse(WireFormat.readUuid(buf), WireFormat.readUuid(buf));
+    }
+}
@@ -0,0 +1,44 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Asks for the block signatures of the stored version of a file, the answer is {@link SignatureResponse}.
+ */
+public class SignatureRequest implements Request {
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private String filename;
+
+    public SignatureRequest(String username, String filename) {
+        this.username = username;
+        this.filename = filename;
+    }
+
+    private SignatureRequest(UUID id, String username, String filename) {
+        this(username, filename);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.SIGNATURE_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, filename);
+    }
+
+    public static SignatureRequest readFrom(ByteBuf buf) {
+        return new SignatureRequest(WireFormat.readUuid(buf), WireFormat.readString(buf), WireFormat.readString(buf));
+    }
+}
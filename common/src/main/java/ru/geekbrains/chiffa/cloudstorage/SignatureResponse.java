@@ -0,0 +1,41 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+@AllArgsConstructor
+public class SignatureResponse implements Response {
+    @Getter
+    private final UUID id;
+    @Getter
+    private final long fileSize;
+    @Getter
+    private final int blockSize;
+    /**
+     * Signatures of consecutive blocks of the stored file, the last one may be shorter.
+     */
+    @Getter
+    private final List<BlockSignature> signatures;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.SIGNATURE_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        buf.writeLong(fileSize);
+        buf.writeInt(blockSize);
+        BlockSignature.writeList(buf, signatures);
+    }
+
+    public static SignatureResponse readFrom(ByteBuf buf) {
+        return new SignatureResponse(
+                WireFormat.readUuid(buf), buf.readLong(), buf.readInt(), BlockSignature.readList(buf));
+    }
+}
@@ -0,0 +1,51 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * File of a folder manifest compared by a sync: its name, size, last modification time in millis and
+ * the hex SHA-256 of its content.
+ */
+@AllArgsConstructor
+@Getter
+public class SyncEntry {
+    private final String name;
+    private final long size;
+    private final long lastModified;
+    private final String checksum;
+
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeString(buf, name);
+        buf.writeLong(size);
+        buf.writeLong(lastModified);
+        WireFormat.writeString(buf, checksum);
+    }
+
+    public static SyncEntry readFrom(ByteBuf buf) {
+        return new SyncEntry(WireFormat.readString(buf), buf.readLong(), buf.readLong(), WireFormat.readString(buf));
+    }
+
+    public static void writeList(ByteBuf buf, List<SyncEntry> entries) {
+        buf.writeInt(entries.size());
+        for (SyncEntry entry : entries) {
+            entry.writeTo(buf);
+        }
+    }
+
+    public static List<SyncEntry> readList(ByteBuf buf) {
+        int size = buf.readInt();
+        if (size < 0 || size > buf.readableBytes() / 24) {
+            throw new IllegalArgumentException("Invalid list size " + size);
+        }
+        List<SyncEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(readFrom(buf));
+        }
+        return entries;
+    }
+}
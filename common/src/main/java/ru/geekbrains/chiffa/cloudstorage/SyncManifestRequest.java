@@ -0,0 +1,58 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Asks for the next page of the manifest of the user's files whose names start with {@code prefix},
+ * sorted by name. The first page is asked with an empty cursor, the following ones with the cursor of
+ * the previous {@link SyncManifestResponse}.
+ */
+public class SyncManifestRequest implements Request {
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private String prefix;
+    @Getter
+    private String cursor;
+    @Getter
+    private int pageSize;
+
+    public SyncManifestRequest(String username, String prefix, String cursor, int pageSize) {
+        this.username = username;
+        this.prefix = prefix;
+        this.cursor = cursor;
+        this.pageSize = pageSize;
+    }
+
+    private SyncManifestRequest(UUID id, String username, String prefix, String cursor, int pageSize) {
+        this(username, prefix, cursor, pageSize);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.SYNC_MANIFEST_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, prefix);
+        WireFormat.writeString(buf, cursor);
+        buf.writeInt(pageSize);
+    }
+
+    public static SyncManifestRequest readFrom(ByteBuf buf) {
+        return new SyncManifestRequest(
+                WireFormat.readUuid(buf), WireFormat.readString(buf), WireFormat.readString(buf),
+                WireFormat.readString(buf), buf.readInt());
+    }
+}
@@ -0,0 +1,43 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Page of a folder manifest. The cursor continues the manifest after the last entry, it is empty
+ * on the last page.
+ */
+@AllArgsConstructor
+public class SyncManifestResponse implements Response {
+    @Getter
+    private final UUID id;
+    @Getter
+    private final List<SyncEntry> entries;
+    @Getter
+    private final String cursor;
+
+    public boolean isLast() {
+        return cursor.isEmpty();
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.SYNC_MANIFEST_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        SyncEntry.writeList(buf, entries);
+        WireFormat.writeString(buf, cursor);
+    }
+
+    public static SyncManifestResponse readFrom(ByteBuf buf) {
+        return new SyncManifestResponse(
+                WireFormat.readUuid(buf), SyncEntry.readList(buf), WireFormat.readString(buf));
+    }
+}
@@ -0,0 +1,35 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * Decides how fast the transfers of {@link OutboundTransfers} may send. Transfers are grouped by owner
+ * and the groups are served weighted round robin.
+ */
+public interface TransferThrottle {
+    TransferThrottle NONE = new TransferThrottle() {
+        @Override
+        public long delayNanos(String owner) {
+            return 0;
+        }
+
+        @Override
+        public void sent(String owner, int bytes) {
+        }
+
+        @Override
+        public int weight(String owner) {
+            return 1;
+        }
+    };
+
+    /**
+     * @return nanoseconds the transfers of the owner have to wait before sending, 0 if they may send now
+     */
+    long delayNanos(String owner);
+
+    void sent(String owner, int bytes);
+
+    /**
+     * @return chunks the transfers of the owner send in a round, at least 1
+     */
+    int weight(String owner);
+}
@@ -1,5 +1,6 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
+import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 
 import java.util.UUID;
@@ -13,11 +14,69 @@ public class UploadRequest implements Request {
     private final String filename;
     @Getter
     private final long fileSize;
+    @Getter
+    private final int transferId;
+    /**
+     * Position the upload continues from, bytes before it are already stored by the server.
+     * See {@link UploadStatusRequest}.
+     */
+    @Getter
+    private final long offset;
+    /**
+     * Checksum of the whole file as the client has it, empty if it isn't known. The server stores the file
+     * only if the received content has the same checksum.
+     */
+    @Getter
+    private final String checksum;
+
+    public UploadRequest(String username, long fileSize, String filename, int transferId) {
+        this(username, fileSize, filename, transferId, 0);
+    }
+
+    public UploadRequest(String username, long fileSize, String filename, int transferId, long offset) {
+        this(username, fileSize, filename, transferId, offset, "");
+    }
 
-    public UploadRequest(String username, long fileSize, String filename) {
+    public UploadRequest(String username, long fileSize, String filename, int transferId, long offset,
+                         String checksum) {
         this.username = username;
         this.filename = filename;
         this.fileSize = fileSize;
+        this.transferId = transferId;
+        this.offset = offset;
+        this.checksum = checksum;
     }
 
+    private UploadRequest(UUID id, String username, long fileSize, String filename, int transferId, long offset,
+                          String checksum) {
+        this(username, fileSize, filename, transferId, offset, checksum);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.UPLOAD_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        buf.writeLong(fileSize);
+        WireFormat.writeString(buf, filename);
+        buf.writeInt(transferId);
+        buf.writeLong(offset);
+        WireFormat.writeString(buf, checksum);
+    }
+
+    public static UploadRequest readFrom(ByteBuf buf) {
+        return new UploadRequest(
+                WireFormat.readUuid(buf),
+                WireFormat.readString(buf),
+                buf.readLong(),
+                WireFormat.readString(buf),
+                buf.readInt(),
+                buf.readLong(),
+                WireFormat.readString(buf));
+    }
 }
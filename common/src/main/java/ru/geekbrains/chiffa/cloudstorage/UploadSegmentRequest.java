@@ -0,0 +1,55 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Starts sending {@code length} bytes of a segmented upload from {@code offset}, content follows in
+ * {@link DataFrame}s of the transfer. The server answers with {@link SegmentedUploadResponse} once the
+ * segment is written.
+ */
+public class UploadSegmentRequest implements Request {
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private UUID uploadId;
+    @Getter
+    private int transferId;
+    @Getter
+    private long offset;
+    @Getter
+    private long length;
+
+    public UploadSegmentRequest(UUID uploadId, int transferId, long offset, long length) {
+        this.uploadId = uploadId;
+        this.transferId = transferId;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    private UploadSegmentRequest(UUID id, UUID uploadId, int transferId, long offset, long length) {
+        this(uploadId, transferId, offset, length);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.UPLOAD_SEGMENT_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeUuid(buf, uploadId);
+        buf.writeInt(transferId);
+        buf.writeLong(offset);
+        buf.writeLong(length);
+    }
+
+    public static UploadSegmentRequest readFrom(ByteBuf buf) {
+        return new UploadSegmentRequest(
+                WireFormat.readUuid(buf), WireFormat.readUuid(buf), buf.readInt(), buf.readLong(), buf.readLong());
+    }
+}
@@ -0,0 +1,44 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/**
+ * Asks how much of an interrupted upload the server has stored, the answer is {@link UploadStatusResponse}.
+ */
+public class UploadStatusRequest implements Request {
+    @Getter
+    private UUID id = UUID.randomUUID();
+    @Getter
+    private String username;
+    @Getter
+    private String filename;
+
+    public UploadStatusRequest(String username, String filename) {
+        this.username = username;
+        this.filename = filename;
+    }
+
+    private UploadStatusRequest(UUID id, String username, String filename) {
+        this(username, filename);
+        this.id = id;
+    }
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.UPLOAD_STATUS_REQUEST;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, username);
+        WireFormat.writeString(buf, filename);
+    }
+
+    public static UploadStatusRequest readFrom(ByteBuf buf) {
+        return new UploadStatusRequest(WireFormat.readUuid(buf), WireFormat.readString(buf), WireFormat.readString(buf));
+    }
+}
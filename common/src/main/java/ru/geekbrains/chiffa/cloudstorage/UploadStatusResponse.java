@@ -0,0 +1,36 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+@AllArgsConstructor
+public class UploadStatusResponse implements Response {
+    @Getter
+    private final UUID id;
+    @Getter
+    private final String filename;
+    /**
+     * Number of bytes durably stored, an upload of the file may continue from this offset.
+     */
+    @Getter
+    private final long offset;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.UPLOAD_STATUS_RESPONSE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        WireFormat.writeUuid(buf, id);
+        WireFormat.writeString(buf, filename);
+        buf.writeLong(offset);
+    }
+
+    public static UploadStatusResponse readFrom(ByteBuf buf) {
+        return new UploadStatusResponse(WireFormat.readUuid(buf), WireFormat.readString(buf), buf.readLong());
+    }
+}
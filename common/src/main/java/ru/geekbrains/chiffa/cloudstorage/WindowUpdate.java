@@ -0,0 +1,32 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Sent by the receiver of a transfer when it has consumed data, allows the sender
+ * to send {@code increment} more bytes of the transfer.
+ */
+@AllArgsConstructor
+public class WindowUpdate implements Frame {
+    @Getter
+    private final int transferId;
+    @Getter
+    private final int increment;
+
+    @Override
+    public Opcode getOpcode() {
+        return Opcode.WINDOW_UPDATE;
+    }
+
+    @Override
+    public void writeTo(ByteBuf buf) {
+        buf.writeInt(transferId);
+        buf.writeInt(increment);
+    }
+
+    public static WindowUpdate readFrom(ByteBuf buf) {
+        return new WindowUpdate(buf.readInt(), buf.readInt());
+    }
+}
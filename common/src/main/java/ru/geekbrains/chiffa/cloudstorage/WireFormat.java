@@ -0,0 +1,81 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Primitive field encodings shared by all messages: strings are an int byte length followed by UTF-8,
+ * ids are two longs and lists are an int count followed by the elements.
+ */
+public final class WireFormat {
+
+    private WireFormat() {
+    }
+
+    public static void writeUuid(ByteBuf buf, UUID id) {
+        buf.writeLong(id.getMostSignificantBits());
+        buf.writeLong(id.getLeastSignificantBits());
+    }
+
+    public static UUID readUuid(ByteBuf buf) {
+        return new UUID(buf.readLong(), buf.readLong());
+    }
+
+    public static void writeString(ByteBuf buf, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buf.writeInt(bytes.length);
+        buf.writeBytes(bytes);
+    }
+
+    public static String readString(ByteBuf buf) {
+        int length = buf.readInt();
+        if (length < 0 || length > buf.readableBytes()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        String value = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+
+    public static void writeStringList(ByteBuf buf, List<String> values) {
+        buf.writeInt(values.size());
+        for (String value : values) {
+            writeString(buf, value);
+        }
+    }
+
+    public static List<String> readStringList(ByteBuf buf) {
+        int size = buf.readInt();
+        if (size < 0 || size > buf.readableBytes() / 4) {
+            throw new IllegalArgumentException("Invalid list size " + size);
+        }
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(buf));
+        }
+        return values;
+    }
+
+    public static void writeLongList(ByteBuf buf, List<Long> values) {
+        buf.writeInt(values.size());
+        for (long value : values) {
+            buf.writeLong(value);
+        }
+    }
+
+    public static List<Long> readLongList(ByteBuf buf) {
+        int size = buf.readInt();
+        if (size < 0 || size > buf.readableBytes() / 8) {
+            throw new IllegalArgumentException("Invalid list size " + size);
+        }
+        List<Long> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(buf.readLong());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,219 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Receives the files of a {@link BatchUploadRequest} one after another into their partial files. A file which
+ * can't be written fails on its own: its bytes are skipped and the other files go on.
+ * Accessed only from the storage thread of the connection, except for the syncs of the written files.
+ */
+public class BatchUpload {
+    private static final Logger logger = LoggerFactory.getLogger(BatchUpload.class);
+
+    @Getter
+    private final BatchUploadRequest request;
+    @Getter
+    private final InboundWindow window;
+    private final Path partialDir;
+    private final Set<Path> activeUploads;
+    private final ServerConfig config;
+    private final GroupCommitter groupCommitter;
+    @Getter
+    private final List<Item> items = new ArrayList<>();
+    private final long length;
+    private long receivedBytes;
+    //item being received
+    private int index;
+
+    public BatchUpload(BatchUploadRequest request, Path partialDir, Set<Path> activeUploads, ServerConfig config,
+                       GroupCommitter groupCommitter) {
+        this.request = request;
+        this.window = new InboundWindow(request.getTransferId());
+        this.partialDir = partialDir;
+        this.activeUploads = activeUploads;
+        this.config = config;
+        this.groupCommitter = groupCommitter;
+        for (int i = 0; i < request.getFilenames().size(); i++) {
+            items.add(new Item(
+                    request.getFilenames().get(i), request.getFileSizes().get(i), request.getChecksums().get(i)));
+        }
+        this.length = request.getLength();
+    }
+
+    /**
+     * Takes the empty files at the start of the batch.
+     *
+     * @return true if there is nothing to receive
+     */
+    public boolean start() {
+        advance();
+        return isComplete();
+    }
+
+    /**
+     * @return true when the content of all files has been received
+     */
+    public boolean write(ByteBuf content) throws IOException {
+        if (receivedBytes + content.readableBytes() > length) {
+            throw new IOException("Batch data exceeds the announced length");
+        }
+        receivedBytes += content.readableBytes();
+        while (content.isReadable()) {
+            advance();
+            Item item = items.get(index);
+            int count = (int) Math.min(content.readableBytes(), item.size - item.receivedBytes);
+            if (item.file == null) {
+                content.skipBytes(count);
+            } else {
+                try {
+                    item.file.write(content.readSlice(count));
+                } catch (IOException e) {
+                    logger.warn("File wasn't uploaded.", e);
+                    fail(item, "File wasn't uploaded.");
+                }
+            }
+            item.receivedBytes += count;
+        }
+        advance();
+        return isComplete();
+    }
+
+    public boolean isComplete() {
+        return index == items.size();
+    }
+
+    /**
+     * Opens the file being received and moves on past the received ones, asking to sync them.
+     */
+    private void advance() {
+        while (index < items.size()) {
+            Item item = items.get(index);
+            if (!item.opened) {
+                open(item);
+            }
+            if (item.receivedBytes < item.size) {
+                return;
+            }
+            if (item.file != null) {
+                item.sync = item.file.sync();
+            }
+            index++;
+        }
+    }
+
+    private void open(Item item) {
+        item.opened = true;
+        if (!FileNames.isValid(item.filename)) {
+            item.error = String.format("Invalid file name %s", item.filename);
+            return;
+        }
+        Path partialPath = partialDir.resolve(item.filename);
+        if (!activeUploads.add(partialPath)) {
+            item.error = "File is being uploaded, try again later.";
+            return;
+        }
+        item.partialPath = partialPath;
+        try {
+            Files.createDirectories(partialPath.getParent());
+            item.file = new UploadFile(partialPath, 0, config, groupCommitter);
+        } catch (IOException e) {
+            logger.warn("File wasn't uploaded.", e);
+            fail(item, "File wasn't uploaded.");
+        }
+    }
+
+    /**
+     * Closes the file of the item and frees its partial path. Does nothing if the item has failed already.
+     */
+    public void fail(Item item, String error) {
+        if (item.partialPath == null) {
+            return;
+        }
+        try {
+            if (item.file != null) {
+                item.file.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Can't close stream correctly.", e);
+        } finally {
+            activeUploads.remove(item.partialPath);
+        }
+        item.error = error;
+        item.file = null;
+        item.partialPath = null;
+    }
+
+    /**
+     * @return future completed when the syncs of all written files are over, successful or not
+     */
+    public CompletableFuture<Void> synced() {
+        List<CompletableFuture<?>> syncs = new ArrayList<>();
+        for (Item item : items) {
+            if (item.sync != null) {
+                syncs.add(item.sync.handle((ignored, e) -> null));
+            }
+        }
+        return CompletableFuture.allOf(syncs.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Closes the files of an interrupted batch and frees them for other uploads.
+     */
+    public void abort() {
+        for (Item item : items) {
+            fail(item, "Upload was interrupted.");
+        }
+    }
+
+    /**
+     * File of the batch.
+     */
+    public static class Item {
+        @Getter
+        private final String filename;
+        @Getter
+        private final long size;
+        /**
+         * Checksum the client has sent for the file, empty if it isn't known.
+         */
+        @Getter
+        private final String expectedChecksum;
+        private long receivedBytes;
+        private boolean opened;
+        //partial file claimed for the item, null if it failed
+        @Getter
+        private Path partialPath;
+        @Getter
+        private UploadFile file;
+        private CompletableFuture<Void> sync;
+        /**
+         * Reason why the item failed, empty while it hasn't.
+         */
+        @Getter
+        private String error = "";
+
+        private Item(String filename, long size, String expectedChecksum) {
+            this.filename = filename;
+            this.size = size;
+            this.expectedChecksum = expectedChecksum;
+        }
+
+        /**
+         * @return true if the file has been received and forced to disk
+         */
+        public boolean isSynced() {
+            return sync != null && sync.isDone() && !sync.isCompletedExceptionally();
+        }
+    }
+}
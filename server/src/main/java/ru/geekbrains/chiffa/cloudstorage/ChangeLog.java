@@ -0,0 +1,147 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.channel.Channel;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versioned log of the changes of every user's files, shared by all connections. The latest changes
+ * of a user are retained, so that clients can catch up with them instead of listing all files again,
+ * and are pushed to the connections subscribed to the user.
+ * <p>
+ * The log lives in memory. Its id changes with every start of the server, clients holding another
+ * log id get the whole file list.
+ */
+public class ChangeLog {
+    @Getter
+    private final UUID logId = UUID.randomUUID();
+    private final int retainedChanges;
+    private final Map<String, UserLog> users = new ConcurrentHashMap<>();
+
+    public ChangeLog(int retainedChanges) {
+        this.retainedChanges = retainedChanges;
+    }
+
+    private UserLog userLog(String username) {
+        return users.computeIfAbsent(username, name -> new UserLog());
+    }
+
+    /**
+     * Appends a change with the next version and pushes it to the subscribers.
+     */
+    public FileChange record(String username, FileChange.Type type, String name, String newName) {
+        UserLog log = userLog(username);
+        FileChange change;
+        List<Channel> subscribers;
+        synchronized (log) {
+            change = new FileChange(++log.version, type, name, newName);
+            log.changes.addLast(change);
+            if (log.changes.size() > retainedChanges) {
+                log.changes.removeFirst();
+            }
+            subscribers = new ArrayList<>(log.subscribers);
+        }
+        ChangeNotification notification = new ChangeNotification(username, logId, change);
+        for (Channel subscriber : subscribers) {
+            subscriber.writeAndFlush(notification);
+        }
+        return change;
+    }
+
+    public FileChange record(String username, FileChange.Type type, String name) {
+        return record(username, type, name, "");
+    }
+
+    /**
+     * Appends the changes of a batch with the next versions, their own versions are ignored. Subscribers get
+     * all notifications in one flush.
+     *
+     * @return the recorded changes
+     */
+    public List<FileChange> recordAll(String username, List<FileChange> changes) {
+        UserLog log = userLog(username);
+        List<FileChange> recorded = new ArrayList<>(changes.size());
+        List<Channel> subscribers;
+        synchronized (log) {
+            for (FileChange change : changes) {
+                FileChange next = new FileChange(
+                        ++log.version, change.getType(), change.getName(), change.getNewName());
+                log.changes.addLast(next);
+                if (log.changes.size() > retainedChanges) {
+                    log.changes.removeFirst();
+                }
+                recorded.add(next);
+            }
+            subscribers = new ArrayList<>(log.subscribers);
+        }
+        for (Channel subscriber : subscribers) {
+            for (FileChange change : recorded) {
+                subscriber.write(new ChangeNotification(username, logId, change));
+            }
+            subscriber.flush();
+        }
+        return recorded;
+    }
+
+    public long version(String username) {
+        UserLog log = userLog(username);
+        synchronized (log) {
+            return log.version;
+        }
+    }
+
+    /**
+     * @return changes after the version, or null if the log is another one or they aren't retained
+     */
+    public List<FileChange> since(String username, UUID logId, long sinceVersion) {
+        if (!this.logId.equals(logId)) {
+            return null;
+        }
+        UserLog log = userLog(username);
+        synchronized (log) {
+            if (sinceVersion > log.version) {
+                return null;
+            }
+            long oldestVersion = log.changes.isEmpty() ? log.version + 1 : log.changes.getFirst().getVersion();
+            if (sinceVersion + 1 < oldestVersion) {
+                return null;
+            }
+            List<FileChange> changes = new ArrayList<>();
+            for (FileChange change : log.changes) {
+                if (change.getVersion() > sinceVersion) {
+                    changes.add(change);
+                }
+            }
+            return changes;
+        }
+    }
+
+    public void subscribe(String username, Channel channel) {
+        UserLog log = userLog(username);
+        synchronized (log) {
+            if (!log.subscribers.add(channel)) {
+                return;
+            }
+        }
+        channel.closeFuture().addListener(f -> {
+            synchronized (log) {
+                log.subscribers.remove(channel);
+            }
+        });
+    }
+
+    private static class UserLog {
+        private long version;
+        private final Deque<FileChange> changes = new ArrayDeque<>();
+        private final Set<Channel> subscribers = new HashSet<>();
+    }
+}
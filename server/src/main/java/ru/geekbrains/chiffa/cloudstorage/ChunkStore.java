@@ -0,0 +1,184 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressable storage shared by all users. Every unique chunk is kept once under its hash,
+ * files of users uploaded by chunks are {@link Manifest}s referring to them. Reference counts live in
+ * memory and are recounted from the manifests on start, so a crash can't make them wrong; chunks
+ * nobody refers to are deleted then.
+ * <p>
+ * Methods are called from the storage threads of all connections.
+ */
+public class ChunkStore {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStore.class);
+    public static final String CHUNKS_DIR = ".chunks";
+    public static final String MANIFESTS_DIR = ".manifests";
+
+    private final Path chunksDir;
+    private final Path tempDir;
+    private final Path manifestsDir;
+    //references to the chunks from all manifests, guarded by this
+    private final Map<String, Integer> refCounts = new HashMap<>();
+
+    public ChunkStore(Path rootDir) {
+        this.chunksDir = rootDir.resolve(CHUNKS_DIR);
+        this.tempDir = chunksDir.resolve("tmp");
+        this.manifestsDir = rootDir.resolve(MANIFESTS_DIR);
+    }
+
+    public synchronized void load() throws IOException {
+        Files.createDirectories(tempDir);
+        Files.createDirectories(manifestsDir);
+        try (Stream<Path> temps = Files.list(tempDir)) {
+            for (Path temp : temps.collect(Collectors.toList())) {
+                Files.delete(temp);
+            }
+        }
+        refCounts.clear();
+        try (Stream<Path> manifests = Files.walk(manifestsDir)) {
+            for (Path path : manifests.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                for (ChunkRef chunk : Manifest.read(path).getChunks()) {
+                    refCounts.merge(chunk.getHash(), 1, Integer::sum);
+                }
+            }
+        }
+        int unreferenced = 0;
+        try (Stream<Path> chunks = Files.walk(chunksDir)) {
+            for (Path path : chunks.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                if (!path.getParent().equals(tempDir) && !refCounts.containsKey(path.getFileName().toString())) {
+                    Files.delete(path);
+                    unreferenced++;
+                }
+            }
+        }
+        logger.info("Chunk store holds {} chunks, {} unreferenced ones deleted", refCounts.size(), unreferenced);
+    }
+
+    /**
+     * @return hashes of the given chunks that aren't stored
+     */
+    public synchronized List<String> missing(List<String> hashes) {
+        return hashes.stream()
+                .distinct()
+                .filter(hash -> !ChunkRef.isHash(hash) || !Files.exists(chunkPath(hash)))
+                .collect(Collectors.toList());
+    }
+
+    public Path createTempFile() throws IOException {
+        return Files.createTempFile(tempDir, "chunk", null);
+    }
+
+    /**
+     * Moves a verified chunk into the store unless it is stored already.
+     */
+    public synchronized void add(String hash, Path tempFile) throws IOException {
+        Path path = chunkPath(hash);
+        if (Files.exists(path)) {
+            Files.delete(tempFile);
+        } else {
+            Files.createDirectories(path.getParent());
+            Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    public Path manifestDir(String username) {
+        return manifestsDir.resolve(username);
+    }
+
+    public Path manifestPath(String username, String filename) {
+        return manifestDir(username).resolve(filename);
+    }
+
+    /**
+     * Stores the file as a manifest of the chunks, replacing the previous manifest of the file.
+     *
+     * @return hashes of chunks that aren't stored or differ in length, nothing is committed then
+     */
+    public synchronized List<String> commit(String username, String filename, List<ChunkRef> chunks)
+            throws IOException {
+        Set<String> missing = new LinkedHashSet<>();
+        for (ChunkRef chunk : chunks) {
+            Path path = chunkPath(chunk.getHash());
+            if (!Files.exists(path) || Files.size(path) != chunk.getLength()) {
+                missing.add(chunk.getHash());
+            }
+        }
+        if (!missing.isEmpty()) {
+            return new ArrayList<>(missing);
+        }
+
+        Path manifestPath = manifestPath(username, filename);
+        Manifest previous = Files.exists(manifestPath) ? Manifest.read(manifestPath) : null;
+        Path temp = createTempFile();
+        new Manifest(chunks).write(temp);
+        Files.createDirectories(manifestPath.getParent());
+        Files.move(temp, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (ChunkRef chunk : chunks) {
+            refCounts.merge(chunk.getHash(), 1, Integer::sum);
+        }
+        if (previous != null) {
+            release(previous);
+        }
+        return new ArrayList<>();
+    }
+
+    public synchronized void delete(String username, String filename) throws IOException {
+        Path manifestPath = manifestPath(username, filename);
+        Manifest manifest = Manifest.read(manifestPath);
+        Files.delete(manifestPath);
+        release(manifest);
+    }
+
+    public synchronized void rename(String username, String filename, String newFilename) throws IOException {
+        Files.createDirectories(manifestPath(username, newFilename).getParent());
+        Files.move(manifestPath(username, filename), manifestPath(username, newFilename), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void release(Manifest manifest) throws IOException {
+        for (ChunkRef chunk : manifest.getChunks()) {
+            Integer count = refCounts.computeIfPresent(chunk.getHash(), (hash, refs) -> refs > 1 ? refs - 1 : null);
+            if (count == null) {
+                Files.deleteIfExists(chunkPath(chunk.getHash()));
+            }
+        }
+    }
+
+    /**
+     * @return chunk files holding {@code length} bytes of the manifest's file from {@code offset}
+     */
+    public List<FileSlice> slices(Manifest manifest, long offset, long length) {
+        List<FileSlice> slices = new ArrayList<>();
+        long chunkStart = 0;
+        long end = offset + length;
+        for (ChunkRef chunk : manifest.getChunks()) {
+            long chunkEnd = chunkStart + chunk.getLength();
+            if (chunkEnd > offset && chunkStart < end) {
+                long from = Math.max(offset, chunkStart);
+                long to = Math.min(end, chunkEnd);
+                slices.add(new FileSlice(chunkPath(chunk.getHash()), from - chunkStart, to - from));
+            }
+            chunkStart = chunkEnd;
+        }
+        return slices;
+    }
+
+    private Path chunkPath(String hash) {
+        return chunksDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+}
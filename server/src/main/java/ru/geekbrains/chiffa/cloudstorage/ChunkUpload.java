@@ -0,0 +1,127 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receives the chunks of a {@link ChunkUploadRequest} into temporary files and adds those matching
+ * their hashes to the {@link ChunkStore}. Accessed only from the storage thread of the connection.
+ */
+public class ChunkUpload {
+    @Getter
+    private final ChunkUploadRequest request;
+    @Getter
+    private final InboundWindow window;
+    private final ChunkStore store;
+    private final List<ChunkRef> chunks;
+    private final List<String> rejected = new ArrayList<>();
+    private final long length;
+    private long receivedBytes;
+
+    //chunk being received
+    private int index;
+    private Path tempFile;
+    private FileChannel file;
+    private MessageDigest digest;
+    private long chunkBytes;
+
+    public ChunkUpload(ChunkStore store, ChunkUploadRequest request) {
+        this.request = request;
+        this.window = new InboundWindow(request.getTransferId());
+        this.store = store;
+        this.chunks = request.getChunks();
+        long length = 0;
+        for (ChunkRef chunk : chunks) {
+            length += chunk.getLength();
+        }
+        this.length = length;
+    }
+
+    /**
+     * @return true when the content of all chunks has been received
+     */
+    public boolean write(ByteBuf content) throws IOException {
+        if (receivedBytes + content.readableBytes() > length) {
+            throw new IOException("Chunk data exceeds the announced length");
+        }
+        receivedBytes += content.readableBytes();
+        while (content.isReadable()) {
+            if (file == null) {
+                openChunk();
+            }
+            ChunkRef chunk = chunks.get(index);
+            int count = (int) Math.min(content.readableBytes(), chunk.getLength() - chunkBytes);
+            ByteBuffer buffer = content.nioBuffer(content.readerIndex(), count);
+            digest.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                file.write(buffer);
+            }
+            content.skipBytes(count);
+            chunkBytes += count;
+            if (chunkBytes == chunk.getLength()) {
+                closeChunk(chunk);
+            }
+        }
+        return isComplete();
+    }
+
+    public boolean isComplete() {
+        return receivedBytes == length && file == null;
+    }
+
+    /**
+     * @return hashes of received chunks whose content didn't match them
+     */
+    public List<String> getRejected() {
+        return rejected;
+    }
+
+    private void openChunk() throws IOException {
+        // empty chunks have nothing to receive
+        while (chunks.get(index).getLength() == 0) {
+            rejected.add(chunks.get(index++).getHash());
+        }
+        tempFile = store.createTempFile();
+        file = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+        digest = ChunkRef.newDigest();
+        chunkBytes = 0;
+    }
+
+    private void closeChunk(ChunkRef chunk) throws IOException {
+        try {
+            file.force(false);
+        } finally {
+            file.close();
+            file = null;
+        }
+        if (ChunkRef.toHex(digest.digest()).equals(chunk.getHash())) {
+            store.add(chunk.getHash(), tempFile);
+        } else {
+            Files.delete(tempFile);
+            rejected.add(chunk.getHash());
+        }
+        index++;
+    }
+
+    public void abort() {
+        try {
+            if (file != null) {
+                file.close();
+                file = null;
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            // the temporary file is deleted when the store is loaded again
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rebuilds a new version of a file from the stored one and a delta of a {@link DeltaUploadRequest}:
+ * literal bytes are written as they arrive and copied blocks are transferred from the stored file.
+ * Accessed only from the storage thread of the connection.
+ */
+public class DeltaUpload {
+    @Getter
+    private final DeltaUploadRequest request;
+    @Getter
+    private final Path partialPath;
+    @Getter
+    private final UploadFile file;
+    @Getter
+    private final InboundWindow window;
+    //stored version of the file, null if there is none
+    private final FileChannel base;
+    private final long baseSize;
+
+    private final byte[] header = new byte[DeltaFormat.HEADER_SIZE];
+    private int headerBytes;
+    private long literalRemaining;
+    private long receivedBytes;
+
+    public DeltaUpload(DeltaUploadRequest request, Path basePath, Path partialPath, UploadFile file) throws IOException {
+        this.request = request;
+        this.partialPath = partialPath;
+        this.file = file;
+        this.window = new InboundWindow(request.getTransferId());
+        this.base = basePath == null ? null : FileChannel.open(basePath, StandardOpenOption.READ);
+        this.baseSize = base == null ? 0 : base.size();
+    }
+
+    /**
+     * @return true when the whole delta has been applied
+     */
+    public boolean write(ByteBuf content) throws IOException {
+        if (receivedBytes + content.readableBytes() > request.getDeltaLength()) {
+            throw new IOException("Delta exceeds the announced length");
+        }
+        receivedBytes += content.readableBytes();
+        while (content.isReadable()) {
+            if (literalRemaining > 0) {
+                int length = (int) Math.min(literalRemaining, content.readableBytes());
+                file.write(content.readSlice(length));
+                literalRemaining -= length;
+            } else {
+                int length = Math.min(DeltaFormat.HEADER_SIZE - headerBytes, content.readableBytes());
+                content.readBytes(header, headerBytes, length);
+                headerBytes += length;
+                if (headerBytes == DeltaFormat.HEADER_SIZE) {
+                    headerBytes = 0;
+                    apply(ByteBuffer.wrap(header));
+                }
+            }
+            if (file.getSize() + literalRemaining > request.getFileSize()) {
+                throw new IOException("Delta makes the file longer than announced");
+            }
+        }
+        return isComplete();
+    }
+
+    public boolean isComplete() {
+        return receivedBytes == request.getDeltaLength();
+    }
+
+    private void apply(ByteBuffer header) throws IOException {
+        byte type = header.get();
+        int first = header.getInt();
+        int second = header.getInt();
+        if (type == DeltaFormat.LITERAL && first >= 0) {
+            literalRemaining = first;
+        } else if (type == DeltaFormat.COPY && first >= 0 && second > 0
+                && (long) first * request.getBlockSize() < baseSize) {
+            long position = (long) first * request.getBlockSize();
+            long length = Math.min((long) second * request.getBlockSize(), baseSize - position);
+            file.copyFrom(base, position, length);
+        } else {
+            throw new IOException(String.format("Invalid delta instruction %d %d %d", type, first, second));
+        }
+    }
+
+    /**
+     * @return true if the rebuilt file has the size and the hash of the new version
+     */
+    public boolean verify() {
+        if (file.getSize() != request.getFileSize() || headerBytes != 0 || literalRemaining != 0) {
+            return false;
+        }
+        return file.checksum().equals(request.getFileHash());
+    }
+
+    public void closeBase() throws IOException {
+        if (base != null) {
+            base.close();
+        }
+    }
+
+    /**
+     * @return signatures of consecutive blocks of the file, the last one may be shorter
+     */
+    public static List<BlockSignature> signatures(Path path, int blockSize) throws IOException {
+        List<BlockSignature> signatures = new ArrayList<>();
+        MessageDigest digest = ChunkRef.newDigest();
+        byte[] block = new byte[blockSize];
+        try (InputStream in = Files.newInputStream(path)) {
+            int length;
+            while ((length = readBlock(in, block)) > 0) {
+                signatures.add(new BlockSignature(
+                        RollingChecksum.of(block, 0, length),
+                        BlockSignature.strongHash(digest, block, 0, length)));
+            }
+        }
+        return signatures;
+    }
+
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int length = 0;
+        int read;
+        while (length < block.length && (read = in.read(block, length, block.length - length)) > 0) {
+            length += read;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,106 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+
+/**
+ * Pages through the files of a user in the {@link MetadataIndex} without copying more than a page of them.
+ * Pages by name walk the sorted index from the cursor, other orders scan the user's files keeping only
+ * the first entries after the cursor in a bounded heap, so no state is kept between pages.
+ */
+public class DirectoryListing {
+    private static final char CURSOR_SEPARATOR = '/';
+
+    private final MetadataIndex metadataIndex;
+
+    public DirectoryListing(MetadataIndex metadataIndex) {
+        this.metadataIndex = metadataIndex;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public ListPageResponse page(ListPageRequest request) {
+        ListingOrder order = request.getOrder();
+        Comparator<FileEntry> comparator = order.comparator(request.isDescending());
+        FileEntry after = request.getCursor().isEmpty() ? null : parseCursor(request.getCursor());
+        int pageSize = Math.max(1, Math.min(request.getPageSize(), ListPageRequest.MAX_PAGE_SIZE));
+        String prefix = request.getPrefix();
+        NavigableMap<String, FileMetadata> files = withPrefix(metadataIndex.files(request.getUsername()), prefix);
+
+        List<FileEntry> entries = new ArrayList<>(pageSize + 1);
+        if (order == ListingOrder.NAME) {
+            if (request.isDescending()) {
+                files = files.descendingMap();
+            }
+            if (after != null) {
+                files = files.tailMap(after.getName(), false);
+            }
+            for (FileMetadata file : files.values()) {
+                if (entries.size() > pageSize) {
+                    break;
+                }
+                if (file.getName().startsWith(prefix)) {
+                    entries.add(file.toEntry());
+                }
+            }
+        } else {
+            // the greatest of the pageSize + 1 first entries is on top, the extra one tells that more follow
+            PriorityQueue<FileEntry> heap = new PriorityQueue<>(pageSize + 1, comparator.reversed());
+            for (FileMetadata file : files.values()) {
+                FileEntry entry = file.toEntry();
+                if (!file.getName().startsWith(prefix) || after != null && comparator.compare(entry, after) <= 0) {
+                    continue;
+                }
+                heap.add(entry);
+                if (heap.size() > pageSize + 1) {
+                    heap.poll();
+                }
+            }
+            entries.addAll(heap);
+            entries.sort(comparator);
+        }
+
+        boolean more = entries.size() > pageSize;
+        if (more) {
+            entries.remove(entries.size() - 1);
+        }
+        String cursor = more ? cursor(order, entries.get(entries.size() - 1)) : "";
+        return new ListPageResponse(request.getId(), entries, cursor);
+    }
+
+    /**
+     * @return files whose names may start with the prefix: all names between it and the prefix with the last
+     * character incremented
+     */
+    static NavigableMap<String, FileMetadata> withPrefix(NavigableMap<String, FileMetadata> files, String prefix) {
+        if (prefix.isEmpty()) {
+            return files;
+        }
+        char last = prefix.charAt(prefix.length() - 1);
+        if (last == Character.MAX_VALUE) {
+            return files.tailMap(prefix, true);
+        }
+        String end = prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+        return files.subMap(prefix, true, end, false);
+    }
+
+    private static String cursor(ListingOrder order, FileEntry last) {
+        return Long.toString(order.key(last)) + CURSOR_SEPARATOR + last.getName();
+    }
+
+    /**
+     * @return entry having the key of the cursor in every order, to be compared with the listed ones
+     */
+    private static FileEntry parseCursor(String cursor) {
+        int separator = cursor.indexOf(CURSOR_SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
+        }
+        long key = Long.parseLong(cursor.substring(0, separator));
+        return new FileEntry(cursor.substring(separator + 1), FileEntry.Type.FILE, key, key);
+    }
+}
@@ -0,0 +1,16 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * How file bytes of a download are written to the channel.
+ */
+public enum DownloadMode {
+    /**
+     * Zero-copy transfer with {@link FileChunkRegion}s, the kernel sends the file with sendfile.
+     */
+    ZERO_COPY,
+    /**
+     * File is read chunk by chunk into buffers.
+     * Needed when a handler in the pipeline has to see the bytes (e.g. encryption or compression).
+     */
+    CHUNKED
+}
@@ -0,0 +1,32 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Indexed metadata of a stored file. The checksum is the hex SHA-256 of the content, empty if it isn't known.
+ */
+@AllArgsConstructor
+@Getter
+public class FileMetadata {
+    private final String name;
+    private final long size;
+    private final long lastModified;
+    private final String checksum;
+    /**
+     * The file is stored as a {@link Manifest} of chunks.
+     */
+    private final boolean chunked;
+
+    public FileMetadata renamed(String newName) {
+        return new FileMetadata(newName, size, lastModified, checksum, chunked);
+    }
+
+    public FileMetadata withChecksum(String checksum) {
+        return new FileMetadata(name, size, lastModified, checksum, chunked);
+    }
+
+    public FileEntry toEntry() {
+        return new FileEntry(name, FileEntry.Type.FILE, size, lastModified);
+    }
+}
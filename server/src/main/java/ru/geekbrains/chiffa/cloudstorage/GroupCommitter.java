@@ -0,0 +1,168 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Forces files of concurrently completed uploads in batches. A file arriving alone is forced at once.
+ * When several are pending, the batch waits {@code windowMillis} for others to join, then all of its
+ * files are forced at the same time on a small pool, so that the filesystem can commit them
+ * in one journal flush rather than one after another. Files completed while a batch is being forced
+ * make up the next one.
+ * Uploads force their files through it in any case, so that every fsync is timed.
+ */
+public class GroupCommitter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(GroupCommitter.class);
+    private static final int FORCE_THREADS = 8;
+
+    private final long windowMillis;
+    private final LatencyHistogram fsyncLatency;
+    private final BlockingQueue<PendingSync> queue = new LinkedBlockingQueue<>();
+    private final Thread thread = new Thread(this::run, "group-commit");
+    private final ExecutorService forcePool;
+    private volatile boolean running = true;
+
+    public GroupCommitter(long windowMillis, LatencyHistogram fsyncLatency) {
+        this.windowMillis = windowMillis;
+        this.fsyncLatency = fsyncLatency;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.forcePool = Executors.newFixedThreadPool(FORCE_THREADS, runnable -> {
+            Thread forceThread = new Thread(runnable, "group-commit-" + threadIndex.getAndIncrement());
+            forceThread.setDaemon(true);
+            return forceThread;
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public CompletableFuture<Void> sync(FileChannel file) {
+        PendingSync pendingSync = new PendingSync(file);
+        if (!running) {
+            pendingSync.future.completeExceptionally(new IOException("Group committer is closed"));
+        } else {
+            queue.add(pendingSync);
+        }
+        return pendingSync.future;
+    }
+
+    /**
+     * Forces the file right away on the calling thread.
+     */
+    public void force(FileChannel file, boolean metaData) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            file.force(metaData);
+        } finally {
+            fsyncLatency.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Forces the entries of the directory right away, so that a file moved into it stays there after a crash.
+     * Does nothing where directories can't be opened.
+     */
+    public void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (AccessDeniedException e) {
+            // Windows
+            return;
+        }
+        try (FileChannel directory = channel) {
+            force(directory, true);
+        }
+    }
+
+    private void run() {
+        List<PendingSync> batch = new ArrayList<>();
+        while (running) {
+            try {
+                PendingSync first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+                if (batch.size() > 1 && windowMillis > 0) {
+                    // other uploads are completing too, more of them may join
+                    Thread.sleep(windowMillis);
+                    queue.drainTo(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            commit(batch);
+            batch.clear();
+        }
+
+        queue.drainTo(batch);
+        for (PendingSync pendingSync : batch) {
+            pendingSync.future.completeExceptionally(new IOException("Group committer is closed"));
+        }
+    }
+
+    /**
+     * Forces the files of the batch concurrently and waits for all of them.
+     */
+    private void commit(List<PendingSync> batch) {
+        long startNanos = System.nanoTime();
+        if (batch.size() == 1) {
+            forceAndComplete(batch.get(0));
+        } else {
+            List<CompletableFuture<Void>> forces = new ArrayList<>(batch.size());
+            for (PendingSync pendingSync : batch) {
+                try {
+                    forces.add(CompletableFuture.runAsync(() -> forceAndComplete(pendingSync), forcePool));
+                } catch (RejectedExecutionException e) {
+                    pendingSync.future.completeExceptionally(new IOException("Group committer is closed"));
+                }
+            }
+            CompletableFuture.allOf(forces.toArray(new CompletableFuture<?>[0])).join();
+        }
+        logger.debug("Group commit of {} files took {} ms", batch.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    private void forceAndComplete(PendingSync pendingSync) {
+        try {
+            force(pendingSync.file, true);
+            pendingSync.future.complete(null);
+        } catch (IOException e) {
+            pendingSync.future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        forcePool.shutdown();
+    }
+
+    private static class PendingSync {
+        private final FileChannel file;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingSync(FileChannel file) {
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the content of small plain files in direct buffers, so that repeated downloads of them neither open
+ * nor read the file. Files are evicted least recently used first to keep the cached bytes within the capacity.
+ * <p>
+ * An entry is valid only for the {@link FileMetadata} it was read for, a file replaced or renamed in
+ * the {@link MetadataIndex} misses even before its entry is invalidated.
+ */
+public class HotFileCache implements HotFileCacheMXBean {
+    private final long maxFileSize;
+    private final long capacityBytes;
+    //guarded by this, in access order
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public HotFileCache(long maxFileSize, long capacityBytes) {
+        this.maxFileSize = Math.min(maxFileSize, capacityBytes);
+        this.capacityBytes = capacityBytes;
+    }
+
+    public boolean isCacheable(FileMetadata file) {
+        return !file.isChunked() && file.getSize() > 0 && file.getSize() <= maxFileSize;
+    }
+
+    /**
+     * Reads the file into the cache on a miss.
+     *
+     * @return retained duplicate of the file content, to be released by the caller
+     */
+    public ByteBuf get(String username, FileMetadata file, Path path) throws IOException {
+        String key = key(username, file.getName());
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.file == file) {
+                hits.increment();
+                return entry.content.duplicate().retain();
+            }
+        }
+        misses.increment();
+        ByteBuf content = read(path, (int) file.getSize());
+        synchronized (this) {
+            Entry previous = entries.put(key, new Entry(file, content));
+            if (previous != null) {
+                release(previous);
+            }
+            cachedBytes += content.readableBytes();
+            evict();
+            return content.duplicate().retain();
+        }
+    }
+
+    public synchronized void invalidate(String username, String filename) {
+        Entry entry = entries.remove(key(username, filename));
+        if (entry != null) {
+            release(entry);
+            invalidations.increment();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.values().forEach(this::release);
+        entries.clear();
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (cachedBytes > capacityBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            release(entry);
+            evictions.increment();
+        }
+    }
+
+    private void release(Entry entry) {
+        cachedBytes -= entry.content.readableBytes();
+        // downloads still sending the content hold their own references
+        entry.content.release();
+    }
+
+    private static ByteBuf read(Path path, int size) throws IOException {
+        ByteBuf content = Unpooled.directBuffer(size, size);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer target = content.nioBuffer(0, size);
+            while (target.hasRemaining()) {
+                if (file.read(target, target.position()) < 0) {
+                    throw new EOFException("File " + path + " is shorter than indexed");
+                }
+            }
+            return content.writerIndex(size);
+        } catch (IOException e) {
+            content.release();
+            throw e;
+        }
+    }
+
+    private static String key(String username, String filename) {
+        return username + '\u0000' + filename;
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public synchronized int getCachedFiles() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    @Override
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    private static class Entry {
+        private final FileMetadata file;
+        private final ByteBuf content;
+
+        private Entry(FileMetadata file, ByteBuf content) {
+            this.file = file;
+            this.content = content;
+        }
+    }
+}
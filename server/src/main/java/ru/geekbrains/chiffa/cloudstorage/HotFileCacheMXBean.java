@@ -0,0 +1,22 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * Statistics of the {@link HotFileCache} exposed over JMX.
+ */
+public interface HotFileCacheMXBean {
+    long getHits();
+
+    long getMisses();
+
+    double getHitRate();
+
+    long getEvictions();
+
+    long getInvalidations();
+
+    int getCachedFiles();
+
+    long getCachedBytes();
+
+    long getCapacityBytes();
+}
@@ -0,0 +1,96 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.channel.Channel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops reading from a connection while too many of its upload bytes wait for the storage thread.
+ * Reading pauses when the pending bytes of the connection exceed the high water mark or the shared
+ * {@link UploadBudget} is exhausted, and resumes when they are back under the low water mark and the
+ * budget is free again. Reading is also paused for the time a connection is throttled.
+ */
+public class InboundFlowControl {
+    private final Channel channel;
+    private final UploadBudget budget;
+    private final long lowWaterMark;
+    private final long highWaterMark;
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final Runnable resumeTask = this::resumeLater;
+    //written only from the event loop, read by the storage thread to avoid scheduling a resume for every frame
+    private volatile boolean paused;
+    //accessed only from the event loop
+    private long throttledUntilNanos = System.nanoTime();
+
+    public InboundFlowControl(Channel channel, UploadBudget budget, long lowWaterMark, long highWaterMark) {
+        this.channel = channel;
+        this.budget = budget;
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * Called from the event loop when upload bytes have been read.
+     */
+    public void received(int bytes) {
+        long pending = pendingBytes.addAndGet(bytes);
+        boolean withinBudget = budget.acquire(bytes);
+        if (!paused && (pending > highWaterMark || !withinBudget)) {
+            pause();
+            if (!withinBudget) {
+                budget.await(resumeTask);
+            }
+        }
+    }
+
+    /**
+     * Called from the event loop to stop reading for the given time.
+     */
+    public void throttle(long delayNanos) {
+        long untilNanos = System.nanoTime() + delayNanos;
+        if (untilNanos - throttledUntilNanos > 0) {
+            throttledUntilNanos = untilNanos;
+            channel.eventLoop().schedule(this::resume, delayNanos, TimeUnit.NANOSECONDS);
+        }
+        if (!paused) {
+            pause();
+        }
+    }
+
+    /**
+     * Called from any thread when received bytes have been written or dropped.
+     */
+    public void consumed(int bytes) {
+        long pending = pendingBytes.addAndGet(-bytes);
+        budget.release(bytes);
+        if (paused && pending <= lowWaterMark) {
+            resumeLater();
+        }
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    private void resumeLater() {
+        channel.eventLoop().execute(this::resume);
+    }
+
+    private void pause() {
+        paused = true;
+        channel.config().setAutoRead(false);
+    }
+
+    private void resume() {
+        if (!paused || pendingBytes.get() > lowWaterMark || throttledUntilNanos - System.nanoTime() > 0) {
+            return;
+        }
+        if (!budget.isAvailable()) {
+            budget.await(resumeTask);
+            return;
+        }
+        paused = false;
+        channel.config().setAutoRead(true);
+    }
+}
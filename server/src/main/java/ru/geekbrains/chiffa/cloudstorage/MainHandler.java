@@ -3,37 +3,162 @@ package ru.geekbrains.chiffa.cloudstorage;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerAdapter;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.stream.ChunkedFile;
+import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 public class MainHandler extends ChannelHandlerAdapter {
     private static final Logger logger = LoggerFactory.getLogger(MainHandler.class);
+    /**
+     * Uploads are written under this directory of the storage root and moved to the user's directory when complete.
+     */
+    public static final String PARTIAL_DIR = ".partial";
 
+    private final ServerConfig config;
     private final Path rootDir;
+    private final DownloadMode downloadMode;
+    private final GroupCommitter groupCommitter;
+    private final Executor storageExecutor;
+    //partial files being written by any connection of the server
+    private final Set<Path> activeUploads;
+    private final SegmentedUploads segmentedUploads;
+    private final ChunkStore chunkStore;
+    private final ChangeLog changeLog;
+    private final MetadataIndex metadataIndex;
+    private final HotFileCache hotFileCache;
+    private final UploadBudget uploadBudget;
+    private final TrafficShaper trafficShaper;
+    private final ServerMetrics metrics;
+    private final DirectoryListing directoryListing;
+    private final SyncManifest syncManifest;
 
-    //uploading fields
-    private UploadRequest uploadRequest;
-    private FileChannel toStorageFile;
-    private long loadedBytes;
+    //uploads by transfer id, accessed only from the storage thread
+    private final Map<Integer, Upload> uploads = new HashMap<>();
+    //segments of segmented uploads by transfer id, accessed only from the storage thread
+    private final Map<Integer, Segment> segments = new HashMap<>();
+    //chunk uploads by transfer id, accessed only from the storage thread
+    private final Map<Integer, ChunkUpload> chunkUploads = new HashMap<>();
+    //delta uploads by transfer id, accessed only from the storage thread
+    private final Map<Integer, DeltaUpload> deltaUploads = new HashMap<>();
+    //batch uploads by transfer id, accessed only from the storage thread
+    private final Map<Integer, BatchUpload> batchUploads = new HashMap<>();
+    //downloads, accessed only from the event loop
+    private OutboundTransfers downloads;
+    private InboundFlowControl uploadFlowControl;
+    private TrafficShaper.Connection traffic;
+    //user who last started an upload on the connection and is charged for its data, accessed only from the event loop
+    private String uploadingUser = "";
 
-    public MainHandler(Path rootDir) {
-        this.rootDir = rootDir;
+    public MainHandler(ServerConfig config, GroupCommitter groupCommitter, Executor storageExecutor,
+                       Set<Path> activeUploads, SegmentedUploads segmentedUploads, ChunkStore chunkStore,
+                       ChangeLog changeLog, MetadataIndex metadataIndex, SyncManifest syncManifest,
+                       HotFileCache hotFileCache, UploadBudget uploadBudget, TrafficShaper trafficShaper,
+                       ServerMetrics metrics) {
+        this.config = config;
+        this.rootDir = config.getStoragePath();
+        this.downloadMode = config.getDownloadMode();
+        this.groupCommitter = groupCommitter;
+        this.storageExecutor = storageExecutor;
+        this.activeUploads = activeUploads;
+        this.segmentedUploads = segmentedUploads;
+        this.chunkStore = chunkStore;
+        this.changeLog = changeLog;
+        this.metadataIndex = metadataIndex;
+        this.hotFileCache = hotFileCache;
+        this.uploadBudget = uploadBudget;
+        this.trafficShaper = trafficShaper;
+        this.metrics = metrics;
+        this.directoryListing = new DirectoryListing(metadataIndex);
+        this.syncManifest = syncManifest;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        traffic = trafficShaper.connection();
+        downloads = new OutboundTransfers(
+                ctx.channel(), downloadMode == DownloadMode.ZERO_COPY, traffic, storageExecutor);
+        uploadFlowControl = new InboundFlowControl(ctx.channel(), uploadBudget,
+                config.getUploadLowWaterMark(), config.getUploadHighWaterMark());
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof PingRequest) {
+            ctx.writeAndFlush(new PongResponse(((PingRequest) msg).getId()));
+            return;
+        }
+        if (msg instanceof WindowUpdate) {
+            downloads.windowUpdate((WindowUpdate) msg);
+            return;
+        }
+        if (msg instanceof DataFrame) {
+            receivedData(contentSize((DataFrame) msg));
+        } else {
+            trackUploadingUser(msg);
+        }
+        try {
+            storageExecutor.execute(() -> handleMessage(ctx, msg));
+        } catch (RejectedExecutionException e) {
+            if (msg instanceof DataFrame) {
+                uploadFlowControl.consumed(contentSize((DataFrame) msg));
+            }
+            ReferenceCountUtil.release(msg);
+            if (msg instanceof Message) {
+                ctx.writeAndFlush(new ErrorResponse(((Message) msg).getId(), "Server is busy, try again later."));
+            } else {
+                logger.warn("Storage queue is full, uploads from {} are aborted.", ctx.channel().remoteAddress());
+                ctx.close();
+            }
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        downloads.flush();
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        downloads.cancelAll(new IOException("Connection closed"));
+        try {
+            storageExecutor.execute(this::abortUploads);
+        } catch (RejectedExecutionException e) {
+            abortUploads();
+        }
+        ctx.fireChannelInactive();
+    }
+
+    /**
+     * Runs on the storage thread of the connection, never on the event loop.
+     */
+    private void handleMessage(ChannelHandlerContext ctx, Object msg) {
         if (msg instanceof ListFilesRequest) {
             handleListFilesRequest(ctx, (ListFilesRequest) msg);
+        } else if (msg instanceof ListPageRequest) {
+            handleListPageRequest(ctx, (ListPageRequest) msg);
         } else if (msg instanceof DeleteRequest) {
             handleDeleteRequest(ctx, (DeleteRequest) msg);
         } else if (msg instanceof RenameRequest) {
@@ -42,26 +167,137 @@ public class MainHandler extends ChannelHandlerAdapter {
             handleDownloadRequest(ctx, (DownloadRequest) msg);
         } else if (msg instanceof UploadRequest) {
             handleUploadRequest(ctx, (UploadRequest) msg);
-        } else if (msg instanceof ByteBuf) {
-            handleByteBuf(ctx, (ByteBuf) msg);
+        } else if (msg instanceof UploadStatusRequest) {
+            handleUploadStatusRequest(ctx, (UploadStatusRequest) msg);
+        } else if (msg instanceof SegmentedUploadRequest) {
+            handleSegmentedUploadRequest(ctx, (SegmentedUploadRequest) msg);
+        } else if (msg instanceof UploadSegmentRequest) {
+            handleUploadSegmentRequest(ctx, (UploadSegmentRequest) msg);
+        } else if (msg instanceof CommitUploadRequest) {
+            handleCommitUploadRequest(ctx, (CommitUploadRequest) msg);
+        } else if (msg instanceof ChunkQueryRequest) {
+            handleChunkQueryRequest(ctx, (ChunkQueryRequest) msg);
+        } else if (msg instanceof ChunkUploadRequest) {
+            handleChunkUploadRequest(ctx, (ChunkUploadRequest) msg);
+        } else if (msg instanceof CommitManifestRequest) {
+            handleCommitManifestRequest(ctx, (CommitManifestRequest) msg);
+        } else if (msg instanceof ChangesRequest) {
+            handleChangesRequest(ctx, (ChangesRequest) msg);
+        } else if (msg instanceof SignatureRequest) {
+            handleSignatureRequest(ctx, (SignatureRequest) msg);
+        } else if (msg instanceof DeltaUploadRequest) {
+            handleDeltaUploadRequest(ctx, (DeltaUploadRequest) msg);
+        } else if (msg instanceof BatchRequest) {
+            handleBatchRequest(ctx, (BatchRequest) msg);
+        } else if (msg instanceof BatchDownloadRequest) {
+            handleBatchDownloadRequest(ctx, (BatchDownloadRequest) msg);
+        } else if (msg instanceof BatchUploadRequest) {
+            handleBatchUploadRequest(ctx, (BatchUploadRequest) msg);
+        } else if (msg instanceof SyncManifestRequest) {
+            handleSyncManifestRequest(ctx, (SyncManifestRequest) msg);
+        } else if (msg instanceof DataFrame) {
+            DataFrame frame = (DataFrame) msg;
+            int size = contentSize(frame);
+            try {
+                handleDataFrame(ctx, frame);
+            } finally {
+                frame.release();
+                uploadFlowControl.consumed(size);
+            }
+        } else if (msg instanceof CancelTransfer) {
+            handleCancelTransfer(ctx, (CancelTransfer) msg);
         } else {
             ctx.writeAndFlush(new ErrorResponse(UUID.fromString("-1"), "No such request type"));
         }
     }
 
+    /**
+     * Runs on the event loop, so that reading stops before the storage thread gets behind the limits.
+     */
+    private void receivedData(int size) {
+        uploadFlowControl.received(size);
+        traffic.received(uploadingUser, size);
+        long pauseNanos = traffic.readPauseNanos(uploadingUser);
+        if (pauseNanos > 0) {
+            uploadFlowControl.throttle(pauseNanos);
+        }
+    }
+
+    private void trackUploadingUser(Object msg) {
+        if (msg instanceof UploadRequest) {
+            uploadingUser = ((UploadRequest) msg).getUsername();
+        } else if (msg instanceof DeltaUploadRequest) {
+            uploadingUser = ((DeltaUploadRequest) msg).getUsername();
+        } else if (msg instanceof BatchUploadRequest) {
+            uploadingUser = ((BatchUploadRequest) msg).getUsername();
+        } else if (msg instanceof UploadSegmentRequest) {
+            SegmentedUpload upload = segmentedUploads.get(((UploadSegmentRequest) msg).getUploadId());
+            if (upload != null) {
+                uploadingUser = upload.getUsername();
+            }
+        }
+    }
+
+    private static int contentSize(DataFrame frame) {
+        return ((ByteBuf) frame.getContent()).readableBytes();
+    }
+
+    /**
+     * Sends the requested range of the file, or a {@link NotModifiedResponse} if the client already has
+     * the content: a checksum which isn't known yet is computed then, unless the file is larger than
+     * {@link SyncManifest#MAX_HASHED_BYTES}. Such a file is sent without a checksum and hashed in the background.
+     */
     private void handleDownloadRequest(ChannelHandlerContext ctx, DownloadRequest request) {
         String username = request.getUsername();
         String fileName = request.getFilename();
         Path filePath = rootDir.resolve(username).resolve(fileName);
+        FileMetadata metadata = metadataIndex.get(username, fileName);
+        if (metadata == null) {
+            ctx.writeAndFlush(new ErrorResponse(
+                    request.getId(),
+                    String.format("File %s doesn't exist", fileName)));
+            return;
+        }
         try {
-            if (Files.exists(filePath)) {
-                long fileSize = Files.size(filePath);
-                ctx.writeAndFlush(new DownloadResponse(request.getId(), fileName, fileSize));
-                ctx.writeAndFlush(new ChunkedFile(filePath.toFile()));
-            } else {
+            Manifest manifest = metadata.isChunked()
+                    ? Manifest.read(chunkStore.manifestPath(username, fileName))
+                    : null;
+            long fileSize = manifest == null ? metadata.getSize() : manifest.getSize();
+            String checksum = metadata.getChecksum();
+            if (!request.getKnownChecksum().isEmpty()) {
+                if (checksum.isEmpty() && metadata.getSize() <= SyncManifest.MAX_HASHED_BYTES) {
+                    checksum = syncManifest.computeChecksum(username, metadata);
+                } else if (checksum.isEmpty()) {
+                    syncManifest.hashLater(username, metadata);
+                }
+                if (request.getKnownChecksum().equals(checksum)) {
+                    ctx.writeAndFlush(new NotModifiedResponse(request.getId(), fileName, fileSize));
+                    return;
+                }
+            }
+            long offset = request.getOffset();
+            if (offset < 0 || offset > fileSize) {
                 ctx.writeAndFlush(new ErrorResponse(
                         request.getId(),
-                        String.format("File %s doesn't exist", fileName)));
+                        String.format("Offset %d is out of file %s", offset, fileName)));
+                return;
+            }
+            long length = request.getLength() == DownloadRequest.TO_END
+                    ? fileSize - offset
+                    : Math.min(request.getLength(), fileSize - offset);
+            DownloadResponse response =
+                    new DownloadResponse(request.getId(), fileName, fileSize, offset, length, checksum);
+            if (hotFileCache.isCacheable(metadata)) {
+                ByteBuf content = hotFileCache.get(username, metadata, filePath);
+                content.setIndex((int) offset, (int) (offset + length));
+                startDownload(ctx, request, response, () -> downloads.send(request.getTransferId(), username, content));
+            } else if (manifest == null) {
+                FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ);
+                startDownload(ctx, request, response,
+                        () -> downloads.send(request.getTransferId(), username, file, offset, length));
+            } else {
+                List<FileSlice> slices = chunkStore.slices(manifest, offset, length);
+                startDownload(ctx, request, response, () -> downloads.send(request.getTransferId(), username, slices));
             }
         } catch (IOException e) {
             logger.warn("File wasn't downloaded.", e);
@@ -69,109 +305,879 @@ public class MainHandler extends ChannelHandlerAdapter {
         }
     }
 
-    private void handleByteBuf(ChannelHandlerContext ctx, ByteBuf msg) {
-        if (isUploading()) {
-            long readableBytes = msg.readableBytes();
-            long remaining = uploadRequest.getFileSize() - loadedBytes;
+    private void startDownload(ChannelHandlerContext ctx, DownloadRequest request, DownloadResponse response,
+                               Supplier<CompletableFuture<Void>> transfer) {
+        startDownload(ctx, request.getTransferId(), "File " + request.getFilename(), response.getLength(), response,
+                transfer);
+    }
 
-            try {
-                if (remaining < readableBytes) {
-                    writeToChannel(msg.readBytes((int) remaining));
-                } else {
-                    writeToChannel(msg);
+    private void startDownload(ChannelHandlerContext ctx, int transferId, String description, long length,
+                               Response response, Supplier<CompletableFuture<Void>> transfer) {
+        // response goes before the first data frame of the transfer
+        ctx.executor().execute(() -> {
+            long startNanos = System.nanoTime();
+            ctx.writeAndFlush(response);
+            metrics.downloadStarted();
+            transfer.get().whenComplete((ignored, e) -> {
+                metrics.downloadFinished();
+                logDownload(description, length, startNanos, e == null);
+                if (e != null && !(e instanceof CancellationException)) {
+                    // the client would wait for the rest of the data otherwise
+                    ctx.writeAndFlush(new CancelTransfer(transferId));
                 }
+            });
+        });
+    }
 
-                if (loadedBytes == uploadRequest.getFileSize()) {
-                    logger.info("File {} with size {} uploaded", uploadRequest.getFilename(), uploadRequest.getFileSize());
-                    closeQuietly();
-                    sendListFileResponse(ctx, uploadRequest.getId(), uploadRequest.getUsername());
+    /**
+     * Sends the found files one after another as a single transfer. Files are read when the transfer
+     * reaches them: one replaced in the meantime is sent cut to its size at the time of the request
+     * and fails the checksum check of the client, or fails the transfer if it has got shorter.
+     */
+    private void handleBatchDownloadRequest(ChannelHandlerContext ctx, BatchDownloadRequest request) {
+        if (request.getFilenames().size() > BatchDownloadRequest.MAX_FILES) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Too many files in one request."));
+            return;
+        }
+        String username = request.getUsername();
+        List<Long> fileSizes = new ArrayList<>();
+        List<String> checksums = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        List<FileSlice> slices = new ArrayList<>();
+        long length = 0;
+        for (String fileName : request.getFilenames()) {
+            FileMetadata metadata = metadataIndex.get(username, fileName);
+            long fileSize = 0;
+            String checksum = "";
+            String error = "";
+            if (metadata == null) {
+                error = String.format("File %s doesn't exist", fileName);
+            } else if (metadata.isChunked()) {
+                try {
+                    Manifest manifest = Manifest.read(chunkStore.manifestPath(username, fileName));
+                    fileSize = manifest.getSize();
+                    slices.addAll(chunkStore.slices(manifest, 0, fileSize));
+                } catch (IOException e) {
+                    logger.warn("File wasn't downloaded.", e);
+                    fileSize = 0;
+                    error = "File wasn't downloaded.";
                 }
-            } catch (IOException e) {
-                closeQuietly();
+            } else {
+                fileSize = metadata.getSize();
+                slices.add(new FileSlice(rootDir.resolve(username).resolve(fileName), 0, fileSize));
+            }
+            if (error.isEmpty()) {
+                checksum = metadata.getChecksum();
+            }
+            fileSizes.add(fileSize);
+            checksums.add(checksum);
+            errors.add(error);
+            length += fileSize;
+        }
+        BatchDownloadResponse response = new BatchDownloadResponse(request.getId(), fileSizes, checksums, errors);
+        String description = "Batch of " + request.getFilenames().size() + " files";
+        startDownload(ctx, request.getTransferId(), description, length, response,
+                () -> downloads.send(request.getTransferId(), username, slices));
+    }
+
+    private void logDownload(String description, long fileSize, long startNanos, boolean success) {
+        if (!success) {
+            logger.warn("{} wasn't sent completely", description);
+            return;
+        }
+        long elapsedNanos = Math.max(System.nanoTime() - startNanos, 1);
+        double megabytesPerSecond = fileSize * 1_000_000_000.0 / elapsedNanos / (1024 * 1024);
+        logger.info("{} with size {} downloaded in {} ms ({} MB/s, {})",
+                description, fileSize, elapsedNanos / 1_000_000, String.format("%.1f", megabytesPerSecond), downloadMode);
+    }
+
+    private void handleDataFrame(ChannelHandlerContext ctx, DataFrame frame) {
+        int transferId = frame.getTransferId();
+        if (uploads.containsKey(transferId)) {
+            handleUploadData(ctx, uploads.get(transferId), frame);
+        } else if (segments.containsKey(transferId)) {
+            handleSegmentData(ctx, segments.get(transferId), frame);
+        } else if (chunkUploads.containsKey(transferId)) {
+            handleChunkData(ctx, chunkUploads.get(transferId), frame);
+        } else if (deltaUploads.containsKey(transferId)) {
+            handleDeltaData(ctx, deltaUploads.get(transferId), frame);
+        } else if (batchUploads.containsKey(transferId)) {
+            handleBatchData(ctx, batchUploads.get(transferId), frame);
+        }
+    }
+
+    /**
+     * Sends the window update once the read rate limits let the user go on. Holding back updates paces
+     * uploads while the connection is still read, so requests don't wait behind the data.
+     */
+    private void acknowledge(ChannelHandlerContext ctx, String username, WindowUpdate update) {
+        if (update == null) {
+            return;
+        }
+        long delayNanos = traffic.readDelayNanos(username);
+        if (delayNanos == 0) {
+            ctx.writeAndFlush(update);
+        } else {
+            ctx.executor().schedule(() -> ctx.writeAndFlush(update), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private boolean isTransferInUse(int transferId) {
+        return uploads.containsKey(transferId)
+                || segments.containsKey(transferId)
+                || chunkUploads.containsKey(transferId)
+                || deltaUploads.containsKey(transferId)
+                || batchUploads.containsKey(transferId);
+    }
+
+    private void handleUploadData(ChannelHandlerContext ctx, Upload upload, DataFrame frame) {
+        try {
+            ByteBuf content = (ByteBuf) frame.getContent();
+            int length = content.readableBytes();
+            upload.file.write(content);
+            if (upload.file.getSize() == upload.request.getFileSize()) {
+                completeUpload(ctx, upload);
+            } else {
+                acknowledge(ctx, upload.request.getUsername(), upload.window.consume(length));
+            }
+        } catch (IOException e) {
+            uploads.remove(frame.getTransferId());
+            closeQuietly(upload.file);
+            activeUploads.remove(upload.partialPath);
+            logger.warn("File wasn't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(upload.request.getId(), "File wasn't uploaded."));
+        }
+    }
+
+    private void completeUpload(ChannelHandlerContext ctx, Upload upload) {
+        UploadRequest request = upload.request;
+        uploads.remove(request.getTransferId());
+        String checksum = upload.file.checksum();
+        if (!isIntact(request.getChecksum(), checksum)) {
+            closeQuietly(upload.file);
+            discardDamaged(ctx, request.getId(), upload.partialPath, request.getFilename());
+            return;
+        }
+        syncAndCommit(ctx, request.getId(), upload.partialPath, upload.file,
+                request.getUsername(), request.getFilename(), request.getFileSize(), checksum);
+    }
+
+    /**
+     * @return true if the client hasn't sent a checksum or it is the checksum of the received content
+     */
+    private static boolean isIntact(String expectedChecksum, String checksum) {
+        return expectedChecksum.isEmpty() || expectedChecksum.equals(checksum);
+    }
+
+    /**
+     * Deletes the partial file of an upload whose content isn't the one the client has sent, a later upload
+     * starts it over.
+     */
+    private void discardDamaged(ChannelHandlerContext ctx, UUID id, Path partialPath, String filename) {
+        logger.warn("File {} was damaged in transit", filename);
+        releasePartial(partialPath);
+        ctx.writeAndFlush(new ErrorResponse(id, damagedError(filename)));
+    }
+
+    private static String damagedError(String filename) {
+        return String.format("File %s was damaged in transit, upload it again", filename);
+    }
+
+    private void syncAndCommit(ChannelHandlerContext ctx, UUID id, Path partialPath, UploadFile file,
+                               String username, String filename, long fileSize, String checksum) {
+        file.sync().whenComplete((ignored, e) -> {
+            closeQuietly(file);
+            if (e == null) {
+                execute(ctx, id, () -> commitUpload(ctx, id, partialPath, username, filename, fileSize, checksum),
+                        () -> releasePartial(partialPath));
+            } else {
+                activeUploads.remove(partialPath);
                 logger.warn("File wasn't uploaded.", e);
-                ctx.writeAndFlush(new ErrorResponse(uploadRequest.getId(), "File wasn't uploaded."));
+                ctx.writeAndFlush(new ErrorResponse(id, "File wasn't uploaded."));
             }
+        });
+    }
+
+    /**
+     * Moves the complete partial file in place and frees it for the next upload before answering the client.
+     */
+    private void commitUpload(ChannelHandlerContext ctx, UUID id, Path partialPath,
+                              String username, String filename, long fileSize, String checksum) {
+        try {
+            synchronized (metadataIndex.lock(username)) {
+                storeUpload(partialPath, username, filename, fileSize, checksum);
+                sendChange(ctx, id, username, FileChange.Type.PUT, filename, "");
+            }
+        } catch (IOException e) {
+            logger.warn("File wasn't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(id, "File wasn't uploaded."));
+        }
+    }
+
+    /**
+     * Replaces the stored file with the partial one. Must be called holding the lock of the user.
+     */
+    private void storeUpload(Path partialPath, String username, String filename, long fileSize, String checksum)
+            throws IOException {
+        Path filePath = rootDir.resolve(username).resolve(filename);
+        try {
+            metadataIndex.createDirectories(filePath.getParent());
+            Files.move(
+                    partialPath,
+                    filePath,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            groupCommitter.forceDirectory(filePath.getParent());
+        } finally {
+            activeUploads.remove(partialPath);
+        }
+        FileMetadata previous = metadataIndex.get(username, filename);
+        if (previous != null && previous.isChunked()) {
+            chunkStore.delete(username, filename);
         }
+        long lastModified = Files.getLastModifiedTime(filePath).toMillis();
+        metadataIndex.put(username, new FileMetadata(filename, fileSize, lastModified, checksum, false));
+        hotFileCache.invalidate(username, filename);
+        logger.info("File {} with size {} uploaded", filename, fileSize);
     }
 
-    private void writeToChannel(ByteBuf buf) throws IOException {
-        int readBytes = buf.readableBytes();
-        this.loadedBytes += readBytes;
-        toStorageFile.write(buf.nioBuffer());
-        buf.skipBytes(readBytes);
-        toStorageFile.force(false);
+    private Path partialPath(String username, String filename) {
+        return rootDir.resolve(PARTIAL_DIR).resolve(username).resolve(filename);
     }
 
-    private void closeQuietly() {
+    /**
+     * Answers the request with an error if the file can't be stored under the name.
+     *
+     * @return true if the name is valid
+     */
+    private boolean checkFilename(ChannelHandlerContext ctx, UUID id, String filename) {
+        if (FileNames.isValid(filename)) {
+            return true;
+        }
+        ctx.writeAndFlush(new ErrorResponse(id, String.format("Invalid file name %s", filename)));
+        return false;
+    }
+
+    /**
+     * Runs the task on the storage thread of the connection. If its queue is full the client gets an error and
+     * {@code onRejected} releases what the task would have taken over.
+     */
+    private void execute(ChannelHandlerContext ctx, UUID id, Runnable task, Runnable onRejected) {
         try {
-            toStorageFile.close();
-            toStorageFile = null;
-            loadedBytes = 0;
+            storageExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            onRejected.run();
+            ctx.writeAndFlush(new ErrorResponse(id, "Server is busy, try again later."));
+        }
+    }
+
+    /**
+     * Deletes the partial file of an upload that won't be stored and frees its name.
+     */
+    private void releasePartial(Path partialPath) {
+        try {
+            Files.deleteIfExists(partialPath);
+        } catch (IOException e) {
+            logger.warn("Can't delete partial file {}.", partialPath, e);
+        } finally {
+            activeUploads.remove(partialPath);
+        }
+    }
+
+    private void discardBatch(BatchUpload upload) {
+        for (BatchUpload.Item item : upload.getItems()) {
+            if (item.getPartialPath() != null) {
+                Path partialPath = item.getPartialPath();
+                upload.fail(item, "Server is busy, try again later.");
+                releasePartial(partialPath);
+            }
+        }
+    }
+
+    private void closeQuietly(UploadFile file) {
+        try {
+            file.close();
         } catch (Exception e) {
             logger.warn("Can't close stream correctly.", e);
         }
     }
 
     private void handleUploadRequest(ChannelHandlerContext ctx, UploadRequest request) {
+        if (isTransferInUse(request.getTransferId())) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Transfer id is already in use."));
+            return;
+        }
+        if (!checkFilename(ctx, request.getId(), request.getFilename())) {
+            return;
+        }
         try {
             String username = request.getUsername();
-            uploadRequest = request;
-            loadedBytes = 0;
 
             Path userDir = rootDir.resolve(username);
-            if (!Files.exists(userDir)) {
-                Files.createDirectory(userDir);
+            metadataIndex.createDirectories(userDir);
+            Path partialPath = partialPath(username, request.getFilename());
+            metadataIndex.createDirectories(partialPath.getParent());
+            if (!activeUploads.add(partialPath)) {
+                ctx.writeAndFlush(new ErrorResponse(request.getId(), "File is being uploaded, try again later."));
+                return;
             }
-            Path fileName = userDir.resolve(request.getFilename());
 
-            toStorageFile = new FileOutputStream(fileName.normalize().toString()).getChannel();
+            UploadFile file;
+            try {
+                file = new UploadFile(partialPath, request.getOffset(), config, groupCommitter);
+            } catch (IOException e) {
+                activeUploads.remove(partialPath);
+                throw e;
+            }
+            Upload upload = new Upload(request, partialPath, file);
+            uploads.put(request.getTransferId(), upload);
+            if (request.getFileSize() == 0) {
+                completeUpload(ctx, upload);
+            }
         } catch (IOException e) {
             logger.warn("File wasn't uploaded.", e);
             ctx.writeAndFlush(new ErrorResponse(request.getId(), "File wasn't uploaded."));
         }
     }
 
-    private void handleRenameRequest(ChannelHandlerContext ctx, RenameRequest request) {
-        String username = request.getUsername();
-        Path fileName = rootDir.resolve(username).resolve(request.getFilename());
-        Path newFileName = rootDir.resolve(username).resolve(request.getNewFileName());
+    private void handleUploadStatusRequest(ChannelHandlerContext ctx, UploadStatusRequest request) {
+        Path partialPath = partialPath(request.getUsername(), request.getFilename());
+        if (activeUploads.contains(partialPath)) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "File is being uploaded, try again later."));
+            return;
+        }
+        try {
+            long offset = Files.exists(partialPath) ? Files.size(partialPath) : 0;
+            ctx.writeAndFlush(new UploadStatusResponse(request.getId(), request.getFilename(), offset));
+        } catch (IOException e) {
+            logger.warn("Upload status isn't available.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Upload status isn't available."));
+        }
+    }
 
-        if (!Files.exists(fileName)) {
-            ctx.writeAndFlush(new ErrorResponse(
-                    request.getId(),
-                    String.format("File %s doesn't exist.", fileName.toString())));
-        } else if (Files.exists(newFileName)) {
+    private void handleSegmentedUploadRequest(ChannelHandlerContext ctx, SegmentedUploadRequest request) {
+        if (!checkFilename(ctx, request.getId(), request.getFilename())) {
+            return;
+        }
+        try {
+            String username = request.getUsername();
+
+            Path userDir = rootDir.resolve(username);
+            metadataIndex.createDirectories(userDir);
+            Path partialPath = partialPath(username, request.getFilename());
+            metadataIndex.createDirectories(partialPath.getParent());
+            if (!activeUploads.add(partialPath)) {
+                ctx.writeAndFlush(new ErrorResponse(request.getId(), "File is being uploaded, try again later."));
+                return;
+            }
+
+            try {
+                segmentedUploads.add(new SegmentedUpload(request, partialPath, config, groupCommitter));
+            } catch (IOException e) {
+                activeUploads.remove(partialPath);
+                throw e;
+            }
+            ctx.writeAndFlush(new SegmentedUploadResponse(request.getId(), request.getId()));
+        } catch (IOException e) {
+            logger.warn("File wasn't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "File wasn't uploaded."));
+        }
+    }
+
+    private void handleUploadSegmentRequest(ChannelHandlerContext ctx, UploadSegmentRequest request) {
+        if (isTransferInUse(request.getTransferId())) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Transfer id is already in use."));
+            return;
+        }
+        SegmentedUpload upload = segmentedUploads.get(request.getUploadId());
+        if (upload == null) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Upload isn't found."));
+        } else if (!upload.reserve(request.getOffset(), request.getLength())) {
             ctx.writeAndFlush(new ErrorResponse(
                     request.getId(),
-                    String.format("File %s already exist.", newFileName)
-            ));
+                    String.format("Segment %d+%d doesn't fit the upload", request.getOffset(), request.getLength())));
         } else {
+            segments.put(request.getTransferId(), new Segment(request, upload));
+        }
+    }
+
+    private void handleSegmentData(ChannelHandlerContext ctx, Segment segment, DataFrame frame) {
+        UploadSegmentRequest request = segment.request;
+        if (segmentedUploads.get(request.getUploadId()) != segment.upload) {
+            // cancelled over another connection
+            segments.remove(request.getTransferId());
+            return;
+        }
+        ByteBuf content = (ByteBuf) frame.getContent();
+        int length = content.readableBytes();
+        try {
+            if (segment.writtenBytes + length > request.getLength()) {
+                throw new IOException("Segment data exceeds its length");
+            }
+            segment.upload.write(content, request.getOffset() + segment.writtenBytes);
+            segment.writtenBytes += length;
+            if (segment.writtenBytes == request.getLength()) {
+                segments.remove(request.getTransferId());
+                segment.upload.segmentStored(request.getLength());
+                ctx.writeAndFlush(new SegmentedUploadResponse(request.getId(), request.getUploadId()));
+            } else {
+                acknowledge(ctx, segment.upload.getUsername(), segment.window.consume(length));
+            }
+        } catch (IOException e) {
+            segments.remove(request.getTransferId());
+            segment.upload.release(request.getOffset());
+            logger.warn("Segment wasn't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Segment wasn't uploaded."));
+        }
+    }
+
+    private void handleCommitUploadRequest(ChannelHandlerContext ctx, CommitUploadRequest request) {
+        SegmentedUpload upload = segmentedUploads.get(request.getUploadId());
+        if (upload == null) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Upload isn't found."));
+            return;
+        }
+        if (!upload.isComplete() || segmentedUploads.remove(request.getUploadId()) == null) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Upload isn't complete."));
+            return;
+        }
+        String checksum = upload.checksum();
+        if (!isIntact(upload.getExpectedChecksum(), checksum)) {
             try {
-                Files.move(fileName, newFileName);
+                upload.close();
+            } catch (IOException e) {
+                logger.warn("Can't close stream correctly.", e);
+            }
+            discardDamaged(ctx, request.getId(), upload.getPartialPath(), upload.getFilename());
+            return;
+        }
+        upload.sync().whenComplete((ignored, e) -> {
+            if (e == null) {
+                execute(ctx, request.getId(), () -> {
+                    try {
+                        upload.close();
+                    } catch (IOException closeException) {
+                        logger.warn("Can't close stream correctly.", closeException);
+                    }
+                    logSegmentedUpload(upload);
+                    commitUpload(ctx, request.getId(), upload.getPartialPath(),
+                            upload.getUsername(), upload.getFilename(), upload.getFileSize(), checksum);
+                }, () -> segmentedUploads.discard(upload));
+            } else {
+                segmentedUploads.discard(upload);
+                logger.warn("File wasn't uploaded.", e);
+                ctx.writeAndFlush(new ErrorResponse(request.getId(), "File wasn't uploaded."));
+            }
+        });
+    }
+
+    private void logSegmentedUpload(SegmentedUpload upload) {
+        long elapsedNanos = Math.max(System.nanoTime() - upload.getStartNanos(), 1);
+        double megabytesPerSecond = upload.getFileSize() * 1_000_000_000.0 / elapsedNanos / (1024 * 1024);
+        logger.info("Segmented upload of {} took {} ms ({} MB/s)",
+                upload.getFilename(), elapsedNanos / 1_000_000, String.format("%.1f", megabytesPerSecond));
+    }
+
+    private void handleChunkQueryRequest(ChannelHandlerContext ctx, ChunkQueryRequest request) {
+        ctx.writeAndFlush(new ChunksResponse(request.getId(), chunkStore.missing(request.getHashes())));
+    }
 
-                sendListFileResponse(ctx, request.getId(), username);
+    private void handleChunkUploadRequest(ChannelHandlerContext ctx, ChunkUploadRequest request) {
+        if (isTransferInUse(request.getTransferId())) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Transfer id is already in use."));
+            return;
+        }
+        ChunkUpload upload = new ChunkUpload(chunkStore, request);
+        if (upload.isComplete()) {
+            ctx.writeAndFlush(new ChunksResponse(request.getId(), upload.getRejected()));
+        } else {
+            chunkUploads.put(request.getTransferId(), upload);
+        }
+    }
+
+    private void handleChunkData(ChannelHandlerContext ctx, ChunkUpload upload, DataFrame frame) {
+        ChunkUploadRequest request = upload.getRequest();
+        ByteBuf content = (ByteBuf) frame.getContent();
+        int length = content.readableBytes();
+        try {
+            if (upload.write(content)) {
+                chunkUploads.remove(request.getTransferId());
+                ctx.writeAndFlush(new ChunksResponse(request.getId(), upload.getRejected()));
+            } else {
+                acknowledge(ctx, "", upload.getWindow().consume(length));
+            }
+        } catch (IOException e) {
+            chunkUploads.remove(request.getTransferId());
+            upload.abort();
+            logger.warn("Chunks weren't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Chunks weren't uploaded."));
+        }
+    }
+
+    private void handleCommitManifestRequest(ChannelHandlerContext ctx, CommitManifestRequest request) {
+        String username = request.getUsername();
+        String filename = request.getFilename();
+        if (!checkFilename(ctx, request.getId(), filename)) {
+            return;
+        }
+        try {
+            Path userDir = rootDir.resolve(username);
+            metadataIndex.createDirectories(userDir);
+            synchronized (metadataIndex.lock(username)) {
+                List<String> missing = chunkStore.commit(username, filename, request.getChunks());
+                if (!missing.isEmpty()) {
+                    ctx.writeAndFlush(new ErrorResponse(
+                            request.getId(),
+                            String.format("%d chunks of %s are missing, upload them again", missing.size(), filename)));
+                    return;
+                }
+                FileMetadata previous = metadataIndex.get(username, filename);
+                if (previous != null && !previous.isChunked()) {
+                    Files.deleteIfExists(userDir.resolve(filename));
+                }
+                long fileSize = request.getChunks().stream().mapToLong(ChunkRef::getLength).sum();
+                long lastModified = Files.getLastModifiedTime(chunkStore.manifestPath(username, filename)).toMillis();
+                FileMetadata metadata = new FileMetadata(filename, fileSize, lastModified, "", true);
+                metadataIndex.put(username, metadata);
+                // the chunks were stored apart, their content is read once more for the checksum
+                syncManifest.hashLater(username, metadata);
+                hotFileCache.invalidate(username, filename);
+                logger.info("File {} uploaded as {} chunks", filename, request.getChunks().size());
+                sendChange(ctx, request.getId(), username, FileChange.Type.PUT, filename, "");
+            }
+        } catch (IOException e) {
+            logger.warn("File wasn't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "File wasn't uploaded."));
+        }
+    }
+
+    /**
+     * Files stored by chunks and missing files have no blocks to reuse, their signatures are empty.
+     */
+    private void handleSignatureRequest(ChannelHandlerContext ctx, SignatureRequest request) {
+        Path filePath = rootDir.resolve(request.getUsername()).resolve(request.getFilename());
+        FileMetadata metadata = metadataIndex.get(request.getUsername(), request.getFilename());
+        try {
+            long fileSize = metadata != null && !metadata.isChunked() ? metadata.getSize() : 0;
+            int blockSize = DeltaFormat.blockSize(fileSize);
+            List<BlockSignature> signatures = fileSize > 0
+                    ? DeltaUpload.signatures(filePath, blockSize)
+                    : new ArrayList<>();
+            ctx.writeAndFlush(new SignatureResponse(request.getId(), fileSize, blockSize, signatures));
+        } catch (IOException e) {
+            logger.warn("Signatures weren't computed.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Signatures weren't computed."));
+        }
+    }
+
+    private void handleDeltaUploadRequest(ChannelHandlerContext ctx, DeltaUploadRequest request) {
+        if (isTransferInUse(request.getTransferId())) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Transfer id is already in use."));
+            return;
+        }
+        if (request.getBlockSize() < DeltaFormat.MIN_BLOCK_SIZE || request.getBlockSize() > DeltaFormat.MAX_BLOCK_SIZE) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Invalid block size."));
+            return;
+        }
+        if (!checkFilename(ctx, request.getId(), request.getFilename())) {
+            return;
+        }
+        try {
+            String username = request.getUsername();
+
+            Path userDir = rootDir.resolve(username);
+            metadataIndex.createDirectories(userDir);
+            Path partialPath = partialPath(username, request.getFilename());
+            metadataIndex.createDirectories(partialPath.getParent());
+            if (!activeUploads.add(partialPath)) {
+                ctx.writeAndFlush(new ErrorResponse(request.getId(), "File is being uploaded, try again later."));
+                return;
+            }
+
+            FileMetadata base = metadataIndex.get(username, request.getFilename());
+            Path basePath = base != null && !base.isChunked() ? userDir.resolve(request.getFilename()) : null;
+            DeltaUpload upload;
+            try {
+                UploadFile file = new UploadFile(partialPath, 0, config, groupCommitter);
+                try {
+                    upload = new DeltaUpload(request, basePath, partialPath, file);
+                } catch (IOException e) {
+                    closeQuietly(file);
+                    throw e;
+                }
             } catch (IOException e) {
-                logger.warn("File wasn't renamed", e);
-                ctx.writeAndFlush(new ErrorResponse(request.getId(), "File wasn't renamed"));
+                activeUploads.remove(partialPath);
+                throw e;
+            }
+            deltaUploads.put(request.getTransferId(), upload);
+            if (request.getDeltaLength() == 0) {
+                completeDeltaUpload(ctx, upload);
+            }
+        } catch (IOException e) {
+            logger.warn("File wasn't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "File wasn't uploaded."));
+        }
+    }
+
+    private void handleDeltaData(ChannelHandlerContext ctx, DeltaUpload upload, DataFrame frame) {
+        ByteBuf content = (ByteBuf) frame.getContent();
+        int length = content.readableBytes();
+        try {
+            if (upload.write(content)) {
+                completeDeltaUpload(ctx, upload);
+            } else {
+                acknowledge(ctx, upload.getRequest().getUsername(), upload.getWindow().consume(length));
             }
+        } catch (IOException e) {
+            discardDeltaUpload(upload);
+            logger.warn("File wasn't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(upload.getRequest().getId(), "File wasn't uploaded."));
+        }
+    }
+
+    private void completeDeltaUpload(ChannelHandlerContext ctx, DeltaUpload upload) throws IOException {
+        DeltaUploadRequest request = upload.getRequest();
+        if (!upload.verify()) {
+            discardDeltaUpload(upload);
+            ctx.writeAndFlush(new ErrorResponse(
+                    request.getId(),
+                    String.format("File %s has changed on the server, upload it again", request.getFilename())));
+            return;
         }
+        deltaUploads.remove(request.getTransferId());
+        upload.closeBase();
+        logger.info("File {} rebuilt from a delta of {} bytes", request.getFilename(), request.getDeltaLength());
+        syncAndCommit(ctx, request.getId(), upload.getPartialPath(), upload.getFile(),
+                request.getUsername(), request.getFilename(), request.getFileSize(), request.getFileHash());
+    }
 
+    private void discardDeltaUpload(DeltaUpload upload) {
+        deltaUploads.remove(upload.getRequest().getTransferId());
+        closeQuietly(upload.getFile());
+        try {
+            upload.closeBase();
+            Files.deleteIfExists(upload.getPartialPath());
+        } catch (IOException e) {
+            logger.warn("Can't discard upload correctly.", e);
+        } finally {
+            activeUploads.remove(upload.getPartialPath());
+        }
+    }
+
+    private void handleRenameRequest(ChannelHandlerContext ctx, RenameRequest request) {
+        String username = request.getUsername();
+        synchronized (metadataIndex.lock(username)) {
+            String error = renameFile(username, request.getFilename(), request.getNewFileName());
+            if (error == null) {
+                sendChange(ctx, request.getId(), username, FileChange.Type.RENAME,
+                        request.getFilename(), request.getNewFileName());
+            } else {
+                ctx.writeAndFlush(new ErrorResponse(request.getId(), error));
+            }
+        }
+    }
+
+    /**
+     * Must be called holding the lock of the user.
+     *
+     * @return why the file wasn't renamed, null if it was
+     */
+    private String renameFile(String username, String filename, String newFilename) {
+        Path fileName = rootDir.resolve(username).resolve(filename);
+        Path newFileName = rootDir.resolve(username).resolve(newFilename);
+        FileMetadata file = metadataIndex.get(username, filename);
+        if (file == null) {
+            return String.format("File %s doesn't exist.", fileName.toString());
+        }
+        if (!FileNames.isValid(newFilename)) {
+            return String.format("Invalid file name %s", newFilename);
+        }
+        if (metadataIndex.get(username, newFilename) != null) {
+            return String.format("File %s already exist.", newFileName);
+        }
+        try {
+            if (file.isChunked()) {
+                chunkStore.rename(username, filename, newFilename);
+            } else {
+                metadataIndex.createDirectories(newFileName.getParent());
+                Files.move(fileName, newFileName);
+            }
+            metadataIndex.rename(username, filename, newFilename);
+            hotFileCache.invalidate(username, filename);
+            return null;
+        } catch (IOException e) {
+            logger.warn("File wasn't renamed", e);
+            return "File wasn't renamed";
+        }
     }
 
     private void handleDeleteRequest(ChannelHandlerContext ctx, DeleteRequest request) {
         String username = request.getUsername();
-        Path fileName = rootDir.resolve(username).resolve(request.getFilename());
-        if (!Files.exists(fileName)) {
-            ctx.writeAndFlush(new ErrorResponse(request.getId(), "File isn't found."));
-        } else {
-            try {
-                Files.delete(fileName);
+        synchronized (metadataIndex.lock(username)) {
+            String error = deleteFile(username, request.getFilename());
+            if (error == null) {
+                sendChange(ctx, request.getId(), username, FileChange.Type.DELETE, request.getFilename(), "");
+            } else {
+                ctx.writeAndFlush(new ErrorResponse(request.getId(), error));
+            }
+        }
+    }
 
-                sendListFileResponse(ctx, request.getId(), username);
-            } catch (IOException e) {
-                logger.warn("File wasn't deleted.", e);
-                ctx.writeAndFlush(new ErrorResponse(request.getId(), "File wasn't deleted."));
+    /**
+     * Must be called holding the lock of the user.
+     *
+     * @return why the file wasn't deleted, null if it was
+     */
+    private String deleteFile(String username, String filename) {
+        FileMetadata file = metadataIndex.get(username, filename);
+        if (file == null) {
+            return "File isn't found.";
+        }
+        try {
+            if (file.isChunked()) {
+                chunkStore.delete(username, filename);
+            } else {
+                Files.delete(rootDir.resolve(username).resolve(filename));
+            }
+            metadataIndex.delete(username, filename);
+            hotFileCache.invalidate(username, filename);
+            return null;
+        } catch (IOException e) {
+            logger.warn("File wasn't deleted.", e);
+            return "File wasn't deleted.";
+        }
+    }
+
+    /**
+     * Applies the operations in one pass under the lock of the user and answers with the changes of all of them.
+     */
+    private void handleBatchRequest(ChannelHandlerContext ctx, BatchRequest request) {
+        if (request.getOperations().size() > BatchRequest.MAX_OPERATIONS) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Too many operations in one request."));
+            return;
+        }
+        String username = request.getUsername();
+        List<String> errors = new ArrayList<>();
+        List<FileChange> changes = new ArrayList<>();
+        synchronized (metadataIndex.lock(username)) {
+            for (BatchOperation operation : request.getOperations()) {
+                String error;
+                FileChange.Type type;
+                if (operation.getType() == BatchOperation.Type.DELETE) {
+                    error = deleteFile(username, operation.getName());
+                    type = FileChange.Type.DELETE;
+                } else {
+                    error = renameFile(username, operation.getName(), operation.getNewName());
+                    type = FileChange.Type.RENAME;
+                }
+                if (error == null) {
+                    changes.add(new FileChange(0, type, operation.getName(), operation.getNewName()));
+                }
+                errors.add(error == null ? "" : error);
             }
+            sendBatchResponse(ctx, request.getId(), username, errors, changes);
+        }
+        logger.info("Batch of {} operations applied, {} failed",
+                errors.size(), errors.size() - changes.size());
+    }
+
+    /**
+     * Records the changes of a batch and answers it with them. Must be called holding the lock of the user.
+     */
+    private void sendBatchResponse(ChannelHandlerContext ctx, UUID id, String username, List<String> errors,
+                                   List<FileChange> changes) {
+        List<FileChange> recorded = changeLog.recordAll(username, changes);
+        long version = recorded.isEmpty()
+                ? changeLog.version(username)
+                : recorded.get(recorded.size() - 1).getVersion();
+        ctx.writeAndFlush(new BatchResponse(id, errors, changeLog.getLogId(), version, recorded));
+    }
+
+    private void handleBatchUploadRequest(ChannelHandlerContext ctx, BatchUploadRequest request) {
+        if (isTransferInUse(request.getTransferId())) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Transfer id is already in use."));
+            return;
+        }
+        if (request.getFilenames().size() > BatchUploadRequest.MAX_FILES) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Too many files in one request."));
+            return;
+        }
+        try {
+            String username = request.getUsername();
+            metadataIndex.createDirectories(rootDir.resolve(username));
+            Path partialDir = rootDir.resolve(PARTIAL_DIR).resolve(username);
+            metadataIndex.createDirectories(partialDir);
+            BatchUpload upload = new BatchUpload(request, partialDir, activeUploads, config, groupCommitter);
+            batchUploads.put(request.getTransferId(), upload);
+            if (upload.start()) {
+                completeBatchUpload(ctx, upload);
+            }
+        } catch (IOException e) {
+            logger.warn("Files weren't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Files weren't uploaded."));
+        }
+    }
+
+    private void handleBatchData(ChannelHandlerContext ctx, BatchUpload upload, DataFrame frame) {
+        BatchUploadRequest request = upload.getRequest();
+        ByteBuf content = (ByteBuf) frame.getContent();
+        int length = content.readableBytes();
+        try {
+            if (upload.write(content)) {
+                completeBatchUpload(ctx, upload);
+            } else {
+                acknowledge(ctx, request.getUsername(), upload.getWindow().consume(length));
+            }
+        } catch (IOException e) {
+            batchUploads.remove(request.getTransferId());
+            upload.abort();
+            logger.warn("Files weren't uploaded.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Files weren't uploaded."));
+        }
+    }
+
+    /**
+     * Waits for all files of the batch to be durable and stores them at once, like separate uploads would do.
+     */
+    private void completeBatchUpload(ChannelHandlerContext ctx, BatchUpload upload) {
+        BatchUploadRequest request = upload.getRequest();
+        batchUploads.remove(request.getTransferId());
+        upload.synced().whenComplete((ignored, e) ->
+                execute(ctx, request.getId(), () -> commitBatchUpload(ctx, upload), () -> discardBatch(upload)));
+    }
+
+    private void commitBatchUpload(ChannelHandlerContext ctx, BatchUpload upload) {
+        String username = upload.getRequest().getUsername();
+        List<String> errors = new ArrayList<>();
+        List<FileChange> changes = new ArrayList<>();
+        synchronized (metadataIndex.lock(username)) {
+            for (BatchUpload.Item item : upload.getItems()) {
+                if (item.getPartialPath() != null && !item.isSynced()) {
+                    upload.fail(item, "File wasn't uploaded.");
+                }
+                String error = item.getError();
+                if (item.getPartialPath() != null) {
+                    closeQuietly(item.getFile());
+                    String checksum = item.getFile().checksum();
+                    if (!isIntact(item.getExpectedChecksum(), checksum)) {
+                        Path partialPath = item.getPartialPath();
+                        logger.warn("File {} was damaged in transit", item.getFilename());
+                        upload.fail(item, damagedError(item.getFilename()));
+                        releasePartial(partialPath);
+                        errors.add(item.getError());
+                        continue;
+                    }
+                    try {
+                        storeUpload(item.getPartialPath(), username, item.getFilename(), item.getSize(), checksum);
+                        changes.add(new FileChange(0, FileChange.Type.PUT, item.getFilename()));
+                    } catch (IOException e) {
+                        logger.warn("File wasn't uploaded.", e);
+                        error = "File wasn't uploaded.";
+                    }
+                }
+                errors.add(error);
+            }
+            sendBatchResponse(ctx, upload.getRequest().getId(), username, errors, changes);
         }
     }
 
@@ -182,27 +1188,149 @@ public class MainHandler extends ChannelHandlerAdapter {
         sendListFileResponse(ctx, id, username);
     }
 
-    private void sendListFileResponse(ChannelHandlerContext ctx, UUID id, String username) {
+    private void handleListPageRequest(ChannelHandlerContext ctx, ListPageRequest request) {
         try {
-            Path userDir = rootDir.resolve(username);
-            if (!Files.exists(userDir)) {
-                Files.createDirectory(userDir);
-            }
-            List<String> files = Files
-                    .list(userDir)
-                    .map(Path::getFileName)
-                    .map(Path::toString)
-                    .collect(Collectors.toList());
-            ListFilesResponse lfr =
-                    new ListFilesResponse(id, files);
-            ctx.writeAndFlush(lfr);
-        } catch (Exception e) {
-            logger.warn("Unable to list files for directory {}", username, e);
-            ctx.writeAndFlush(new ErrorResponse(id, "Unable to list files, try again"));
+            ctx.writeAndFlush(directoryListing.page(request));
+        } catch (IllegalArgumentException e) {
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Invalid listing cursor"));
         }
     }
 
-    public boolean isUploading() {
-        return toStorageFile != null;
+    private void handleSyncManifestRequest(ChannelHandlerContext ctx, SyncManifestRequest request) {
+        try {
+            ctx.writeAndFlush(syncManifest.page(request));
+        } catch (IOException e) {
+            logger.warn("Manifest isn't available.", e);
+            ctx.writeAndFlush(new ErrorResponse(request.getId(), "Manifest isn't available."));
+        }
+    }
+
+    private void sendListFileResponse(ChannelHandlerContext ctx, UUID id, String username) {
+        ListFilesResponse lfr =
+                new ListFilesResponse(id, listFileNames(username));
+        ctx.writeAndFlush(lfr);
+    }
+
+    private List<String> listFileNames(String username) {
+        return new ArrayList<>(metadataIndex.files(username).keySet());
+    }
+
+    /**
+     * Records the change of a mutation and answers it with this change only.
+     */
+    private void sendChange(ChannelHandlerContext ctx, UUID id, String username,
+                            FileChange.Type type, String name, String newName) {
+        FileChange change = changeLog.record(username, type, name, newName);
+        ctx.writeAndFlush(new ChangesResponse(
+                id, changeLog.getLogId(), change.getVersion(), false, Collections.singletonList(change)));
+    }
+
+    private void handleChangesRequest(ChannelHandlerContext ctx, ChangesRequest request) {
+        String username = request.getUsername();
+        if (request.isSubscribe()) {
+            changeLog.subscribe(username, ctx.channel());
+        }
+        List<FileChange> changes = changeLog.since(username, request.getLogId(), request.getSinceVersion());
+        if (changes != null) {
+            ctx.writeAndFlush(new ChangesResponse(
+                    request.getId(), changeLog.getLogId(), request.getSinceVersion() + changes.size(), false, changes));
+            return;
+        }
+        long version;
+        List<String> names;
+        synchronized (metadataIndex.lock(username)) {
+            version = changeLog.version(username);
+            names = listFileNames(username);
+        }
+        List<FileChange> files = names.stream()
+                .map(name -> new FileChange(version, FileChange.Type.PUT, name))
+                .collect(Collectors.toList());
+        ctx.writeAndFlush(new ChangesResponse(request.getId(), changeLog.getLogId(), version, true, files));
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.warn("Connection {} closed because of an error.", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+
+    private void abortUploads() {
+        Set<Integer> transferIds = new HashSet<>(uploads.keySet());
+        transferIds.addAll(segments.keySet());
+        transferIds.addAll(chunkUploads.keySet());
+        transferIds.addAll(deltaUploads.keySet());
+        transferIds.addAll(batchUploads.keySet());
+        transferIds.forEach(this::abortUpload);
+    }
+
+    /**
+     * Stops the transfer in whichever direction it goes. The download is cancelled on the event loop,
+     * after it has been started there if its request came first.
+     */
+    private void handleCancelTransfer(ChannelHandlerContext ctx, CancelTransfer cancel) {
+        int transferId = cancel.getTransferId();
+        Segment segment = segments.get(transferId);
+        abortUpload(transferId);
+        if (segment != null && segmentedUploads.remove(segment.request.getUploadId()) != null) {
+            // unlike a lost connection, a cancelled segment means the client gives up the whole upload
+            segmentedUploads.discard(segment.upload);
+        }
+        ctx.executor().execute(() -> downloads.cancel(transferId, new CancellationException("Download was cancelled")));
+    }
+
+    private void abortUpload(int transferId) {
+        Upload upload = uploads.remove(transferId);
+        if (upload != null) {
+            try {
+                upload.file.closeDurably();
+            } catch (IOException e) {
+                logger.warn("Can't close stream correctly.", e);
+            }
+            activeUploads.remove(upload.partialPath);
+            logger.info("Upload of {} was interrupted at {} bytes", upload.request.getFilename(), upload.file.getSize());
+        }
+        Segment segment = segments.remove(transferId);
+        if (segment != null) {
+            segment.upload.release(segment.request.getOffset());
+        }
+        ChunkUpload chunkUpload = chunkUploads.remove(transferId);
+        if (chunkUpload != null) {
+            chunkUpload.abort();
+        }
+        DeltaUpload deltaUpload = deltaUploads.get(transferId);
+        if (deltaUpload != null) {
+            discardDeltaUpload(deltaUpload);
+        }
+        BatchUpload batchUpload = batchUploads.remove(transferId);
+        if (batchUpload != null) {
+            batchUpload.abort();
+        }
+    }
+
+    private static class Upload {
+        private final UploadRequest request;
+        private final Path partialPath;
+        private final UploadFile file;
+        private final InboundWindow window;
+
+        private Upload(UploadRequest request, Path partialPath, UploadFile file) {
+            this.request = request;
+            this.partialPath = partialPath;
+            this.file = file;
+            this.window = new InboundWindow(request.getTransferId());
+        }
+    }
+
+    private static class Segment {
+        private final UploadSegmentRequest request;
+        private final SegmentedUpload upload;
+        private final InboundWindow window;
+        private long writtenBytes;
+
+        private Segment(UploadSegmentRequest request, SegmentedUpload upload) {
+            this.request = request;
+            this.upload = upload;
+            this.window = new InboundWindow(request.getTransferId());
+        }
     }
 }
@@ -0,0 +1,91 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * File of a user stored as the list of its chunks in the {@link ChunkStore}. The header has the size
+ * of the file, so that listings don't have to read the chunks.
+ */
+public class Manifest {
+    private static final int MAGIC = 0x43534d31;
+
+    @Getter
+    private final List<ChunkRef> chunks;
+    @Getter
+    private final long size;
+
+    public Manifest(List<ChunkRef> chunks) {
+        this.chunks = Collections.unmodifiableList(new ArrayList<>(chunks));
+        long size = 0;
+        for (ChunkRef chunk : chunks) {
+            size += chunk.getLength();
+        }
+        this.size = size;
+    }
+
+    public static Manifest read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            readHeader(in, path);
+            int count = in.readInt();
+            List<ChunkRef> chunks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                chunks.add(new ChunkRef(in.readUTF(), in.readInt()));
+            }
+            return new Manifest(chunks);
+        }
+    }
+
+    /**
+     * @return size of the file, read from the header only
+     */
+    public static long readSize(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return readHeader(in, path);
+        }
+    }
+
+    /**
+     * @return size of the file
+     */
+    private static long readHeader(DataInputStream in, Path path) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a manifest: " + path);
+        }
+        return in.readLong();
+    }
+
+    /**
+     * Writes the manifest and forces it to disk.
+     */
+    public void write(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeLong(size);
+            out.writeInt(chunks.size());
+            for (ChunkRef chunk : chunks) {
+                out.writeUTF(chunk.getHash());
+                out.writeInt(chunk.getLength());
+            }
+            out.flush();
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,608 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * In-memory index of the metadata of every user's files, so that requests don't stat the storage.
+ * <p>
+ * Every change is appended to a journal after it has been applied to the storage and the journal is forced
+ * before the change is answered, just as the uploaded file is. A snapshot of the whole index replaces
+ * the journal every {@code snapshotRecords} changes and on close: the journal is set aside and a new one started
+ * under the lock, the snapshot is written from a copy of the index outside of it and the set aside journal
+ * is deleted once the snapshot is on disk. Changes carry sequence numbers, replaying
+ * a journal over a snapshot that already holds some of them skips those. After a crash the journal is replayed
+ * up to its first torn record, one failing its CRC or breaking the sequence, and cut there. A crash may still
+ * come between a storage change and its record, so the replayed index is then reconciled with the storage root
+ * by a rebuild, as it is when the snapshot is missing or damaged or the journal failed. A rebuild keeps
+ * the checksums of files whose size and modification time haven't changed.
+ * <p>
+ * Callers mutating a user's files hold {@link #lock(String)} over the storage operation and the index
+ * update, so that the index sees them in the order they were applied.
+ */
+public class MetadataIndex implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MetadataIndex.class);
+
+    public static final String INDEX_DIR = ".index";
+    private static final String SNAPSHOT = "snapshot";
+    private static final String JOURNAL = "journal";
+    private static final String PREVIOUS_JOURNAL = "journal.previous";
+    private static final String OPEN_MARKER = "open";
+    private static final String REBUILD_MARKER = "rebuild";
+    private static final int SNAPSHOT_MAGIC = 0x43534931;
+    private static final int MAX_RECORD_LENGTH = 256 * 1024;
+
+    private static final byte PUT = 0;
+    private static final byte DELETE = 1;
+    private static final byte RENAME = 2;
+
+    private final Path rootDir;
+    private final Path indexDir;
+    private final ChunkStore chunkStore;
+    private final GroupCommitter groupCommitter;
+    private final int snapshotRecords;
+    private final Map<String, ConcurrentNavigableMap<String, FileMetadata>> users = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+    // held while forcing the journal, taken before this
+    private final Object forceLock = new Object();
+    // held while writing a snapshot, taken before this
+    private final Object snapshotLock = new Object();
+
+    //guarded by this
+    private FileChannel journal;
+    // journal set aside while its records are written to a snapshot
+    private FileChannel previousJournal;
+    private long sequence;
+    private int journalRecords;
+    private boolean journalFailed;
+    // sequence of the last change that is on disk, in the journal or in a snapshot
+    private volatile long durableSequence;
+
+    public MetadataIndex(Path rootDir, ChunkStore chunkStore, GroupCommitter groupCommitter, int snapshotRecords) {
+        this.rootDir = rootDir;
+        this.indexDir = rootDir.resolve(INDEX_DIR);
+        this.chunkStore = chunkStore;
+        this.groupCommitter = groupCommitter;
+        this.snapshotRecords = snapshotRecords;
+    }
+
+    /**
+     * Loads the index, rebuilding it from the storage if the server has crashed or the index is damaged.
+     * Call after {@link ChunkStore#load()}.
+     */
+    public void load() throws IOException {
+        Files.createDirectories(indexDir);
+        Path snapshot = indexDir.resolve(SNAPSHOT);
+        Path rebuildMarker = indexDir.resolve(REBUILD_MARKER);
+        boolean damaged = !Files.exists(snapshot) || Files.exists(rebuildMarker);
+        boolean crashed = Files.exists(indexDir.resolve(OPEN_MARKER));
+        synchronized (this) {
+            try {
+                if (Files.exists(snapshot)) {
+                    // read even if it is rebuilt, the rebuild keeps the checksums
+                    readSnapshot(snapshot);
+                    int replayed = replayJournal(indexDir.resolve(PREVIOUS_JOURNAL))
+                            + replayJournal(indexDir.resolve(JOURNAL));
+                    if (crashed) {
+                        logger.info("Metadata index wasn't closed cleanly, {} journal records replayed", replayed);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Metadata index is damaged, it is rebuilt from the storage", e);
+                damaged = true;
+            }
+            if (damaged || crashed) {
+                long startNanos = System.nanoTime();
+                rebuild();
+                logger.info("Metadata index rebuilt in {} ms", (System.nanoTime() - startNanos) / 1_000_000);
+            }
+        }
+        snapshot();
+        Files.write(indexDir.resolve(OPEN_MARKER), new byte[0]);
+        Files.deleteIfExists(rebuildMarker);
+        int files = users.values().stream().mapToInt(Map::size).sum();
+        logger.info("Metadata index holds {} files of {} users", files, users.size());
+    }
+
+    public Object lock(String username) {
+        return locks.computeIfAbsent(username, name -> new Object());
+    }
+
+    /**
+     * @return metadata of the file, or null if there is no such file
+     */
+    public FileMetadata get(String username, String filename) {
+        NavigableMap<String, FileMetadata> files = users.get(username);
+        return files == null ? null : files.get(filename);
+    }
+
+    /**
+     * @return live view of the user's files sorted by name
+     */
+    public NavigableMap<String, FileMetadata> files(String username) {
+        NavigableMap<String, FileMetadata> files = users.get(username);
+        return files == null ? Collections.emptyNavigableMap() : Collections.unmodifiableNavigableMap(files);
+    }
+
+    /**
+     * Creates the directory unless this has already been done since the start.
+     */
+    public void createDirectories(Path dir) throws IOException {
+        if (!directories.contains(dir)) {
+            Files.createDirectories(dir);
+            directories.add(dir);
+        }
+    }
+
+    /**
+     * Records the stored file, returning once the record is on disk.
+     */
+    public void put(String username, FileMetadata file) {
+        long recordSequence;
+        synchronized (this) {
+            userFiles(username).put(file.getName(), file);
+            recordSequence = append(PUT, username, file.getName(), out -> writeMetadata(out, file));
+        }
+        forceJournal(recordSequence);
+    }
+
+    /**
+     * Records the deleted file, returning once the record is on disk.
+     */
+    public void delete(String username, String filename) {
+        long recordSequence;
+        synchronized (this) {
+            userFiles(username).remove(filename);
+            recordSequence = append(DELETE, username, filename, out -> { });
+        }
+        forceJournal(recordSequence);
+    }
+
+    /**
+     * Records the renamed file, returning once the record is on disk.
+     */
+    public void rename(String username, String filename, String newFilename) {
+        long recordSequence;
+        synchronized (this) {
+            applyRename(userFiles(username), filename, newFilename);
+            recordSequence = append(RENAME, username, filename, out -> out.writeUTF(newFilename));
+        }
+        forceJournal(recordSequence);
+    }
+
+    /**
+     * Replaces the journal with a snapshot if enough changes have been appended to it since the last one.
+     */
+    public void snapshotIfNeeded() {
+        synchronized (this) {
+            if (journalRecords < snapshotRecords || journalFailed) {
+                return;
+            }
+        }
+        try {
+            snapshot();
+        } catch (IOException e) {
+            logger.warn("Metadata index snapshot wasn't written", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (snapshotLock) {
+            synchronized (this) {
+                if (journal == null || journalFailed) {
+                    return;
+                }
+            }
+            try {
+                snapshot();
+                synchronized (this) {
+                    journal.close();
+                    journal = null;
+                }
+                Files.delete(indexDir.resolve(OPEN_MARKER));
+            } catch (IOException e) {
+                logger.warn("Metadata index wasn't closed cleanly, it is rebuilt on the next start", e);
+            }
+        }
+    }
+
+    private ConcurrentNavigableMap<String, FileMetadata> userFiles(String username) {
+        return users.computeIfAbsent(username, name -> new ConcurrentSkipListMap<>());
+    }
+
+    private static void applyRename(Map<String, FileMetadata> files, String filename, String newFilename) {
+        FileMetadata file = files.remove(filename);
+        if (file != null) {
+            files.put(newFilename, file.renamed(newFilename));
+        }
+    }
+
+    /**
+     * Appends a record of a change, a failed journal leaves the index to be rebuilt on the next start.
+     *
+     * @return sequence of the record, 0 if there is nothing to force
+     */
+    private long append(byte type, String username, String filename, RecordBody body) {
+        if (journalFailed) {
+            return 0;
+        }
+        if (journal == null) {
+            // changed after close, the snapshot misses it
+            failJournal();
+            return 0;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(++sequence);
+            out.writeByte(type);
+            out.writeUTF(username);
+            out.writeUTF(filename);
+            body.writeTo(out);
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            ByteBuffer record = ByteBuffer.allocate(12 + bytes.size());
+            record.putInt(bytes.size()).putLong(crc.getValue()).put(bytes.toByteArray()).flip();
+            while (record.hasRemaining()) {
+                journal.write(record);
+            }
+            journalRecords++;
+            return sequence;
+        } catch (IOException e) {
+            logger.warn("Metadata journal can't be written, the index is rebuilt on the next start", e);
+            failJournal();
+            return 0;
+        }
+    }
+
+    /**
+     * Forces the journal up to the record unless a force of a later record or a snapshot has already done it,
+     * so that changes completed together share one force.
+     */
+    private void forceJournal(long recordSequence) {
+        if (recordSequence == 0) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (durableSequence >= recordSequence) {
+                return;
+            }
+            FileChannel previous;
+            FileChannel channel;
+            long lastSequence;
+            synchronized (this) {
+                if (journal == null || journalFailed) {
+                    return;
+                }
+                previous = previousJournal;
+                channel = journal;
+                lastSequence = sequence;
+            }
+            try {
+                if (previous != null) {
+                    forcePrevious(previous);
+                }
+                groupCommitter.force(channel, false);
+                synchronized (this) {
+                    durableSequence = Math.max(durableSequence, lastSequence);
+                }
+            } catch (ClosedChannelException e) {
+                // replaced by a forced snapshot holding the record
+            } catch (IOException e) {
+                logger.warn("Metadata journal can't be forced, the index is rebuilt on the next start", e);
+                synchronized (this) {
+                    failJournal();
+                }
+            }
+        }
+    }
+
+    private void forcePrevious(FileChannel previous) throws IOException {
+        try {
+            groupCommitter.force(previous, false);
+        } catch (ClosedChannelException e) {
+            // its snapshot is on disk
+        }
+    }
+
+    /**
+     * Stops journaling, the changes from now on are lost on restart so the index is rebuilt then.
+     */
+    private void failJournal() {
+        journalFailed = true;
+        try {
+            Files.write(indexDir.resolve(REBUILD_MARKER), new byte[0]);
+        } catch (IOException e) {
+            logger.warn("Metadata index can't be marked for rebuilding", e);
+        }
+    }
+
+    /**
+     * Applies the records following the snapshot and cuts the journal at the first torn one.
+     *
+     * @return number of the records applied
+     */
+    private int replayJournal(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int replayed = 0;
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    long crc = in.readLong();
+                    if (length < 0 || length > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    CRC32 actual = new CRC32();
+                    actual.update(record);
+                    if (actual.getValue() != crc) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                long recordSequence = recordIn.readLong();
+                if (recordSequence > sequence + 1) {
+                    // a record is missing, the ones after it can't be applied
+                    break;
+                }
+                if (recordSequence == sequence + 1) {
+                    replay(recordSequence, recordIn);
+                    replayed++;
+                }
+                validLength += 12 + record.length;
+            }
+        }
+        if (validLength < Files.size(path)) {
+            logger.warn("Metadata journal is cut at {} of {} bytes", validLength, Files.size(path));
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+            }
+        }
+        return replayed;
+    }
+
+    private void replay(long recordSequence, DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        String username = in.readUTF();
+        String filename = in.readUTF();
+        sequence = recordSequence;
+        Map<String, FileMetadata> files = userFiles(username);
+        if (type == PUT) {
+            files.put(filename, readMetadata(in, filename));
+        } else if (type == DELETE) {
+            files.remove(filename);
+        } else if (type == RENAME) {
+            applyRename(files, filename, in.readUTF());
+        } else {
+            throw new IOException("Unknown journal record " + type);
+        }
+    }
+
+    private void readSnapshot(Path path) throws IOException {
+        try (InputStream stream = Files.newInputStream(path)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(stream), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a metadata snapshot: " + path);
+            }
+            sequence = in.readLong();
+            int userCount = in.readInt();
+            for (int i = 0; i < userCount; i++) {
+                ConcurrentNavigableMap<String, FileMetadata> files = userFiles(in.readUTF());
+                int fileCount = in.readInt();
+                for (int j = 0; j < fileCount; j++) {
+                    String name = in.readUTF();
+                    files.put(name, readMetadata(in, name));
+                }
+            }
+            long crc = checked.getChecksum().getValue();
+            if (in.readLong() != crc) {
+                throw new IOException("Metadata snapshot is corrupted");
+            }
+        }
+    }
+
+    /**
+     * Starts a new journal and writes the index to a new snapshot, which replaces the records of the old journal.
+     * Only the copying of the index holds the lock, changes made while the snapshot is written go to the new
+     * journal.
+     */
+    private void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            Map<String, List<FileMetadata>> copy = new HashMap<>();
+            long snapshotSequence;
+            FileChannel previous;
+            synchronized (this) {
+                for (Map.Entry<String, ConcurrentNavigableMap<String, FileMetadata>> user : users.entrySet()) {
+                    copy.put(user.getKey(), new ArrayList<>(user.getValue().values()));
+                }
+                snapshotSequence = sequence;
+                Path journalPath = indexDir.resolve(JOURNAL);
+                if (Files.exists(journalPath)) {
+                    Files.move(journalPath, indexDir.resolve(PREVIOUS_JOURNAL), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+                previous = journal;
+                previousJournal = previous;
+                journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+                journalRecords = 0;
+            }
+            boolean written = false;
+            try {
+                writeSnapshot(copy, snapshotSequence);
+                written = true;
+            } finally {
+                synchronized (this) {
+                    previousJournal = null;
+                    if (written) {
+                        durableSequence = Math.max(durableSequence, snapshotSequence);
+                    }
+                }
+                if (previous != null) {
+                    if (!written) {
+                        // its records are kept only by it
+                        forcePrevious(previous);
+                    }
+                    previous.close();
+                }
+            }
+            Files.deleteIfExists(indexDir.resolve(PREVIOUS_JOURNAL));
+        }
+    }
+
+    private void writeSnapshot(Map<String, List<FileMetadata>> copy, long snapshotSequence) throws IOException {
+        Path temp = indexDir.resolve(SNAPSHOT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(snapshotSequence);
+            out.writeInt(copy.size());
+            for (Map.Entry<String, List<FileMetadata>> user : copy.entrySet()) {
+                out.writeUTF(user.getKey());
+                out.writeInt(user.getValue().size());
+                for (FileMetadata file : user.getValue()) {
+                    out.writeUTF(file.getName());
+                    writeMetadata(out, file);
+                }
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, indexDir.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        groupCommitter.forceDirectory(indexDir);
+    }
+
+    private static void writeMetadata(DataOutputStream out, FileMetadata file) throws IOException {
+        out.writeLong(file.getSize());
+        out.writeLong(file.getLastModified());
+        out.writeUTF(file.getChecksum());
+        out.writeBoolean(file.isChunked());
+    }
+
+    private static FileMetadata readMetadata(DataInputStream in, String name) throws IOException {
+        return new FileMetadata(name, in.readLong(), in.readLong(), in.readUTF(), in.readBoolean());
+    }
+
+    /**
+     * Replaces the index with the files found in the storage, the metadata known before is kept only
+     * for checksums.
+     */
+    private void rebuild() throws IOException {
+        Map<String, ConcurrentNavigableMap<String, FileMetadata>> known = new HashMap<>(users);
+        users.clear();
+        try (DirectoryStream<Path> userDirs = Files.newDirectoryStream(rootDir)) {
+            for (Path userDir : userDirs) {
+                String username = userDir.getFileName().toString();
+                if (!username.startsWith(".") && Files.isDirectory(userDir)) {
+                    scan(username, userDir, false, known.get(username));
+                }
+            }
+        }
+        Path manifestsDir = rootDir.resolve(ChunkStore.MANIFESTS_DIR);
+        if (Files.isDirectory(manifestsDir)) {
+            try (DirectoryStream<Path> userDirs = Files.newDirectoryStream(manifestsDir)) {
+                for (Path userDir : userDirs) {
+                    String username = userDir.getFileName().toString();
+                    scan(username, chunkStore.manifestDir(username), true, known.get(username));
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes the files of the directory and of its subdirectories under their paths relative to it.
+     */
+    private void scan(String username, Path dir, boolean manifests, Map<String, FileMetadata> known)
+            throws IOException {
+        ConcurrentNavigableMap<String, FileMetadata> files = userFiles(username);
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+                if (!attributes.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String name = FileNames.relativize(dir, path);
+                long size;
+                try {
+                    size = manifests ? Manifest.readSize(path) : attributes.size();
+                } catch (NoSuchFileException e) {
+                    // deleted while scanning
+                    return FileVisitResult.CONTINUE;
+                }
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                FileMetadata previous = known == null ? null : known.get(name);
+                String checksum = previous != null && previous.getSize() == size
+                        && previous.getLastModified() == lastModified && previous.isChunked() == manifests
+                        ? previous.getChecksum()
+                        : "";
+                files.put(name, new FileMetadata(name, size, lastModified, checksum, manifests));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException e) throws IOException {
+                if (e instanceof NoSuchFileException) {
+                    // deleted while scanning
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+    }
+
+    private interface RecordBody {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+}
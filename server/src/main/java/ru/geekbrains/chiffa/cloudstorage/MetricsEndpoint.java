@@ -0,0 +1,67 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderUtil;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Answers {@code GET /metrics} with the {@link ServerMetrics} in the Prometheus text format. It is served
+ * on a port of its own behind an HTTP codec, so scrapers never touch the storage protocol.
+ */
+public class MetricsEndpoint extends ChannelHandlerAdapter {
+    public static final String PATH = "/metrics";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ServerMetrics metrics;
+
+    public MetricsEndpoint(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        try {
+            if (msg instanceof HttpRequest) {
+                respond(ctx, (HttpRequest) msg);
+            }
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void respond(ChannelHandlerContext ctx, HttpRequest request) {
+        FullHttpResponse response;
+        if (!request.method().equals(HttpMethod.GET)) {
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.METHOD_NOT_ALLOWED);
+        } else if (!request.uri().equals(PATH) && !request.uri().startsWith(PATH + '?')) {
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+        } else {
+            StringBuilder text = new StringBuilder(4096);
+            metrics.writeText(text);
+            ByteBuf content = Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, CONTENT_TYPE);
+        }
+        HttpHeaderUtil.setContentLength(response, response.content().readableBytes());
+        // scrapes are rare, a connection per scrape keeps the endpoint simple
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.close();
+    }
+}
@@ -0,0 +1,72 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Times the requests of a connection from their arrival to their response and counts transfer bytes.
+ * It sits between the frame codec and {@link MainHandler}, so it sees decoded requests and all writes of
+ * responses, which run on the event loop whichever thread has made them.
+ */
+public class MetricsHandler extends ChannelHandlerAdapter {
+    private final ServerMetrics metrics;
+    //arrival of requests waiting for their responses, accessed only from the event loop
+    private final Map<UUID, PendingRequest> pendingRequests = new HashMap<>();
+
+    public MetricsHandler(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof DataFrame) {
+            metrics.received(contentSize((DataFrame) msg));
+        } else if (msg instanceof Request) {
+            Request request = (Request) msg;
+            Operation operation = Operation.of(request.getOpcode());
+            pendingRequests.put(request.getId(), new PendingRequest(operation, System.nanoTime()));
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (msg instanceof DataFrame) {
+            metrics.sent(contentSize((DataFrame) msg));
+        } else if (msg instanceof Response) {
+            PendingRequest request = pendingRequests.remove(((Response) msg).getId());
+            if (request != null) {
+                metrics.requestCompleted(request.operation, request.startNanos, msg instanceof ErrorResponse);
+            }
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        metrics.exception(cause);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    private static long contentSize(DataFrame frame) {
+        Object content = frame.getContent();
+        return content instanceof FileRegion ? ((FileRegion) content).count() : ((ByteBuf) content).readableBytes();
+    }
+
+    private static class PendingRequest {
+        private final Operation operation;
+        private final long startNanos;
+
+        private PendingRequest(Operation operation, long startNanos) {
+            this.operation = operation;
+            this.startNanos = startNanos;
+        }
+    }
+}
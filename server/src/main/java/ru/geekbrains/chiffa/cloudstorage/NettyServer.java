@@ -1,61 +1,191 @@
 package ru.geekbrains.chiffa.cloudstorage;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.serialization.ClassResolvers;
-import io.netty.handler.codec.serialization.ObjectEncoder;
+import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.logging.LoggingHandler;
-import io.netty.handler.stream.ChunkedWriteHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class NettyServer implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(NettyServer.class);
-    private final EventLoopGroup acceptGroup = new NioEventLoopGroup(1);
-    private final EventLoopGroup workerGroup = new NioEventLoopGroup();
-    private final ServerBootstrap serverBootstrap = setUpServer();
-    private final Path storagePath;
+    private static final int DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;
+    private static final String HOT_FILE_CACHE_MBEAN = "ru.geekbrains.chiffa.cloudstorage:type=HotFileCache";
+    private static final String SERVER_METRICS_MBEAN = "ru.geekbrains.chiffa.cloudstorage:type=ServerMetrics";
+    private final ServerConfig config;
+    private final boolean epoll;
+    private final EventLoopGroup acceptGroup;
+    private final EventLoopGroup workerGroup;
+    private final ServerBootstrap serverBootstrap;
+    private final GroupCommitter groupCommitter;
+    private final StorageExecutor storageExecutor;
+    private final Set<Path> activeUploads = ConcurrentHashMap.newKeySet();
+    private final SegmentedUploads segmentedUploads;
+    private final ChunkStore chunkStore;
+    private final ChangeLog changeLog;
+    private final MetadataIndex metadataIndex;
+    private final SyncManifest syncManifest;
+    // writes snapshots of the index, which take too long for an event loop
+    private final ScheduledExecutorService snapshotExecutor;
+    private final HotFileCache hotFileCache;
+    private final UploadBudget uploadBudget;
+    private final TrafficShaper trafficShaper;
+    private final ServerMetrics metrics;
 
     public NettyServer(Path storagePath) {
-        this.storagePath = storagePath;
+        this(withStoragePath(storagePath));
     }
 
+    public NettyServer(ServerConfig config) {
+        this.config = config;
+        this.epoll = useEpoll(config.getTransport());
+        this.acceptGroup = epoll ? new EpollEventLoopGroup(1) : new NioEventLoopGroup(1);
+        this.workerGroup = epoll
+                ? new EpollEventLoopGroup(config.getWorkerThreads())
+                : new NioEventLoopGroup(config.getWorkerThreads());
+        this.metrics = new ServerMetrics(activeUploads::size, workerGroup);
+        this.groupCommitter = new GroupCommitter(config.getGroupCommitWindowMillis(), metrics.getFsyncLatency());
+        this.storageExecutor = new StorageExecutor(config.getStorageThreads(), config.getStorageQueueDepth());
+        this.segmentedUploads = new SegmentedUploads(activeUploads, config.getSegmentedUploadTimeoutMillis());
+        this.chunkStore = new ChunkStore(config.getStoragePath());
+        this.changeLog = new ChangeLog(config.getChangeLogRetention());
+        this.metadataIndex = new MetadataIndex(
+                config.getStoragePath(), chunkStore, groupCommitter, config.getIndexSnapshotRecords());
+        this.syncManifest = new SyncManifest(config.getStoragePath(), metadataIndex, chunkStore);
+        this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread snapshotThread = new Thread(runnable, "metadata-snapshot");
+            snapshotThread.setDaemon(true);
+            return snapshotThread;
+        });
+        this.hotFileCache = new HotFileCache(config.getHotFileMaxSize(), config.getHotFileCacheBytes());
+        this.uploadBudget = new UploadBudget(config.getUploadBudgetBytes());
+        this.trafficShaper = new TrafficShaper(config);
+        this.serverBootstrap = setUpServer();
+    }
+
+    private static boolean useEpoll(Transport transport) {
+        switch (transport) {
+            case EPOLL:
+                Epoll.ensureAvailability();
+                return true;
+            case NIO:
+                return false;
+            default:
+                if (!Epoll.isAvailable()) {
+                    logger.debug("Native epoll isn't available", Epoll.unavailabilityCause());
+                }
+                return Epoll.isAvailable();
+        }
+    }
+
+    private static ServerConfig withStoragePath(Path storagePath) {
+        ServerConfig config = new ServerConfig();
+        config.setStoragePath(storagePath);
+        return config;
+    }
 
     private ServerBootstrap setUpServer() {
-        return new ServerBootstrap()
+        ByteBufAllocator allocator = config.isPooledAllocator()
+                ? new PooledByteBufAllocator(config.isPreferDirectBuffers())
+                : new UnpooledByteBufAllocator(config.isPreferDirectBuffers());
+        ServerBootstrap bootstrap = new ServerBootstrap()
                 .group(acceptGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, config.getBacklog())
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay());
+        if (config.getReceiveBufferSize() > 0) {
+            // set on the listening socket, so that accepted ones get a window scale fitting the buffer
+            bootstrap.option(ChannelOption.SO_RCVBUF, config.getReceiveBufferSize());
+        }
+        if (config.getSendBufferSize() > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, config.getSendBufferSize());
+        }
+        // each mark is checked against the other one when set, so the order depends on where they move
+        if (config.getWriteBufferLowWaterMark() > DEFAULT_WRITE_BUFFER_HIGH_WATER_MARK) {
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, config.getWriteBufferHighWaterMark())
+                    .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, config.getWriteBufferLowWaterMark());
+        } else {
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, config.getWriteBufferLowWaterMark())
+                    .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, config.getWriteBufferHighWaterMark());
+        }
+        return bootstrap
                 .handler(new LoggingHandler())
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     protected void initChannel(SocketChannel channel) {
                         channel.pipeline().addLast(
-                                new ChunkedWriteHandler(),
-                                new SwitchableObjectDecoder(ClassResolvers.cacheDisabled(Request.class.getClassLoader())),
-                                new ObjectEncoder(),
-                                new MainHandler(storagePath)
+                                new FrameDecoder(),
+                                new FrameEncoder(),
+                                new MetricsHandler(metrics),
+                                new MainHandler(
+                                        config, groupCommitter, storageExecutor.next(), activeUploads, segmentedUploads,
+                                        chunkStore, changeLog, metadataIndex, syncManifest, hotFileCache,
+                                        uploadBudget, trafficShaper, metrics)
                         );
                     }
                 });
     }
 
+    private ServerBootstrap setUpMetricsEndpoint() {
+        return new ServerBootstrap()
+                .group(acceptGroup, workerGroup)
+                .channel(epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        channel.pipeline().addLast(new HttpServerCodec(), new MetricsEndpoint(metrics));
+                    }
+                });
+    }
+
     public void start() throws InterruptedException, IOException {
+        Path storagePath = config.getStoragePath();
         if (!Files.exists(storagePath)) {
             Files.createDirectory(storagePath);
         }
+        chunkStore.load();
+        metadataIndex.load();
+        snapshotExecutor.scheduleAtFixedRate(metadataIndex::snapshotIfNeeded, 10, 10, TimeUnit.SECONDS);
+        registerMBean(hotFileCache, HOT_FILE_CACHE_MBEAN);
+        registerMBean(metrics, SERVER_METRICS_MBEAN);
+        acceptGroup.scheduleAtFixedRate(metrics::probeEventLoops, 1, 1, TimeUnit.SECONDS);
+
+        long expireMillis = config.getSegmentedUploadTimeoutMillis();
+        acceptGroup.scheduleAtFixedRate(segmentedUploads::expire, expireMillis, expireMillis, TimeUnit.MILLISECONDS);
 
-        Channel channel = serverBootstrap.bind(8888).sync().channel();
-        logger.info("Server started");
+        if (config.getMetricsPort() > 0) {
+            setUpMetricsEndpoint().bind(config.getMetricsPort()).sync();
+            logger.info("Metrics are served on port {} at {}", config.getMetricsPort(), MetricsEndpoint.PATH);
+        }
+        Channel channel = serverBootstrap.bind(config.getPort()).sync().channel();
+        logger.info("Server started on port {} with {} transport, downloads use {}, uploads are synced {}",
+                config.getPort(), epoll ? "epoll" : "NIO", config.getDownloadMode(), config.getSyncPolicy());
         channel.closeFuture().sync();
     }
 
@@ -63,11 +193,38 @@ public class NettyServer implements AutoCloseable {
     public void close() {
         acceptGroup.shutdownGracefully();
         workerGroup.shutdownGracefully();
+        syncManifest.close();
+        groupCommitter.close();
+        storageExecutor.close();
+        snapshotExecutor.shutdown();
+        metadataIndex.close();
+        unregisterMBean(HOT_FILE_CACHE_MBEAN);
+        unregisterMBean(SERVER_METRICS_MBEAN);
+        hotFileCache.clear();
         logger.info("Server closed");
     }
 
+    private static void registerMBean(Object mbean, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(name));
+        } catch (JMException e) {
+            logger.warn("MBean {} isn't registered: {}", name, e.toString());
+        }
+    }
+
+    private static void unregisterMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+        } catch (JMException e) {
+            logger.debug("MBean {} isn't unregistered", name, e);
+        }
+    }
+
+    /**
+     * Takes the settings of {@link ServerConfig#load(String[])} as {@code --<name>=<value>} arguments.
+     */
     public static void main(String[] args) throws InterruptedException, IOException {
-        try (NettyServer server = new NettyServer(Paths.get("server_storage"))) {
+        try (NettyServer server = new NettyServer(ServerConfig.load(args))) {
             server.start();
         }
     }
@@ -0,0 +1,53 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * Kinds of requests the server keeps {@link ServerMetrics} of.
+ */
+public enum Operation {
+    LIST,
+    /**
+     * Any request of the upload protocols: plain, segmented, deduplicated and delta ones.
+     */
+    UPLOAD,
+    DOWNLOAD,
+    RENAME,
+    DELETE,
+    /**
+     * Deletes and renames of a {@link BatchRequest}.
+     */
+    BATCH,
+    OTHER;
+
+    public static Operation of(Opcode opcode) {
+        switch (opcode) {
+            case LIST_FILES_REQUEST:
+            case LIST_PAGE_REQUEST:
+            case CHANGES_REQUEST:
+            case SYNC_MANIFEST_REQUEST:
+                return LIST;
+            case UPLOAD_REQUEST:
+            case UPLOAD_STATUS_REQUEST:
+            case SEGMENTED_UPLOAD_REQUEST:
+            case UPLOAD_SEGMENT_REQUEST:
+            case COMMIT_UPLOAD_REQUEST:
+            case CHUNK_QUERY_REQUEST:
+            case CHUNK_UPLOAD_REQUEST:
+            case COMMIT_MANIFEST_REQUEST:
+            case SIGNATURE_REQUEST:
+            case DELTA_UPLOAD_REQUEST:
+            case BATCH_UPLOAD_REQUEST:
+                return UPLOAD;
+            case DOWNLOAD_REQUEST:
+            case BATCH_DOWNLOAD_REQUEST:
+                return DOWNLOAD;
+            case RENAME_REQUEST:
+                return RENAME;
+            case DELETE_REQUEST:
+                return DELETE;
+            case BATCH_REQUEST:
+                return BATCH;
+            default:
+                return OTHER;
+        }
+    }
+}
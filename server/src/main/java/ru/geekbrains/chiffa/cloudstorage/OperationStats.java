@@ -0,0 +1,20 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Requests of one {@link Operation} as exported over JMX. Latencies run from the arrival of the request
+ * to its response, for uploads this includes receiving the data.
+ */
+@Getter
+@AllArgsConstructor
+public class OperationStats {
+    private final String operation;
+    private final long count;
+    private final long errors;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p99Millis;
+    private final double p999Millis;
+}
@@ -0,0 +1,218 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Upload whose segments are written concurrently by the storage threads of several connections.
+ * The target file is preallocated to its final size, every segment writes its own byte range
+ * with positional writes, so segments never move a shared file position.
+ * <p>
+ * The checksum of the file is computed as its bytes are written once they continue the hashed part. Bytes written
+ * ahead of it are read back from the file when the hashed part reaches them, so the file isn't read as a whole
+ * on commit.
+ */
+public class SegmentedUpload implements AutoCloseable {
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    @Getter
+    private final UUID id;
+    @Getter
+    private final String username;
+    @Getter
+    private final String filename;
+    @Getter
+    private final long fileSize;
+    /**
+     * Checksum the client has sent for the file, empty if it isn't known.
+     */
+    @Getter
+    private final String expectedChecksum;
+    @Getter
+    private final Path partialPath;
+    private final FileChannel channel;
+    private final SyncPolicy syncPolicy;
+    private final GroupCommitter groupCommitter;
+    @Getter
+    private final long startNanos = System.nanoTime();
+
+    //byte ranges of segments being written or written, offset to end
+    private final TreeMap<Long, Long> segments = new TreeMap<>();
+    private long storedBytes;
+    private volatile long lastActivityNanos = startNanos;
+
+    //guarded by checksum
+    private final ContentChecksum checksum = new ContentChecksum();
+    private long hashedBytes;
+    //byte ranges written past the hashed part, offset to end
+    private final TreeMap<Long, Long> unhashed = new TreeMap<>();
+
+    public SegmentedUpload(SegmentedUploadRequest request, Path partialPath, ServerConfig config,
+                           GroupCommitter groupCommitter) throws IOException {
+        this.id = request.getId();
+        this.username = request.getUsername();
+        this.filename = request.getFilename();
+        this.fileSize = request.getFileSize();
+        this.expectedChecksum = request.getChecksum();
+        this.partialPath = partialPath;
+        this.syncPolicy = config.getSyncPolicy();
+        this.groupCommitter = groupCommitter;
+        this.channel = FileChannel.open(partialPath.normalize(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            channel.truncate(0);
+            if (fileSize > 0) {
+                // reserves the final size, writes of the segments never extend the file
+                channel.write(ByteBuffer.allocate(1), fileSize - 1);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Claims a byte range for a segment.
+     *
+     * @return false if the range is out of the file or overlaps a segment claimed before
+     */
+    public synchronized boolean reserve(long offset, long length) {
+        if (offset < 0 || length <= 0 || offset + length > fileSize) {
+            return false;
+        }
+        Map.Entry<Long, Long> previous = segments.floorEntry(offset);
+        Map.Entry<Long, Long> next = segments.ceilingEntry(offset);
+        if ((previous != null && previous.getValue() > offset) || (next != null && next.getKey() < offset + length)) {
+            return false;
+        }
+        segments.put(offset, offset + length);
+        touch();
+        return true;
+    }
+
+    /**
+     * Gives back the range of a segment that wasn't written completely, so that it can be sent again.
+     */
+    public synchronized void release(long offset) {
+        segments.remove(offset);
+    }
+
+    public synchronized void segmentStored(long length) {
+        storedBytes += length;
+        touch();
+    }
+
+    public synchronized boolean isComplete() {
+        return storedBytes == fileSize;
+    }
+
+    public void write(ByteBuf buf, long position) throws IOException {
+        ByteBuf written = buf.slice();
+        long start = position;
+        while (buf.isReadable()) {
+            int count = channel.write(buf.nioBuffer(), position);
+            buf.skipBytes(count);
+            position += count;
+        }
+        if (syncPolicy == SyncPolicy.EVERY_WRITE) {
+            groupCommitter.force(channel, false);
+        }
+        hash(written, start);
+        touch();
+    }
+
+    /**
+     * @return checksum of the file, to be taken once all of its segments have been stored
+     */
+    public String checksum() {
+        synchronized (checksum) {
+            return checksum.finish();
+        }
+    }
+
+    /**
+     * Adds the written bytes to the checksum if they continue the hashed part, otherwise keeps their range
+     * for later. A segment sent again after a failure writes the same bytes, those already hashed are skipped.
+     */
+    private void hash(ByteBuf written, long position) throws IOException {
+        long end = position + written.readableBytes();
+        synchronized (checksum) {
+            if (position <= hashedBytes && end > hashedBytes) {
+                written.skipBytes((int) (hashedBytes - position));
+                checksum.update(written);
+                hashedBytes = end;
+            } else if (position > hashedBytes) {
+                Map.Entry<Long, Long> previous = unhashed.floorEntry(position);
+                if (previous != null && previous.getValue() >= position) {
+                    unhashed.put(previous.getKey(), Math.max(previous.getValue(), end));
+                } else {
+                    unhashed.merge(position, end, Math::max);
+                }
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = unhashed.firstEntry()) != null && next.getKey() <= hashedBytes) {
+                unhashed.pollFirstEntry();
+                if (next.getValue() > hashedBytes) {
+                    hashStored(hashedBytes, next.getValue());
+                    hashedBytes = next.getValue();
+                }
+            }
+        }
+    }
+
+    private void hashStored(long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(HASH_BUFFER_SIZE, to - from));
+        for (long position = from; position < to; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), to - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                throw new EOFException("Stored segment is shorter than expected");
+            }
+            buffer.flip();
+            checksum.update(buffer);
+            position += read;
+        }
+    }
+
+    /**
+     * @return future completed when all written segments have been forced to disk
+     */
+    public CompletableFuture<Void> sync() {
+        if (syncPolicy == SyncPolicy.GROUP_COMMIT) {
+            return groupCommitter.sync(channel);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            groupCommitter.force(channel, true);
+            future.complete(null);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public long idleNanos() {
+        return System.nanoTime() - lastActivityNanos;
+    }
+
+    private void touch() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
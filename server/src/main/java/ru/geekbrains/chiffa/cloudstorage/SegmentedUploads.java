@@ -0,0 +1,68 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Segmented uploads of the server by their ids. They are shared by all connections, since segments
+ * of one upload usually arrive over different ones.
+ */
+public class SegmentedUploads {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedUploads.class);
+
+    private final Map<UUID, SegmentedUpload> uploads = new ConcurrentHashMap<>();
+    private final Set<Path> activeUploads;
+    private final long timeoutNanos;
+
+    public SegmentedUploads(Set<Path> activeUploads, long timeoutMillis) {
+        this.activeUploads = activeUploads;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    public void add(SegmentedUpload upload) {
+        uploads.put(upload.getId(), upload);
+    }
+
+    public SegmentedUpload get(UUID id) {
+        return uploads.get(id);
+    }
+
+    public SegmentedUpload remove(UUID id) {
+        return uploads.remove(id);
+    }
+
+    /**
+     * Drops uploads that have received nothing for longer than the timeout, their clients have given up.
+     */
+    public void expire() {
+        for (SegmentedUpload upload : uploads.values()) {
+            if (upload.idleNanos() > timeoutNanos && uploads.remove(upload.getId(), upload)) {
+                discard(upload);
+                logger.info("Segmented upload of {} expired", upload.getFilename());
+            }
+        }
+    }
+
+    /**
+     * Closes the upload, deletes what was written of it and frees its file for other uploads.
+     */
+    public void discard(SegmentedUpload upload) {
+        try {
+            upload.close();
+            Files.deleteIfExists(upload.getPartialPath());
+        } catch (IOException e) {
+            logger.warn("Can't discard upload of {} correctly.", upload.getFilename(), e);
+        } finally {
+            activeUploads.remove(upload.getPartialPath());
+        }
+    }
+}
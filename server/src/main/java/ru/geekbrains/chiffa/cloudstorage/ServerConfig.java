@@ -0,0 +1,280 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Function;
+
+@Getter
+@Setter
+public class ServerConfig {
+    private static final String PREFIX = "cloudstorage.";
+    private static final String CONFIG = "config";
+
+    private Path storagePath = Paths.get("server_storage");
+    private int port = 8888;
+    private DownloadMode downloadMode = DownloadMode.ZERO_COPY;
+    private SyncPolicy syncPolicy = SyncPolicy.ON_COMPLETE;
+    private long syncBytes = 64L * 1024 * 1024;
+    private long syncIntervalMillis = 1000;
+    private long groupCommitWindowMillis = 2;
+    private int storageThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int storageQueueDepth = 1024;
+    private long segmentedUploadTimeoutMillis = 60_000;
+    private int changeLogRetention = 10_000;
+    private int indexSnapshotRecords = 100_000;
+    private long hotFileMaxSize = 256 * 1024;
+    private long hotFileCacheBytes = 64L * 1024 * 1024;
+    /**
+     * Upload bytes of a connection read but not yet written to disk, above the high mark the connection
+     * isn't read until they drop below the low one.
+     */
+    private long uploadLowWaterMark = 4L * 1024 * 1024;
+    private long uploadHighWaterMark = 8L * 1024 * 1024;
+    /**
+     * Upload bytes of all connections read but not yet written to disk.
+     */
+    private long uploadBudgetBytes = 256L * 1024 * 1024;
+    /**
+     * Rate limits of transfer data in bytes per second, 0 for no limit. Reads are uploads, writes are downloads.
+     * Uploaded data counts against the user who last started an upload on the connection.
+     */
+    private long globalReadRate = 0;
+    private long globalWriteRate = 0;
+    private long userReadRate = 0;
+    private long userWriteRate = 0;
+    private long connectionReadRate = 0;
+    private long connectionWriteRate = 0;
+    /**
+     * Chunks a user's downloads send in a round of a connection's round robin, written as
+     * {@code name:weight} pairs separated by commas; users not listed have weight 1.
+     */
+    private Map<String, Integer> userWeights = Collections.emptyMap();
+    /**
+     * Port of the HTTP endpoint serving metrics as text, 0 to serve them only over JMX.
+     */
+    private int metricsPort = 0;
+
+    private Transport transport = Transport.AUTO;
+    /**
+     * Event loop threads serving the connections, 0 for Netty's default of twice the number of cores.
+     */
+    private int workerThreads = 0;
+    private int backlog = 1024;
+    /**
+     * Socket buffer sizes, 0 keeps the system default and its autotuning.
+     */
+    private int receiveBufferSize = 0;
+    private int sendBufferSize = 0;
+    private boolean tcpNoDelay = true;
+    private int writeBufferLowWaterMark = 32 * 1024;
+    private int writeBufferHighWaterMark = 64 * 1024;
+    private boolean pooledAllocator = true;
+    private boolean preferDirectBuffers = true;
+
+    /**
+     * Loads the configuration from, in increasing priority: the properties file named by {@code --config=<file>}
+     * or the {@code cloudstorage.config} system property, {@code cloudstorage.<name>} system properties
+     * and {@code --<name>=<value>} arguments. Names are the names of the fields.
+     *
+     * @throws IllegalArgumentException on an unknown name or an invalid value
+     */
+    public static ServerConfig load(String[] args) throws IOException {
+        Map<String, String> arguments = parseArguments(args);
+        Properties properties = new Properties();
+        String file = arguments.containsKey(CONFIG)
+                ? arguments.remove(CONFIG)
+                : System.getProperty(PREFIX + CONFIG);
+        if (file != null) {
+            try (Reader reader = Files.newBufferedReader(Paths.get(file))) {
+                properties.load(reader);
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PREFIX) && !name.equals(PREFIX + CONFIG)) {
+                properties.setProperty(name.substring(PREFIX.length()), System.getProperty(name));
+            }
+        }
+        properties.putAll(arguments);
+        return fromProperties(properties);
+    }
+
+    public static ServerConfig fromSystemProperties() {
+        try {
+            return load(new String[0]);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Configuration file isn't readable", e);
+        }
+    }
+
+    public static ServerConfig fromProperties(Properties properties) {
+        ServerConfig config = new ServerConfig();
+        Settings settings = new Settings(properties);
+        config.setStoragePath(settings.get("storagePath", config.getStoragePath(), Paths::get));
+        config.setPort(settings.get("port", config.getPort(), Integer::valueOf));
+        config.setDownloadMode(settings.get("downloadMode", config.getDownloadMode(), DownloadMode::valueOf));
+        config.setSyncPolicy(settings.get("syncPolicy", config.getSyncPolicy(), SyncPolicy::valueOf));
+        config.setSyncBytes(settings.get("syncBytes", config.getSyncBytes(), Long::valueOf));
+        config.setSyncIntervalMillis(settings.get("syncIntervalMillis", config.getSyncIntervalMillis(), Long::valueOf));
+        config.setGroupCommitWindowMillis(
+                settings.get("groupCommitWindowMillis", config.getGroupCommitWindowMillis(), Long::valueOf));
+        config.setStorageThreads(settings.get("storageThreads", config.getStorageThreads(), Integer::valueOf));
+        config.setStorageQueueDepth(settings.get("storageQueueDepth", config.getStorageQueueDepth(), Integer::valueOf));
+        config.setSegmentedUploadTimeoutMillis(
+                settings.get("segmentedUploadTimeoutMillis", config.getSegmentedUploadTimeoutMillis(), Long::valueOf));
+        config.setChangeLogRetention(
+                settings.get("changeLogRetention", config.getChangeLogRetention(), Integer::valueOf));
+        config.setIndexSnapshotRecords(
+                settings.get("indexSnapshotRecords", config.getIndexSnapshotRecords(), Integer::valueOf));
+        config.setHotFileMaxSize(settings.get("hotFileMaxSize", config.getHotFileMaxSize(), Long::valueOf));
+        config.setHotFileCacheBytes(settings.get("hotFileCacheBytes", config.getHotFileCacheBytes(), Long::valueOf));
+        config.setUploadLowWaterMark(settings.get("uploadLowWaterMark", config.getUploadLowWaterMark(), Long::valueOf));
+        config.setUploadHighWaterMark(
+                settings.get("uploadHighWaterMark", config.getUploadHighWaterMark(), Long::valueOf));
+        config.setUploadBudgetBytes(settings.get("uploadBudgetBytes", config.getUploadBudgetBytes(), Long::valueOf));
+        config.setGlobalReadRate(settings.get("globalReadRate", config.getGlobalReadRate(), Long::valueOf));
+        config.setGlobalWriteRate(settings.get("globalWriteRate", config.getGlobalWriteRate(), Long::valueOf));
+        config.setUserReadRate(settings.get("userReadRate", config.getUserReadRate(), Long::valueOf));
+        config.setUserWriteRate(settings.get("userWriteRate", config.getUserWriteRate(), Long::valueOf));
+        config.setConnectionReadRate(settings.get("connectionReadRate", config.getConnectionReadRate(), Long::valueOf));
+        config.setConnectionWriteRate(
+                settings.get("connectionWriteRate", config.getConnectionWriteRate(), Long::valueOf));
+        config.setUserWeights(settings.get("userWeights", config.getUserWeights(), Settings::parseWeights));
+        config.setMetricsPort(settings.get("metricsPort", config.getMetricsPort(), Integer::valueOf));
+
+        config.setTransport(settings.get("transport", config.getTransport(), Transport::valueOf));
+        config.setWorkerThreads(settings.get("workerThreads", config.getWorkerThreads(), Integer::valueOf));
+        config.setBacklog(settings.get("backlog", config.getBacklog(), Integer::valueOf));
+        config.setReceiveBufferSize(settings.get("receiveBufferSize", config.getReceiveBufferSize(), Integer::valueOf));
+        config.setSendBufferSize(settings.get("sendBufferSize", config.getSendBufferSize(), Integer::valueOf));
+        config.setTcpNoDelay(settings.get("tcpNoDelay", config.isTcpNoDelay(), Settings::parseBoolean));
+        config.setWriteBufferLowWaterMark(
+                settings.get("writeBufferLowWaterMark", config.getWriteBufferLowWaterMark(), Integer::valueOf));
+        config.setWriteBufferHighWaterMark(
+                settings.get("writeBufferHighWaterMark", config.getWriteBufferHighWaterMark(), Integer::valueOf));
+        config.setPooledAllocator(settings.get("pooledAllocator", config.isPooledAllocator(), Settings::parseBoolean));
+        config.setPreferDirectBuffers(
+                settings.get("preferDirectBuffers", config.isPreferDirectBuffers(), Settings::parseBoolean));
+        settings.checkUnknown();
+        config.validate();
+        return config;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the values don't fit together
+     */
+    public void validate() {
+        if (port < 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid port " + port);
+        }
+        if (metricsPort < 0 || metricsPort > 0xFFFF || metricsPort != 0 && metricsPort == port) {
+            throw new IllegalArgumentException("Invalid metrics port " + metricsPort);
+        }
+        if (workerThreads < 0 || backlog < 0 || receiveBufferSize < 0 || sendBufferSize < 0) {
+            throw new IllegalArgumentException("Thread count, backlog and buffer sizes can't be negative");
+        }
+        if (storageThreads <= 0 || storageQueueDepth <= 0) {
+            throw new IllegalArgumentException(String.format("Storage threads %d or queue depth %d are invalid",
+                    storageThreads, storageQueueDepth));
+        }
+        if (syncBytes <= 0 || segmentedUploadTimeoutMillis <= 0) {
+            throw new IllegalArgumentException(String.format("Sync bytes %d or segmented upload timeout %d are invalid",
+                    syncBytes, segmentedUploadTimeoutMillis));
+        }
+        if (indexSnapshotRecords <= 0 || changeLogRetention <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Index snapshot records %d or change log retention %d are invalid",
+                    indexSnapshotRecords, changeLogRetention));
+        }
+        if (writeBufferLowWaterMark < 0 || writeBufferLowWaterMark > writeBufferHighWaterMark) {
+            throw new IllegalArgumentException(String.format("Write buffer water marks %d-%d are invalid",
+                    writeBufferLowWaterMark, writeBufferHighWaterMark));
+        }
+        if (uploadLowWaterMark < 0 || uploadLowWaterMark > uploadHighWaterMark || uploadBudgetBytes <= 0) {
+            throw new IllegalArgumentException(String.format("Upload water marks %d-%d or budget %d are invalid",
+                    uploadLowWaterMark, uploadHighWaterMark, uploadBudgetBytes));
+        }
+        if (globalReadRate < 0 || globalWriteRate < 0 || userReadRate < 0 || userWriteRate < 0
+                || connectionReadRate < 0 || connectionWriteRate < 0) {
+            throw new IllegalArgumentException("Rate limits can't be negative");
+        }
+        if (userWeights.values().stream().anyMatch(weight -> weight < 1)) {
+            throw new IllegalArgumentException("User weights must be positive: " + userWeights);
+        }
+    }
+
+    private static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> arguments = new LinkedHashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Expected --<name>=<value> but got " + arg);
+            }
+            arguments.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return arguments;
+    }
+
+    private static class Settings {
+        private final Properties properties;
+        private final Set<String> unknown;
+
+        private Settings(Properties properties) {
+            this.properties = properties;
+            this.unknown = new HashSet<>(properties.stringPropertyNames());
+        }
+
+        private <T> T get(String name, T defaultValue, Function<String, T> parser) {
+            unknown.remove(name);
+            String value = properties.getProperty(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return parser.apply(value.trim());
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(String.format("Invalid value of %s: %s", name, value), e);
+            }
+        }
+
+        private void checkUnknown() {
+            if (!unknown.isEmpty()) {
+                throw new IllegalArgumentException("Unknown configuration settings " + unknown);
+            }
+        }
+
+        private static Map<String, Integer> parseWeights(String value) {
+            Map<String, Integer> weights = new HashMap<>();
+            for (String pair : value.split(",")) {
+                if (pair.trim().isEmpty()) {
+                    continue;
+                }
+                int separator = pair.lastIndexOf(':');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected <name>:<weight> but got " + pair);
+                }
+                weights.put(pair.substring(0, separator).trim(), Integer.valueOf(pair.substring(separator + 1).trim()));
+            }
+            return weights;
+        }
+
+        private static Boolean parseBoolean(String value) {
+            if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                throw new IllegalArgumentException("Not a boolean: " + value);
+            }
+            return Boolean.valueOf(value);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters and latency histograms of the server, exported over JMX and as text by {@link MetricsEndpoint}.
+ * Recording only adds to striped counters and histogram buckets, so it is cheap enough for every request
+ * and data frame.
+ * <p>
+ * Thread safe.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder activeDownloads = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> exceptions = new ConcurrentHashMap<>();
+    @Getter
+    private final LatencyHistogram fsyncLatency = new LatencyHistogram();
+    private final LatencyHistogram eventLoopLag = new LatencyHistogram();
+    private final IntSupplier activeUploads;
+    private final EventLoopGroup eventLoops;
+
+    /**
+     * @param activeUploads number of files being uploaded
+     * @param eventLoops    event loops serving the connections
+     */
+    public ServerMetrics(IntSupplier activeUploads, EventLoopGroup eventLoops) {
+        this.activeUploads = activeUploads;
+        this.eventLoops = eventLoops;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    public void requestCompleted(Operation operation, long startNanos, boolean failed) {
+        latencies.get(operation).recordSince(startNanos);
+        if (failed) {
+            errors.get(operation).increment();
+        }
+    }
+
+    public void received(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    public void sent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void downloadStarted() {
+        activeDownloads.increment();
+    }
+
+    public void downloadFinished() {
+        activeDownloads.decrement();
+    }
+
+    public void exception(Throwable cause) {
+        exceptions.computeIfAbsent(cause.getClass().getSimpleName(), ignored -> new LongAdder()).increment();
+    }
+
+    /**
+     * Measures how long a task waits in the queue of every event loop. Called periodically.
+     */
+    public void probeEventLoops() {
+        for (EventExecutor eventLoop : eventLoops.children()) {
+            long startNanos = System.nanoTime();
+            eventLoop.execute(() -> eventLoopLag.recordSince(startNanos));
+        }
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> operations = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram latency = latencies.get(operation);
+            long count = latency.getCount();
+            operations.add(new OperationStats(operation.name(), count, errors.get(operation).sum(),
+                    count == 0 ? 0 : toMillis(latency.getTotalNanos() / count),
+                    toMillis(latency.percentileNanos(0.5)), toMillis(latency.percentileNanos(0.99)),
+                    toMillis(latency.percentileNanos(0.999))));
+        }
+        return operations;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public int getActiveUploads() {
+        return activeUploads.getAsInt();
+    }
+
+    @Override
+    public long getActiveDownloads() {
+        return activeDownloads.sum();
+    }
+
+    @Override
+    public long getEventLoopPendingTasks() {
+        long pendingTasks = 0;
+        for (EventExecutor eventLoop : eventLoops.children()) {
+            if (eventLoop instanceof SingleThreadEventExecutor) {
+                pendingTasks += ((SingleThreadEventExecutor) eventLoop).pendingTasks();
+            }
+        }
+        return pendingTasks;
+    }
+
+    @Override
+    public double getEventLoopLagP99Millis() {
+        return toMillis(eventLoopLag.percentileNanos(0.99));
+    }
+
+    @Override
+    public double getFsyncP99Millis() {
+        return toMillis(fsyncLatency.percentileNanos(0.99));
+    }
+
+    @Override
+    public Map<String, Long> getExceptions() {
+        Map<String, Long> counts = new TreeMap<>();
+        exceptions.forEach((type, count) -> counts.put(type, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format.
+     */
+    public void writeText(StringBuilder text) {
+        text.append("# TYPE cloudstorage_requests_total counter\n");
+        for (Operation operation : Operation.values()) {
+            sample(text, "cloudstorage_requests_total", operationLabel(operation), latencies.get(operation).getCount());
+        }
+        text.append("# TYPE cloudstorage_request_errors_total counter\n");
+        for (Operation operation : Operation.values()) {
+            sample(text, "cloudstorage_request_errors_total", operationLabel(operation), errors.get(operation).sum());
+        }
+        text.append("# TYPE cloudstorage_request_seconds summary\n");
+        for (Operation operation : Operation.values()) {
+            summary(text, "cloudstorage_request_seconds", operationLabel(operation), latencies.get(operation));
+        }
+        text.append("# TYPE cloudstorage_received_bytes_total counter\n");
+        sample(text, "cloudstorage_received_bytes_total", "", getBytesReceived());
+        text.append("# TYPE cloudstorage_sent_bytes_total counter\n");
+        sample(text, "cloudstorage_sent_bytes_total", "", getBytesSent());
+        text.append("# TYPE cloudstorage_active_uploads gauge\n");
+        sample(text, "cloudstorage_active_uploads", "", getActiveUploads());
+        text.append("# TYPE cloudstorage_active_downloads gauge\n");
+        sample(text, "cloudstorage_active_downloads", "", getActiveDownloads());
+        text.append("# TYPE cloudstorage_event_loop_pending_tasks gauge\n");
+        sample(text, "cloudstorage_event_loop_pending_tasks", "", getEventLoopPendingTasks());
+        text.append("# TYPE cloudstorage_event_loop_lag_seconds summary\n");
+        summary(text, "cloudstorage_event_loop_lag_seconds", "", eventLoopLag);
+        text.append("# TYPE cloudstorage_fsync_seconds summary\n");
+        summary(text, "cloudstorage_fsync_seconds", "", fsyncLatency);
+        text.append("# TYPE cloudstorage_exceptions_total counter\n");
+        getExceptions().forEach((type, count) ->
+                sample(text, "cloudstorage_exceptions_total", "type=\"" + type + '"', count));
+    }
+
+    private static String operationLabel(Operation operation) {
+        return "operation=\"" + operation.name().toLowerCase(Locale.ROOT) + '"';
+    }
+
+    private static void summary(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (double quantile : QUANTILES) {
+            sample(text, name, labels + separator + "quantile=\"" + quantile + '"',
+                    toSeconds(histogram.percentileNanos(quantile)));
+        }
+        sample(text, name + "_sum", labels, toSeconds(histogram.getTotalNanos()));
+        sample(text, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void sample(StringBuilder text, String name, String labels, Object value) {
+        text.append(name);
+        if (!labels.isEmpty()) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static double toSeconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,30 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JMX view of {@link ServerMetrics}, counted since the start of the server.
+ */
+public interface ServerMetricsMXBean {
+    List<OperationStats> getOperations();
+
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    int getActiveUploads();
+
+    long getActiveDownloads();
+
+    long getEventLoopPendingTasks();
+
+    double getEventLoopLagP99Millis();
+
+    double getFsyncP99Millis();
+
+    /**
+     * @return connection errors by exception class
+     */
+    Map<String, Long> getExceptions();
+}
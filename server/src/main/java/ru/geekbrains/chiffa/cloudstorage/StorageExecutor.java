@@ -0,0 +1,59 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of threads doing blocking file system work, so event loop threads only do network I/O.
+ * Every connection is pinned to one single-threaded executor, which keeps its requests and upload
+ * chunks in order without any locking in {@link MainHandler}. A full queue rejects new tasks with
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ */
+public class StorageExecutor implements AutoCloseable {
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final ThreadPoolExecutor[] executors;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    public StorageExecutor(int threads, int queueDepth) {
+        executors = new ThreadPoolExecutor[threads];
+        for (int i = 0; i < threads; i++) {
+            String threadName = "storage-" + i;
+            executors[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueDepth),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+    }
+
+    /**
+     * @return executor for a new connection
+     */
+    public Executor next() {
+        return executors[Math.floorMod(nextIndex.getAndIncrement(), executors.length)];
+    }
+
+    /**
+     * Waits a bounded time for the queued tasks, so that they don't race with closing the storage.
+     */
+    @Override
+    public void close() {
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CLOSE_TIMEOUT_SECONDS);
+        try {
+            for (ThreadPoolExecutor executor : executors) {
+                executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
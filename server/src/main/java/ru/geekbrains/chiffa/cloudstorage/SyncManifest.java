@@ -0,0 +1,155 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pages through the manifest of a folder of a user in the {@link MetadataIndex}, for a client to compare
+ * it with its own files. The checksum of a file which isn't known yet is computed while its page is made
+ * and kept in the index, so that the content of a file is read once and not on every sync.
+ * <p>
+ * A page is made on the storage thread the connection shares with others, so it reads no more than
+ * {@link #MAX_HASHED_BYTES} of such files. The rest go without a checksum and the client takes them
+ * for changed ones this time, while they are hashed by a background thread of the server for later syncs.
+ * <p>
+ * One instance is shared by all connections of the server.
+ */
+public class SyncManifest implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SyncManifest.class);
+    /**
+     * Bytes of files without a known checksum read for one page.
+     */
+    static final long MAX_HASHED_BYTES = 32L * 1024 * 1024;
+    // files waiting for the background hasher, the ones beyond it are hashed when a later sync lists them
+    private static final int MAX_QUEUED_FILES = 1024;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final Path rootDir;
+    private final MetadataIndex metadataIndex;
+    private final ChunkStore chunkStore;
+    private final ThreadPoolExecutor hasher;
+
+    public SyncManifest(Path rootDir, MetadataIndex metadataIndex, ChunkStore chunkStore) {
+        this.rootDir = rootDir;
+        this.metadataIndex = metadataIndex;
+        this.chunkStore = chunkStore;
+        this.hasher = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_FILES),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "checksum-hasher");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    public SyncManifestResponse page(SyncManifestRequest request) throws IOException {
+        String username = request.getUsername();
+        String prefix = request.getPrefix();
+        int pageSize = Math.max(1, Math.min(request.getPageSize(), SyncManifestRequest.MAX_PAGE_SIZE));
+        NavigableMap<String, FileMetadata> files =
+                DirectoryListing.withPrefix(metadataIndex.files(username), prefix);
+        if (!request.getCursor().isEmpty()) {
+            files = files.tailMap(request.getCursor(), false);
+        }
+
+        List<FileMetadata> page = new ArrayList<>(pageSize + 1);
+        for (FileMetadata file : files.values()) {
+            if (page.size() > pageSize) {
+                break;
+            }
+            page.add(file);
+        }
+        boolean more = page.size() > pageSize;
+        if (more) {
+            page.remove(page.size() - 1);
+        }
+
+        List<SyncEntry> entries = new ArrayList<>(page.size());
+        long hashBudget = MAX_HASHED_BYTES;
+        for (FileMetadata file : page) {
+            String checksum = file.getChecksum();
+            if (checksum.isEmpty()) {
+                if (file.getSize() <= hashBudget) {
+                    hashBudget -= file.getSize();
+                    checksum = computeChecksum(username, file);
+                } else {
+                    hashLater(username, file);
+                }
+            }
+            entries.add(new SyncEntry(file.getName(), file.getSize(), file.getLastModified(), checksum));
+        }
+        String cursor = more ? page.get(page.size() - 1).getName() : "";
+        return new SyncManifestResponse(request.getId(), entries, cursor);
+    }
+
+    /**
+     * Queues the file for the background hasher, which stores its checksum in the index unless the file
+     * has been replaced by then. Nothing is queued if too many files already wait.
+     */
+    void hashLater(String username, FileMetadata file) {
+        hasher.execute(() -> {
+            if (metadataIndex.get(username, file.getName()) != file) {
+                return;
+            }
+            try {
+                computeChecksum(username, file);
+            } catch (IOException e) {
+                logger.debug("Checksum of {} wasn't computed", file.getName(), e);
+            }
+        });
+    }
+
+    /**
+     * Reads the file and stores its checksum in the index, unless the file has been replaced meanwhile.
+     *
+     * @return checksum of the file as it was listed, empty if it has been replaced or deleted while it was read
+     */
+    String computeChecksum(String username, FileMetadata file) throws IOException {
+        try {
+            List<FileSlice> slices = file.isChunked()
+                    ? chunkStore.slices(Manifest.read(chunkStore.manifestPath(username, file.getName())), 0,
+                            file.getSize())
+                    : Collections.singletonList(
+                            new FileSlice(rootDir.resolve(username).resolve(file.getName()), 0, file.getSize()));
+            String checksum = FileSlice.checksum(slices);
+            synchronized (metadataIndex.lock(username)) {
+                if (metadataIndex.get(username, file.getName()) == file) {
+                    metadataIndex.put(username, file.withChecksum(checksum));
+                }
+            }
+            return checksum;
+        } catch (IOException e) {
+            if (metadataIndex.get(username, file.getName()) != file) {
+                // the client takes the file for a changed one and compares it again on the next sync
+                return "";
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the queued files and waits a bounded time for the one being hashed, so that it doesn't race
+     * with closing the index.
+     */
+    @Override
+    public void close() {
+        hasher.shutdownNow();
+        try {
+            hasher.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
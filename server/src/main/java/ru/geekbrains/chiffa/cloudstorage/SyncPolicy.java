@@ -0,0 +1,24 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * When bytes of an upload are forced to the storage device. Whatever the policy is, the client
+ * gets its response only after the whole file has been forced.
+ */
+public enum SyncPolicy {
+    /**
+     * Force after every received buffer. Slowest, kept for compatibility.
+     */
+    EVERY_WRITE,
+    /**
+     * Force once when the last byte of the file has been written.
+     */
+    ON_COMPLETE,
+    /**
+     * Force every {@code syncBytes} bytes or {@code syncIntervalMillis} milliseconds and once on completion.
+     */
+    PERIODIC,
+    /**
+     * Completed uploads are forced in batches by the {@link GroupCommitter}, the files of a batch concurrently.
+     */
+    GROUP_COMMIT
+}
@@ -0,0 +1,109 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Read and write rate limits of the server: global ones shared by all connections, per-user ones shared
+ * by the connections of a user, and per-connection ones, which a connection takes with {@link #connection()}.
+ * Only transfer data is limited, requests and responses are never held back.
+ * <p>
+ * Thread safe.
+ */
+public class TrafficShaper {
+    private static final RateLimiter UNLIMITED = new RateLimiter(0, 0);
+    /**
+     * Received bytes over the limits which holding back window updates keeps a single upload under.
+     */
+    private static final long MAX_READ_DEBT = OutboundTransfers.INITIAL_WINDOW_SIZE;
+
+    private final ServerConfig config;
+    private final RateLimiter globalRead;
+    private final RateLimiter globalWrite;
+    private final ConcurrentMap<String, RateLimiter> userReads = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, RateLimiter> userWrites = new ConcurrentHashMap<>();
+
+    public TrafficShaper(ServerConfig config) {
+        this.config = config;
+        this.globalRead = limiter(config.getGlobalReadRate());
+        this.globalWrite = limiter(config.getGlobalWriteRate());
+    }
+
+    public Connection connection() {
+        return new Connection();
+    }
+
+    private static RateLimiter limiter(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            return UNLIMITED;
+        }
+        // a tenth of a second of traffic may go at once, but not less than a chunk
+        return new RateLimiter(bytesPerSecond, Math.max(bytesPerSecond / 10, OutboundTransfers.CHUNK_SIZE));
+    }
+
+    private static RateLimiter userLimiter(ConcurrentMap<String, RateLimiter> limiters, String username,
+                                           long bytesPerSecond) {
+        if (bytesPerSecond <= 0 || username.isEmpty()) {
+            return UNLIMITED;
+        }
+        return limiters.computeIfAbsent(username, ignored -> limiter(bytesPerSecond));
+    }
+
+    private static long maxDelayNanos(RateLimiter first, RateLimiter second, RateLimiter third, long allowedDebt) {
+        return Math.max(first.delayNanos(allowedDebt),
+                Math.max(second.delayNanos(allowedDebt), third.delayNanos(allowedDebt)));
+    }
+
+    /**
+     * Limits of one connection. Its downloads are throttled through {@link OutboundTransfers} with their
+     * owners being users, while uploads are paced by holding back window updates.
+     */
+    public class Connection implements TransferThrottle {
+        private final RateLimiter read = limiter(config.getConnectionReadRate());
+        private final RateLimiter write = limiter(config.getConnectionWriteRate());
+
+        /**
+         * Takes received upload bytes of the user, an empty name for data not tied to a user.
+         */
+        public void received(String username, int bytes) {
+            globalRead.take(bytes);
+            userLimiter(userReads, username, config.getUserReadRate()).take(bytes);
+            read.take(bytes);
+        }
+
+        /**
+         * @return nanoseconds the next window update to an uploading user has to be held back
+         */
+        public long readDelayNanos(String username) {
+            return maxDelayNanos(globalRead, userLimiter(userReads, username, config.getUserReadRate()), read, 0);
+        }
+
+        /**
+         * More can be received than holding back window updates paces, as with many small uploads each
+         * starting with a full window. Then the connection isn't read for a while.
+         *
+         * @return nanoseconds the connection shouldn't be read, 0 if it may be
+         */
+        public long readPauseNanos(String username) {
+            return maxDelayNanos(globalRead, userLimiter(userReads, username, config.getUserReadRate()), read,
+                    MAX_READ_DEBT);
+        }
+
+        @Override
+        public long delayNanos(String owner) {
+            return maxDelayNanos(globalWrite, userLimiter(userWrites, owner, config.getUserWriteRate()), write, 0);
+        }
+
+        @Override
+        public void sent(String owner, int bytes) {
+            globalWrite.take(bytes);
+            userLimiter(userWrites, owner, config.getUserWriteRate()).take(bytes);
+            write.take(bytes);
+        }
+
+        @Override
+        public int weight(String owner) {
+            return config.getUserWeights().getOrDefault(owner, 1);
+        }
+    }
+}
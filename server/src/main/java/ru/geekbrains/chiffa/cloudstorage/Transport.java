@@ -0,0 +1,13 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+/**
+ * Netty transport of the server's channels.
+ */
+public enum Transport {
+    /**
+     * Native epoll if it is available, which needs Linux, NIO otherwise.
+     */
+    AUTO,
+    EPOLL,
+    NIO
+}
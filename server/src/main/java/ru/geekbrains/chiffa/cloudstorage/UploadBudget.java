@@ -0,0 +1,70 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upload bytes of all connections that have been read from the sockets but not yet written to disk.
+ * Connections stop reading when the budget is exhausted and wait until half of it is free again.
+ * <p>
+ * Thread safe.
+ */
+public class UploadBudget {
+    private final long limit;
+    private final long resumeLimit;
+    private final AtomicLong inFlight = new AtomicLong();
+    private final Set<Runnable> waiters = ConcurrentHashMap.newKeySet();
+
+    public UploadBudget(long limit) {
+        this.limit = limit;
+        this.resumeLimit = limit / 2;
+    }
+
+    /**
+     * Takes the bytes even if they don't fit, they have been read already.
+     *
+     * @return false if the budget is exhausted and reading has to stop
+     */
+    public boolean acquire(long bytes) {
+        return inFlight.addAndGet(bytes) <= limit;
+    }
+
+    public void release(long bytes) {
+        if (inFlight.addAndGet(-bytes) <= resumeLimit && !waiters.isEmpty()) {
+            wakeUp();
+        }
+    }
+
+    /**
+     * @return true if a waiting connection may read again
+     */
+    public boolean isAvailable() {
+        return inFlight.get() <= resumeLimit;
+    }
+
+    /**
+     * Runs the task once when enough of the budget is free, right away if it is free already.
+     */
+    public void await(Runnable task) {
+        waiters.add(task);
+        if (isAvailable()) {
+            wakeUp();
+        }
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    private void wakeUp() {
+        for (Iterator<Runnable> it = waiters.iterator(); it.hasNext(); ) {
+            Runnable task = it.next();
+            // the task may be woken up by another thread at the same time
+            if (waiters.remove(task)) {
+                task.run();
+            }
+        }
+    }
+}
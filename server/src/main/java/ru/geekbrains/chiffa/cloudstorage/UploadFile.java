@@ -0,0 +1,173 @@
+package ru.geekbrains.chiffa.cloudstorage;
+
+import io.netty.buffer.ByteBuf;
+import lombok.Getter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Target file of an upload. Forces written bytes to disk according to the configured {@link SyncPolicy}.
+ * An upload may continue an interrupted one: the file is then cut to the given offset and appended.
+ * The checksum of the file is computed from the bytes as they are written.
+ */
+public class UploadFile implements AutoCloseable {
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final SyncPolicy syncPolicy;
+    private final long syncBytes;
+    private final long syncIntervalNanos;
+    private final GroupCommitter groupCommitter;
+    private final ContentChecksum checksum = new ContentChecksum();
+    private ByteBuffer copyBuffer;
+
+    @Getter
+    private long size;
+    private long unsyncedBytes;
+    private long lastSyncNanos = System.nanoTime();
+
+    public UploadFile(Path path, long offset, ServerConfig config, GroupCommitter groupCommitter) throws IOException {
+        this.channel = FileChannel.open(path.normalize(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (offset > channel.size()) {
+            channel.close();
+            throw new IOException(String.format("Upload can't continue from %d, only %d bytes are stored", offset, channel.size()));
+        }
+        channel.truncate(offset);
+        channel.position(offset);
+        if (offset > 0) {
+            try {
+                addStoredBytes(path, offset);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        this.size = offset;
+        this.syncPolicy = config.getSyncPolicy();
+        this.syncBytes = config.getSyncBytes();
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.getSyncIntervalMillis());
+        this.groupCommitter = groupCommitter;
+    }
+
+    public void write(ByteBuf buf) throws IOException {
+        int readableBytes = buf.readableBytes();
+        checksum.update(buf);
+        while (buf.isReadable()) {
+            buf.skipBytes(channel.write(buf.nioBuffer()));
+        }
+        written(readableBytes);
+    }
+
+    /**
+     * Appends {@code count} bytes of the source file starting at {@code position}. The bytes go through memory
+     * rather than being transferred between the files, they are added to the checksum on the way.
+     */
+    public void copyFrom(FileChannel source, long position, long count) throws IOException {
+        if (copyBuffer == null) {
+            copyBuffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        }
+        long copied = 0;
+        while (copied < count) {
+            copyBuffer.clear();
+            copyBuffer.limit((int) Math.min(copyBuffer.capacity(), count - copied));
+            int read = source.read(copyBuffer, position + copied);
+            if (read <= 0) {
+                throw new EOFException("Source file is shorter than expected");
+            }
+            copyBuffer.flip();
+            checksum.update(copyBuffer.duplicate());
+            while (copyBuffer.hasRemaining()) {
+                channel.write(copyBuffer);
+            }
+            copied += read;
+        }
+        written(count);
+    }
+
+    /**
+     * @return checksum of the whole file, to be taken once all of its bytes have been written
+     */
+    public String checksum() {
+        return checksum.finish();
+    }
+
+    /**
+     * Adds the kept part of an interrupted upload to the checksum, it is read only when the upload continues.
+     */
+    private void addStoredBytes(Path path, long length) throws IOException {
+        try (FileChannel stored = FileChannel.open(path.normalize(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            for (long position = 0; position < length; ) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), length - position));
+                int read = stored.read(buffer, position);
+                if (read <= 0) {
+                    throw new EOFException("Stored part of the upload is shorter than expected");
+                }
+                buffer.flip();
+                checksum.update(buffer);
+                position += read;
+            }
+        }
+    }
+
+    private void written(long bytes) throws IOException {
+        size += bytes;
+        unsyncedBytes += bytes;
+
+        if (syncPolicy == SyncPolicy.EVERY_WRITE) {
+            forceData();
+        } else if (syncPolicy == SyncPolicy.PERIODIC
+                && (unsyncedBytes >= syncBytes || System.nanoTime() - lastSyncNanos >= syncIntervalNanos)) {
+            forceData();
+        }
+    }
+
+    /**
+     * Makes all written bytes durable.
+     *
+     * @return future completed when the file has been forced to disk
+     */
+    public CompletableFuture<Void> sync() {
+        if (syncPolicy == SyncPolicy.GROUP_COMMIT) {
+            return groupCommitter.sync(channel);
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            groupCommitter.force(channel, true);
+            future.complete(null);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void forceData() throws IOException {
+        groupCommitter.force(channel, false);
+        unsyncedBytes = 0;
+        lastSyncNanos = System.nanoTime();
+    }
+
+    /**
+     * Closes an interrupted upload so that it can be continued from its current size.
+     */
+    public void closeDurably() throws IOException {
+        try {
+            groupCommitter.force(channel, true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}